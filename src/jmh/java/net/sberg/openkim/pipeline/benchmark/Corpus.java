@@ -0,0 +1,38 @@
+package net.sberg.openkim.pipeline.benchmark;
+
+import jakarta.mail.internet.MimeMessage;
+import net.sberg.openkim.pipeline.atomics.mail.MailGetMimeMessage;
+import net.sberg.openkim.pipeline.atomics.mail.MailKeys;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * <p>Corpus class.</p>
+ * Access to the test mails in {@code src/test/resources}, the benchmarks are started in the project directory.
+ */
+final class Corpus extends MailKeys {
+
+    static final Path DIRECTORY = Path.of("src/test/resources");
+
+    private Corpus() {
+    }
+
+    static Path path(String name) {
+        return DIRECTORY.resolve(name);
+    }
+
+    static byte[] bytes(String name) throws IOException {
+        return Files.readAllBytes(path(name));
+    }
+
+    static MimeMessage parse(byte[] mail) throws Exception {
+        Map<String,Object> input = new HashMap<>();
+        input.put(MAIL_STREAM, new ByteArrayInputStream(mail));
+        return (MimeMessage) new MailGetMimeMessage().execute(input).get(MAIL_MIMEMESSAGE);
+    }
+}
@@ -0,0 +1,127 @@
+package net.sberg.openkim.pipeline.benchmark;
+
+import jakarta.mail.Message;
+import jakarta.mail.internet.MimeMessage;
+import net.sberg.openkim.pipeline.atomics.mail.HeaderPatch;
+import net.sberg.openkim.pipeline.atomics.mail.MailKeys;
+import net.sberg.openkim.pipeline.atomics.mail.MailModTextBody;
+import net.sberg.openkim.pipeline.atomics.mail.MailPatchHeaders;
+import net.sberg.openkim.pipeline.atomics.mail.MailReplaceRecipients;
+import net.sberg.openkim.pipeline.atomics.mail.RecipientRewriter;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>MailModifyBenchmark class.</p>
+ * Mutating atomics, measured including {@code writeTo} because the changes are only materialized there.
+ * Every invocation gets a freshly parsed message, the parsing happens in the invocation setup and is not measured.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class MailModifyBenchmark extends MailKeys {
+
+    private final MailModTextBody modTextBody = new MailModTextBody();
+    private final MailReplaceRecipients replaceRecipients = new MailReplaceRecipients();
+    private final MailPatchHeaders patchHeaders = new MailPatchHeaders();
+    private final HeaderPatch headerPatch = relayPatch();
+    private final Map<String,String> replacements = Map.of(
+            "derlinuxer@sberg.net", "replaced@sberg.net",
+            "blubber@sberg.net", "info@sberg.net");
+    private final Map<String,String> largeReplacements = largeReplacements(5000);
+    private RecipientRewriter largeRules;
+    private final List<Message.RecipientType> recipientTypes =
+            List.of(Message.RecipientType.TO, Message.RecipientType.CC, Message.RecipientType.BCC);
+
+    private byte[] attachmentMail;
+    private byte[] replacingMail;
+    private MimeMessage attachmentMessage;
+    private MimeMessage replacingMessage;
+
+    @Setup(Level.Trial)
+    public void load() throws Exception {
+        attachmentMail = Corpus.bytes("testMailWithAttachments.eml");
+        replacingMail = Corpus.bytes("testMailforReplacing.eml");
+        largeRules = RecipientRewriter.compile(largeReplacements);
+    }
+
+    @Setup(Level.Invocation)
+    public void parse() throws Exception {
+        attachmentMessage = Corpus.parse(attachmentMail);
+        replacingMessage = Corpus.parse(replacingMail);
+    }
+
+    @Benchmark
+    public MimeMessage modTextBodyAppend() throws Exception {
+        Map<String,Object> input = new HashMap<>();
+        input.put(MAIL_MIMEMESSAGE, attachmentMessage);
+        input.put(MAIL_MODTEXTBODY_PLAIN, "Appended benchmark text");
+        input.put(MAIL_MODTEXTBODY_HTML, "<p>Appended benchmark text</p>");
+        input.put(MAIL_MODTEXTBODY_TYPE, MailModTextBody.Type.APPEND);
+        modTextBody.execute(input);
+        attachmentMessage.writeTo(OutputStream.nullOutputStream());
+        return attachmentMessage;
+    }
+
+    @Benchmark
+    public MimeMessage replaceRecipients() throws Exception {
+        Map<String,Object> input = new HashMap<>();
+        input.put(MAIL_MIMEMESSAGE, replacingMessage);
+        input.put(MAIL_REPLACERECIPIENTS, replacements);
+        input.put(MAIL_RECIPIENTS_TYPES, recipientTypes);
+        replaceRecipients.execute(input);
+        replacingMessage.writeTo(OutputStream.nullOutputStream());
+        return replacingMessage;
+    }
+
+    @Benchmark
+    public MimeMessage replaceRecipientsLargeTable() throws Exception {
+        Map<String,Object> input = new HashMap<>();
+        input.put(MAIL_MIMEMESSAGE, replacingMessage);
+        input.put(MAIL_REPLACERECIPIENTS_RULES, largeRules);
+        input.put(MAIL_RECIPIENTS_TYPES, recipientTypes);
+        replaceRecipients.execute(input);
+        replacingMessage.writeTo(OutputStream.nullOutputStream());
+        return replacingMessage;
+    }
+
+    @Benchmark
+    public MimeMessage patchHeaders() throws Exception {
+        Map<String,Object> input = new HashMap<>();
+        input.put(MAIL_MIMEMESSAGE, replacingMessage);
+        input.put(MAIL_PATCHHEADERS, headerPatch);
+        patchHeaders.execute(input);
+        replacingMessage.writeTo(OutputStream.nullOutputStream());
+        return replacingMessage;
+    }
+
+    private static Map<String,String> largeReplacements(int size) {
+        Map<String,String> replacements = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            replacements.put("user" + i + "@bulk.example", "replaced" + i + "@sberg.net");
+            replacements.put("@domain" + i + ".example", "domain" + i + "@sberg.net");
+        }
+        replacements.put("derlinuxer@sberg.net", "replaced@sberg.net");
+        return replacements;
+    }
+
+    private static HeaderPatch relayPatch() {
+        HeaderPatch patch = new HeaderPatch()
+                .add("Received", "from relay.sberg.net by kim.sberg.net; Mon, 1 Jan 2024 10:00:00 +0000")
+                .remove("X-Spam-Flag")
+                .remove("X-Spam-Status")
+                .set("Subject", "Relayed");
+        for (int i = 0; i < 12; i++) {
+            patch.set("X-KIM-Info-" + i, "value " + i);
+        }
+        return patch;
+    }
+}
@@ -0,0 +1,78 @@
+package net.sberg.openkim.pipeline.benchmark;
+
+import jakarta.mail.internet.MimeBodyPart;
+import jakarta.mail.internet.MimeMessage;
+import net.sberg.openkim.pipeline.atomics.mail.MailGetHeader;
+import net.sberg.openkim.pipeline.atomics.mail.MailGetMimeBodyParts;
+import net.sberg.openkim.pipeline.atomics.mail.MailGetMimeMessage;
+import net.sberg.openkim.pipeline.atomics.mail.MailKeys;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>MailParseBenchmark class.</p>
+ * Read only atomics on every mail of the corpus: parsing from stream and file, body part search and header lookup.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class MailParseBenchmark extends MailKeys {
+
+    @Param({"testMail.eml", "testMailWithAttachments.eml", "ContentTypeNull_Problem.eml"})
+    public String mail;
+
+    private final MailGetMimeMessage getMimeMessage = new MailGetMimeMessage();
+    private final MailGetMimeBodyParts getMimeBodyParts = new MailGetMimeBodyParts();
+    private final MailGetHeader getHeader = new MailGetHeader();
+    private final List<String> headerNames = List.of("Subject", "X-.*", "^Content-.*", "Not-Exist");
+
+    private byte[] bytes;
+    private File file;
+    private MimeMessage message;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        bytes = Corpus.bytes(mail);
+        file = Corpus.path(mail).toFile();
+        message = Corpus.parse(bytes);
+    }
+
+    @Benchmark
+    public Object mimeMessageFromStream() throws Exception {
+        Map<String,Object> input = new HashMap<>();
+        input.put(MAIL_STREAM, new ByteArrayInputStream(bytes));
+        return getMimeMessage.execute(input).get(MAIL_MIMEMESSAGE);
+    }
+
+    @Benchmark
+    public Object mimeMessageFromFile() throws Exception {
+        Map<String,Object> input = new HashMap<>();
+        input.put(MAIL_FILE, file);
+        return getMimeMessage.execute(input).get(MAIL_MIMEMESSAGE);
+    }
+
+    @Benchmark
+    public Object mimeBodyParts() throws Exception {
+        Map<String,Object> input = new HashMap<>();
+        input.put(MAIL_MIMEMESSAGE, message);
+        input.put(MAIL_GETMIMEBODYPARTS_FILTER_DISPO, MimeBodyPart.ATTACHMENT);
+        return getMimeBodyParts.execute(input).get(MAIL_MIMEBODYPARTS);
+    }
+
+    @Benchmark
+    public Object header() throws Exception {
+        Map<String,Object> input = new HashMap<>();
+        input.put(MAIL_MIMEMESSAGE, message);
+        input.put(MAIL_HEADER_NAMES, headerNames);
+        return getHeader.execute(input).get(MAIL_HEADER);
+    }
+}
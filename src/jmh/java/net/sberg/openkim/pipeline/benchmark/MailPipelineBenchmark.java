@@ -0,0 +1,78 @@
+package net.sberg.openkim.pipeline.benchmark;
+
+import net.sberg.openkim.pipeline.CompiledPipeline;
+import net.sberg.openkim.pipeline.PipelineBuilder;
+import net.sberg.openkim.pipeline.PipelineContext;
+import net.sberg.openkim.pipeline.atomics.mail.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>MailPipelineBenchmark class.</p>
+ * A complete receive, inspect, modify and write cycle composed of atomics, once on a {@link HashMap}
+ * and once on a trusted {@link PipelineContext}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class MailPipelineBenchmark extends MailKeys {
+
+    @Param({"testMail.eml", "testMailWithAttachments.eml", "ContentTypeNull_Problem.eml"})
+    public String mail;
+
+    private final CompiledPipeline pipeline = new PipelineBuilder()
+            .add(new MailGetMimeMessage())
+            .add(new MailGetSubject())
+            .add(new MailGetMsgID())
+            .add(new MailGetHeader())
+            .add(new MailGetMimeBodyParts())
+            .add(new MailSetSubject())
+            .add(new MailModTextBody())
+            .build();
+
+    private final CompiledPipeline trustedPipeline = new PipelineBuilder()
+            .add(pipeline)
+            .validate(MAIL_STREAM_KEY, MAIL_HEADER_NAMES_KEY, MAIL_SUBJECT_KEY, MAIL_MODTEXTBODY_TYPE_KEY)
+            .trusted()
+            .build();
+
+    private final List<String> headerNames = List.of("Subject", "X-.*", "^Content-.*");
+
+    private byte[] bytes;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        bytes = Corpus.bytes(mail);
+    }
+
+    @Benchmark
+    public Object hashMap() throws Exception {
+        return run(pipeline, new HashMap<>());
+    }
+
+    @Benchmark
+    public Object pipelineContext() throws Exception {
+        return run(trustedPipeline, new PipelineContext());
+    }
+
+    private Object run(CompiledPipeline op, Map<String,Object> input) throws Exception {
+        input.put(MAIL_STREAM, new ByteArrayInputStream(bytes));
+        input.put(MAIL_HEADER_NAMES, headerNames);
+        input.put(MAIL_SUBJECT, "Benchmark");
+        input.put(MAIL_MODTEXTBODY_PLAIN, "Appended benchmark text");
+        input.put(MAIL_MODTEXTBODY_HTML, "<p>Appended benchmark text</p>");
+        input.put(MAIL_MODTEXTBODY_TYPE, MailModTextBody.Type.APPEND);
+        Map<String,Object> output = op.execute(input);
+        MAIL_MIMEMESSAGE_KEY.require(output).writeTo(OutputStream.nullOutputStream());
+        return output;
+    }
+}
@@ -0,0 +1,128 @@
+package net.sberg.openkim.pipeline;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * <p>AsyncPipelineOp interface.</p>
+ * Non blocking variant of {@link PipelineOp}. The blocking atomics are adapted with {@link #of(PipelineOp)},
+ * which runs them on virtual threads, so thousands of pipelines can wait for POP3 / SMTP I/O at the same time
+ * without occupying a platform thread each. Exceptions of a stage complete the future exceptionally,
+ * {@link CompletableFuture#get()} reports the original exception as cause.
+ * <pre>{@code
+ * AsyncPipelineOp pipeline = AsyncPipelineOp.of(new MailGetMimeMessage())
+ *     .thenApplyAsync(new MailSetSubject())
+ *     .thenApplyAsync(new MailSendMessage());
+ * CompletableFuture<Map<String,Object>> result = pipeline.executeAsync(input);
+ * }</pre>
+ */
+@FunctionalInterface
+public interface AsyncPipelineOp {
+
+    /**
+     * Starts a new virtual thread per task.
+     */
+    Executor VIRTUAL_THREADS = Thread::startVirtualThread;
+
+    /**
+     * <p>executeAsync.</p>
+     *
+     * @param input a {@link Map} object
+     * @return a {@link CompletableFuture} completed with the output map
+     */
+    CompletableFuture<Map<String,Object>> executeAsync(Map<String,Object> input);
+
+    /**
+     * <p>thenApplyAsync.</p>
+     * Runs the blocking op on a virtual thread after this op has completed.
+     *
+     * @param next a {@link PipelineOp} object
+     * @return a {@link AsyncPipelineOp} object
+     */
+    default AsyncPipelineOp thenApplyAsync(PipelineOp next) {
+        return thenApplyAsync(next, VIRTUAL_THREADS);
+    }
+
+    /**
+     * <p>thenApplyAsync.</p>
+     *
+     * @param next a {@link PipelineOp} object
+     * @param executor a {@link Executor} object the op is executed on
+     * @return a {@link AsyncPipelineOp} object
+     */
+    default AsyncPipelineOp thenApplyAsync(PipelineOp next, Executor executor) {
+        Objects.requireNonNull(next);
+        Objects.requireNonNull(executor);
+        return input -> executeAsync(input).thenApplyAsync(result -> executeUnchecked(next, result), executor);
+    }
+
+    /**
+     * <p>thenCompose.</p>
+     *
+     * @param next a {@link AsyncPipelineOp} object started with the output of this op
+     * @return a {@link AsyncPipelineOp} object
+     */
+    default AsyncPipelineOp thenCompose(AsyncPipelineOp next) {
+        Objects.requireNonNull(next);
+        return input -> executeAsync(input).thenCompose(next::executeAsync);
+    }
+
+    /**
+     * <p>toBlocking.</p>
+     * Waits for the result on the calling thread and rethrows the original exception of a failed stage.
+     *
+     * @return a {@link PipelineOp} object
+     */
+    @SuppressWarnings("unchecked")
+    default PipelineOp toBlocking() {
+        return input -> {
+            try {
+                return executeAsync((Map<String,Object>) input).join();
+            }
+            catch (CompletionException e) {
+                if (e.getCause() instanceof Exception cause)
+                    throw cause;
+                throw e;
+            }
+        };
+    }
+
+    /**
+     * <p>of.</p>
+     * Adapts a blocking op, every execution runs on a new virtual thread.
+     *
+     * @param op a {@link PipelineOp} object, e.g. an atomic or a {@link CompiledPipeline}
+     * @return a {@link AsyncPipelineOp} object
+     */
+    static AsyncPipelineOp of(PipelineOp op) {
+        return of(op, VIRTUAL_THREADS);
+    }
+
+    /**
+     * <p>of.</p>
+     *
+     * @param op a {@link PipelineOp} object, e.g. an atomic or a {@link CompiledPipeline}
+     * @param executor a {@link Executor} object the op is executed on
+     * @return a {@link AsyncPipelineOp} object
+     */
+    static AsyncPipelineOp of(PipelineOp op, Executor executor) {
+        Objects.requireNonNull(op);
+        Objects.requireNonNull(executor);
+        return input -> CompletableFuture.supplyAsync(() -> executeUnchecked(op, input), executor);
+    }
+
+    private static Map<String,Object> executeUnchecked(PipelineOp op, Map<String,Object> input) {
+        try {
+            return op.execute(input);
+        }
+        catch (CompletionException e) {
+            throw e;
+        }
+        catch (Exception e) {
+            throw new CompletionException(e);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package net.sberg.openkim.pipeline;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * <p>CompiledPipeline class.</p>
+ * Executes a flat array of {@link PipelineOp}s in one loop instead of a chain of nested lambdas.
+ * Instances are immutable and can be shared between threads. Use {@link PipelineBuilder} to create one.
+ */
+public final class CompiledPipeline implements PipelineOp {
+
+    public static final String PIPELINE_ERROR = "pipeline.error";
+    public static final String PIPELINE_ERROR_STAGE = "pipeline.error.stage";
+
+    private final PipelineOp[] stages;
+    private final StageListener[] listeners;
+    private final Predicate<Map<String,Object>> stopCondition;
+    private final boolean captureErrors;
+    private final boolean trusted;
+    private final Contract contract;
+
+    CompiledPipeline(PipelineOp[] stages, StageListener[] listeners,
+                     Predicate<Map<String,Object>> stopCondition, boolean captureErrors, boolean trusted) {
+        this.stages = stages;
+        this.listeners = listeners;
+        this.stopCondition = stopCondition;
+        this.captureErrors = captureErrors;
+        this.trusted = trusted;
+        this.contract = combineContracts(stages);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public Map<String,Object> execute(Map input) throws Exception {
+        if (trusted && input instanceof PipelineContext context && !context.isTrusted()) {
+            context.setTrusted(true);
+            try {
+                return run(context);
+            }
+            finally {
+                context.setTrusted(false);
+            }
+        }
+        return run(input);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String,Object> run(Map input) throws Exception {
+        Map<String,Object> context = input;
+        boolean timed = listeners.length > 0;
+        for (int i = 0; i < stages.length; i++) {
+            PipelineOp stage = stages[i];
+            long start = timed ? System.nanoTime() : 0L;
+            try {
+                context = stage.execute(context);
+            }
+            catch (Exception e) {
+                if (timed)
+                    notifyListeners(i, stage, System.nanoTime() - start, e);
+                if (!captureErrors)
+                    throw e;
+                context.put(PIPELINE_ERROR, e);
+                context.put(PIPELINE_ERROR_STAGE, i);
+                return context;
+            }
+            if (timed)
+                notifyListeners(i, stage, System.nanoTime() - start, null);
+            if (stopCondition != null && stopCondition.test(context))
+                break;
+        }
+        return context;
+    }
+
+    /**
+     * <p>contract.</p>
+     * Keys required by a stage and not produced by an earlier stage are required by the whole pipeline.
+     *
+     * @return a {@link Contract} object or null if a stage has no contract
+     */
+    @Override
+    public Contract contract() {
+        return contract;
+    }
+
+    /**
+     * <p>stages.</p>
+     *
+     * @return unmodifiable {@link List} of all stages in execution order
+     */
+    public List<PipelineOp> stages() {
+        return List.of(stages);
+    }
+
+    /**
+     * <p>size.</p>
+     *
+     * @return count of stages
+     */
+    public int size() {
+        return stages.length;
+    }
+
+    boolean isPlain() {
+        return listeners.length == 0 && stopCondition == null && !captureErrors && !trusted;
+    }
+
+    private static Contract combineContracts(PipelineOp[] stages) {
+        Contract combined = new Contract();
+        Set<Key<?>> produced = new HashSet<>();
+        for (PipelineOp stage : stages) {
+            Contract stageContract = stage.contract();
+            if (stageContract == null)
+                return null;
+            for (Key<?> key : stageContract.required()) {
+                if (!produced.contains(key))
+                    combined = combined.requires(key);
+            }
+            combined = combined.optional(stageContract.optional().toArray(new Key<?>[0]))
+                    .produces(stageContract.produced().toArray(new Key<?>[0]));
+            produced.addAll(stageContract.produced());
+        }
+        return combined;
+    }
+
+    private void notifyListeners(int stage, PipelineOp op, long nanos, Exception error) {
+        for (StageListener listener : listeners) {
+            listener.onStage(stage, op, nanos, error);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package net.sberg.openkim.pipeline;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * <p>Contract class.</p>
+ * Declares which {@link Key}s a {@link PipelineOp} consumes and produces. The {@link PipelineBuilder} checks the
+ * contracts of all stages once when the pipeline is assembled, so a miswired pipeline fails at startup and not
+ * on the first message. Instances are immutable.
+ * <pre>{@code
+ * static final Contract CONTRACT = new Contract()
+ *     .requires(MAIL_MIMEMESSAGE_KEY)
+ *     .optional(MAIL_MESSAGEID_CREATE_IF_NOT_EXISTS_KEY)
+ *     .produces(MAIL_MESSAGEID_KEY);
+ * }</pre>
+ */
+public final class Contract {
+
+    private final Set<Key<?>> required;
+    private final Set<Key<?>> optional;
+    private final Set<Key<?>> produced;
+
+    /**
+     * <p>Constructor for an empty Contract.</p>
+     */
+    public Contract() {
+        this(Set.of(), Set.of(), Set.of());
+    }
+
+    private Contract(Set<Key<?>> required, Set<Key<?>> optional, Set<Key<?>> produced) {
+        this.required = required;
+        this.optional = optional;
+        this.produced = produced;
+    }
+
+    /**
+     * <p>requires.</p>
+     *
+     * @param keys keys that must exist and must not be null
+     * @return a new {@link Contract} object
+     */
+    public Contract requires(Key<?>... keys) {
+        return new Contract(union(required, keys), optional, produced);
+    }
+
+    /**
+     * <p>optional.</p>
+     *
+     * @param keys keys that are read if they exist
+     * @return a new {@link Contract} object
+     */
+    public Contract optional(Key<?>... keys) {
+        return new Contract(required, union(optional, keys), produced);
+    }
+
+    /**
+     * <p>produces.</p>
+     *
+     * @param keys keys that are put into the pipeline map
+     * @return a new {@link Contract} object
+     */
+    public Contract produces(Key<?>... keys) {
+        return new Contract(required, optional, union(produced, keys));
+    }
+
+    /**
+     * <p>required.</p>
+     *
+     * @return unmodifiable {@link Set} of required keys
+     */
+    public Set<Key<?>> required() {
+        return required;
+    }
+
+    /**
+     * <p>optional.</p>
+     *
+     * @return unmodifiable {@link Set} of optional keys
+     */
+    public Set<Key<?>> optional() {
+        return optional;
+    }
+
+    /**
+     * <p>produced.</p>
+     *
+     * @return unmodifiable {@link Set} of produced keys
+     */
+    public Set<Key<?>> produced() {
+        return produced;
+    }
+
+    private static Set<Key<?>> union(Set<Key<?>> set, Key<?>... keys) {
+        Set<Key<?>> result = new LinkedHashSet<>(set);
+        result.addAll(List.of(keys));
+        return Collections.unmodifiableSet(result);
+    }
+
+    @Override
+    public String toString() {
+        return "Contract{required=" + required + ", optional=" + optional + ", produced=" + produced + "}";
+    }
+}
@@ -0,0 +1,166 @@
+package net.sberg.openkim.pipeline;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * <p>Key class.</p>
+ * Typed and interned key of a pipeline value. Every key owns a fixed slot index, so a {@link PipelineContext}
+ * stores its values in an array instead of hashing the key name on every access.
+ * The name is the same String that is used for plain {@code Map} input, so both worlds stay compatible.
+ *
+ * @param <T> type of the value
+ */
+public final class Key<T> {
+
+    private static final Map<String, Key<?>> REGISTRY = new ConcurrentHashMap<>();
+    private static final List<Key<?>> SLOTS = new CopyOnWriteArrayList<>();
+
+    private final String name;
+    private final String label;
+    private final Class<?> type;
+    private final int slot;
+
+    private Key(String name, Class<?> type, int slot) {
+        this.name = name;
+        this.label = name.toUpperCase().replace('.', '_');
+        this.type = type;
+        this.slot = slot;
+    }
+
+    /**
+     * <p>of.</p>
+     * Returns the interned key for the name or registers a new one.
+     *
+     * @param name the map key name
+     * @param type the value type, use {@code Object.class} for untyped values
+     * @param <T> type of the value
+     * @return a {@link Key} object
+     * @throws IllegalArgumentException if the name is already registered with another type
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> Key<T> of(String name, Class<?> type) {
+        Key<?> key = REGISTRY.get(name);
+        if (key == null) {
+            synchronized (SLOTS) {
+                key = REGISTRY.get(name);
+                if (key == null) {
+                    key = new Key<>(name, type, SLOTS.size());
+                    SLOTS.add(key);
+                    REGISTRY.put(name, key);
+                }
+            }
+        }
+        if (key.type != type)
+            throw new IllegalArgumentException("Key " + name + " is already registered with type " + key.type.getName());
+        return (Key<T>) key;
+    }
+
+    /**
+     * <p>lookup.</p>
+     *
+     * @param name the map key name
+     * @return the registered {@link Key} or null
+     */
+    public static Key<?> lookup(String name) {
+        return REGISTRY.get(name);
+    }
+
+    static int count() {
+        return SLOTS.size();
+    }
+
+    static Key<?> bySlot(int slot) {
+        return SLOTS.get(slot);
+    }
+
+    /**
+     * <p>get.</p>
+     *
+     * @param input a {@link PipelineContext} or any other {@link Map}
+     * @return the value or null if not exist
+     * @throws AtomicInputException if the value is not instance of the key type
+     */
+    @SuppressWarnings("unchecked")
+    public T get(Map<?,?> input) {
+        if (input instanceof PipelineContext context)
+            return context.get(this);
+        Object value = input.get(name);
+        if (value != null && !type.isInstance(value))
+            throw new AtomicInputException(label + " is not instance of " + type.getSimpleName() + "!");
+        return (T) value;
+    }
+
+    /**
+     * <p>getOrDefault.</p>
+     *
+     * @param input a {@link PipelineContext} or any other {@link Map}
+     * @param defaultValue value if not exist
+     * @return the value or defaultValue
+     * @throws AtomicInputException if the value is not instance of the key type
+     */
+    public T getOrDefault(Map<?,?> input, T defaultValue) {
+        T value = get(input);
+        return value != null ? value : defaultValue;
+    }
+
+    /**
+     * <p>require.</p>
+     *
+     * @param input a {@link PipelineContext} or any other {@link Map}
+     * @return the value, never null
+     * @throws AtomicInputException if the value not exist, is null or is not instance of the key type
+     */
+    public T require(Map<?,?> input) {
+        if (input instanceof PipelineContext context && context.isTrusted()) {
+            T value = context.get(this);
+            assert value != null : label + " not exist or is null!";
+            return value;
+        }
+        T value = get(input);
+        if (value == null)
+            throw new AtomicInputException(label + " not exist or is null!");
+        return value;
+    }
+
+    /**
+     * <p>isPresent.</p>
+     *
+     * @param input a {@link PipelineContext} or any other {@link Map}
+     * @return true if the key exist, even with a null value
+     */
+    public boolean isPresent(Map<?,?> input) {
+        if (input instanceof PipelineContext context)
+            return context.contains(this);
+        return input.containsKey(name);
+    }
+
+    /**
+     * <p>name.</p>
+     *
+     * @return the map key name
+     */
+    public String name() {
+        return name;
+    }
+
+    /**
+     * <p>type.</p>
+     *
+     * @return the value type
+     */
+    public Class<?> type() {
+        return type;
+    }
+
+    int slot() {
+        return slot;
+    }
+
+    @Override
+    public String toString() {
+        return label;
+    }
+}
@@ -0,0 +1,153 @@
+package net.sberg.openkim.pipeline;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * <p>PipelineBuilder class.</p>
+ * Collects {@link PipelineOp}s and compiles them into a flat {@link CompiledPipeline}.
+ * Nested compiled pipelines without own hooks are inlined, so the result is always a single array of atomics.
+ * <pre>{@code
+ * PipelineOp pipeline = new PipelineBuilder()
+ *     .add(new MailGetMimeMessage())
+ *     .add(new MailGetSubject())
+ *     .listener((stage, op, nanos, error) -> log.debug("{} took {}ns", op, nanos))
+ *     .captureErrors()
+ *     .build();
+ * }</pre>
+ */
+public class PipelineBuilder {
+
+    private final List<PipelineOp> stages = new ArrayList<>();
+    private final List<StageListener> listeners = new ArrayList<>();
+    private Predicate<Map<String,Object>> stopCondition;
+    private boolean captureErrors;
+    private Set<Key<?>> given;
+    private boolean trusted;
+
+    /**
+     * <p>add.</p>
+     *
+     * @param op a {@link PipelineOp} object
+     * @return this builder
+     */
+    public PipelineBuilder add(PipelineOp op) {
+        Objects.requireNonNull(op);
+        if (op instanceof CompiledPipeline compiled && compiled.isPlain())
+            stages.addAll(compiled.stages());
+        else
+            stages.add(op);
+        return this;
+    }
+
+    /**
+     * <p>addAll.</p>
+     *
+     * @param ops {@link PipelineOp} objects in execution order
+     * @return this builder
+     */
+    public PipelineBuilder addAll(PipelineOp... ops) {
+        for (PipelineOp op : ops) {
+            add(op);
+        }
+        return this;
+    }
+
+    /**
+     * <p>listener.</p>
+     * Stage timing is only measured if at least one listener is registered.
+     *
+     * @param listener a {@link StageListener} object
+     * @return this builder
+     */
+    public PipelineBuilder listener(StageListener listener) {
+        listeners.add(Objects.requireNonNull(listener));
+        return this;
+    }
+
+    /**
+     * <p>stopWhen.</p>
+     * The condition is checked after every stage, if it matches all remaining stages are skipped.
+     *
+     * @param condition a {@link Predicate} on the pipeline map
+     * @return this builder
+     */
+    public PipelineBuilder stopWhen(Predicate<Map<String,Object>> condition) {
+        this.stopCondition = Objects.requireNonNull(condition);
+        return this;
+    }
+
+    /**
+     * <p>captureErrors.</p>
+     * An exception of a stage stops the pipeline and is stored under {@link CompiledPipeline#PIPELINE_ERROR}
+     * and {@link CompiledPipeline#PIPELINE_ERROR_STAGE} instead of being thrown.
+     *
+     * @return this builder
+     */
+    public PipelineBuilder captureErrors() {
+        this.captureErrors = true;
+        return this;
+    }
+
+    /**
+     * <p>validate.</p>
+     * Checks the {@link Contract}s of all stages in {@link #build()}. Every required key must be given by the
+     * caller or produced by an earlier stage. After a stage without contract the check is skipped,
+     * because its output is unknown.
+     *
+     * @param givenKeys keys the caller puts into the pipeline map before execution
+     * @return this builder
+     */
+    public PipelineBuilder validate(Key<?>... givenKeys) {
+        this.given = new HashSet<>(List.of(givenKeys));
+        return this;
+    }
+
+    /**
+     * <p>trusted.</p>
+     * While the pipeline runs on a {@link PipelineContext}, atomics skip their per message input checks:
+     * required values are only checked by {@code assert} and list elements are not checked at all.
+     * Values are still type checked when they are put into the context.
+     * Use together with {@link #validate(Key[])}.
+     *
+     * @return this builder
+     */
+    public PipelineBuilder trusted() {
+        this.trusted = true;
+        return this;
+    }
+
+    /**
+     * <p>build.</p>
+     *
+     * @return a {@link CompiledPipeline} object
+     * @throws AtomicInputException if validation is enabled and a required key is missing
+     */
+    public CompiledPipeline build() {
+        PipelineOp[] ops = stages.toArray(new PipelineOp[0]);
+        if (given != null)
+            checkContracts(ops);
+        return new CompiledPipeline(ops, listeners.toArray(new StageListener[0]),
+                stopCondition, captureErrors, trusted);
+    }
+
+    private void checkContracts(PipelineOp[] ops) {
+        Set<Key<?>> available = new HashSet<>(given);
+        for (int i = 0; i < ops.length; i++) {
+            Contract contract = ops[i].contract();
+            if (contract == null)
+                return;
+            for (Key<?> key : contract.required()) {
+                if (!available.contains(key))
+                    throw new AtomicInputException("Stage " + i + " (" + ops[i].getClass().getSimpleName() + ") requires "
+                            + key + ", which is neither given nor produced by an earlier stage!");
+            }
+            available.addAll(contract.produced());
+        }
+    }
+}
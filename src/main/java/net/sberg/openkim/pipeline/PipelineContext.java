@@ -0,0 +1,355 @@
+package net.sberg.openkim.pipeline;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * <p>PipelineContext class.</p>
+ * Slot indexed pipeline input / output. Values of registered {@link Key}s live in an array indexed by
+ * {@link Key#slot()}, typed access via {@link #get(Key)} needs neither hashing nor casting.
+ * Values put by name are type checked once when they enter the context.
+ * The class is a full {@code Map<String,Object>}, so it can be passed to every {@link PipelineOp}.
+ * Names without a registered key are kept in an ordinary {@link HashMap}.
+ * Like {@link HashMap} the context is not thread safe.
+ * Resources that must live as long as the pipeline values, e.g. an open mail file, are registered with
+ * {@link #register(Map, Closeable)} and closed together with the context.
+ * <pre>{@code
+ * try (PipelineContext context = new PipelineContext()) {
+ *     context.put(MAIL_FILE_KEY, file);
+ *     pipeline.execute(context);
+ * }
+ * }</pre>
+ */
+public class PipelineContext extends AbstractMap<String,Object> implements Closeable {
+
+    public static final String PIPELINE_RESOURCES = "pipeline.resources";
+    public static final Key<List<Closeable>> PIPELINE_RESOURCES_KEY = Key.of(PIPELINE_RESOURCES, List.class);
+
+    private static final Object NULL = new Object();
+
+    private Object[] slots;
+    private Map<String,Object> unkeyed;
+    private int slotCount;
+    private boolean trusted;
+
+    /**
+     * <p>Constructor for PipelineContext.</p>
+     */
+    public PipelineContext() {
+        this.slots = new Object[Key.count()];
+    }
+
+    /**
+     * <p>Constructor for PipelineContext.</p>
+     *
+     * @param source a {@link Map} object whose entries are copied
+     */
+    public PipelineContext(Map<String,?> source) {
+        this.slots = new Object[Key.count()];
+        // filled without the overridable put methods, the instance is not complete yet
+        for (Map.Entry<String,?> entry : source.entrySet())
+            putByName(entry.getKey(), entry.getValue());
+    }
+
+    /**
+     * <p>get.</p>
+     *
+     * @param key a {@link Key} object
+     * @param <T> type of the value
+     * @return the value or null
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(Key<T> key) {
+        Object value = slot(key);
+        return value == NULL ? null : (T) value;
+    }
+
+    /**
+     * <p>put.</p>
+     *
+     * @param key a {@link Key} object
+     * @param value the value, may be null
+     * @param <T> type of the value
+     * @return the previous value or null
+     */
+    public <T> T put(Key<T> key, T value) {
+        return putSlot(key, value);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T putSlot(Key<T> key, T value) {
+        Object previous = slot(key);
+        int slot = key.slot();
+        if (slot >= slots.length)
+            slots = Arrays.copyOf(slots, Math.max(Key.count(), slot + 1));
+        slots[slot] = value == null ? NULL : value;
+        if (previous == null) {
+            slotCount++;
+            return null;
+        }
+        return previous == NULL ? null : (T) previous;
+    }
+
+    /**
+     * <p>contains.</p>
+     *
+     * @param key a {@link Key} object
+     * @return true if the key exist, even with a null value
+     */
+    public boolean contains(Key<?> key) {
+        return slot(key) != null;
+    }
+
+    /**
+     * <p>remove.</p>
+     *
+     * @param key a {@link Key} object
+     * @param <T> type of the value
+     * @return the removed value or null
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T remove(Key<T> key) {
+        Object previous = slot(key);
+        if (previous == null)
+            return null;
+        slots[key.slot()] = null;
+        slotCount--;
+        return previous == NULL ? null : (T) previous;
+    }
+
+    /**
+     * <p>isTrusted.</p>
+     *
+     * @return true while a trusted {@link CompiledPipeline} runs on this context
+     */
+    public boolean isTrusted() {
+        return trusted;
+    }
+
+    void setTrusted(boolean trusted) {
+        this.trusted = trusted;
+    }
+
+    /**
+     * <p>isTrusted.</p>
+     * Atomics use it to skip checks that a validated pipeline made redundant.
+     *
+     * @param input a {@link Map} object
+     * @return true if the input is a {@link PipelineContext} of a running trusted pipeline
+     */
+    public static boolean isTrusted(Map<?,?> input) {
+        return input instanceof PipelineContext context && context.trusted;
+    }
+
+    /**
+     * <p>register.</p>
+     *
+     * @param resource a {@link Closeable} closed by {@link #close()}
+     */
+    public void register(Closeable resource) {
+        register(this, resource);
+    }
+
+    /**
+     * <p>register.</p>
+     * Adds the resource to the list under {@link #PIPELINE_RESOURCES}, so plain maps can be cleaned up
+     * with {@link #closeResources(Map)} as well.
+     *
+     * @param input a {@link PipelineContext} or any other {@link Map}
+     * @param resource a {@link Closeable} object
+     */
+    public static void register(Map<String,Object> input, Closeable resource) {
+        Objects.requireNonNull(resource);
+        List<Closeable> resources = PIPELINE_RESOURCES_KEY.get(input);
+        if (resources == null) {
+            resources = new ArrayList<>();
+            input.put(PIPELINE_RESOURCES, resources);
+        }
+        resources.add(resource);
+    }
+
+    /**
+     * <p>closeResources.</p>
+     * Closes all registered resources in reverse order of registration and removes them from the map.
+     *
+     * @param input a {@link PipelineContext} or any other {@link Map}
+     * @throws IOException the first exception of a resource, further exceptions are suppressed, all resources are
+     *                     closed in any case
+     */
+    public static void closeResources(Map<String,Object> input) throws IOException {
+        List<Closeable> resources = PIPELINE_RESOURCES_KEY.get(input);
+        if (resources == null)
+            return;
+        input.remove(PIPELINE_RESOURCES);
+        IOException error = null;
+        for (int i = resources.size() - 1; i >= 0; i--) {
+            try {
+                resources.get(i).close();
+            }
+            catch (IOException | RuntimeException e) {
+                if (error == null)
+                    error = e instanceof IOException io ? io : new IOException(e);
+                else
+                    error.addSuppressed(e);
+            }
+        }
+        if (error != null)
+            throw error;
+    }
+
+    /**
+     * <p>close.</p>
+     * Closes the registered resources, the values stay in the context.
+     *
+     * @throws IOException the first exception of a resource
+     */
+    @Override
+    public void close() throws IOException {
+        closeResources(this);
+    }
+
+    /**
+     * Slot value of the key, NULL for an explicit null value and null if the key not exist.
+     * Values put by name before the key was registered are moved from the unkeyed map into their slot.
+     */
+    private Object slot(Key<?> key) {
+        int slot = key.slot();
+        Object value = slot < slots.length ? slots[slot] : null;
+        if (value == null && unkeyed != null && unkeyed.containsKey(key.name())) {
+            value = unkeyed.remove(key.name());
+            if (value != null && !key.type().isInstance(value))
+                throw new AtomicInputException(key + " is not instance of " + key.type().getSimpleName() + "!");
+            if (slot >= slots.length)
+                slots = Arrays.copyOf(slots, Math.max(Key.count(), slot + 1));
+            value = value == null ? NULL : value;
+            slots[slot] = value;
+            slotCount++;
+        }
+        return value;
+    }
+
+    @Override
+    public Object get(Object name) {
+        Key<?> key = name instanceof String s ? Key.lookup(s) : null;
+        if (key != null)
+            return get(key);
+        return unkeyed != null ? unkeyed.get(name) : null;
+    }
+
+    @Override
+    public boolean containsKey(Object name) {
+        Key<?> key = name instanceof String s ? Key.lookup(s) : null;
+        if (key != null)
+            return contains(key);
+        return unkeyed != null && unkeyed.containsKey(name);
+    }
+
+    @Override
+    public Object put(String name, Object value) {
+        return putByName(name, value);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object putByName(String name, Object value) {
+        Key<Object> key = (Key<Object>) Key.lookup(name);
+        if (key == null) {
+            if (unkeyed == null)
+                unkeyed = new HashMap<>();
+            return unkeyed.put(name, value);
+        }
+        if (value != null && !key.type().isInstance(value))
+            throw new AtomicInputException(key + " is not instance of " + key.type().getSimpleName() + "!");
+        return putSlot(key, value);
+    }
+
+    @Override
+    public Object remove(Object name) {
+        Key<?> key = name instanceof String s ? Key.lookup(s) : null;
+        if (key != null)
+            return remove(key);
+        return unkeyed != null ? unkeyed.remove(name) : null;
+    }
+
+    @Override
+    public int size() {
+        return slotCount + (unkeyed != null ? unkeyed.size() : 0);
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(slots, null);
+        slotCount = 0;
+        if (unkeyed != null)
+            unkeyed.clear();
+    }
+
+    @Override
+    public Set<Entry<String,Object>> entrySet() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Entry<String,Object>> iterator() {
+                return new EntryIterator();
+            }
+
+            @Override
+            public int size() {
+                return PipelineContext.this.size();
+            }
+        };
+    }
+
+    private final class EntryIterator implements Iterator<Entry<String,Object>> {
+
+        private final Iterator<Entry<String,Object>> unkeyedIterator =
+                unkeyed != null ? unkeyed.entrySet().iterator() : Collections.emptyIterator();
+        private int next = nextSlot(0);
+        private int current = -1;
+        private boolean currentUnkeyed;
+
+        @Override
+        public boolean hasNext() {
+            return next < slots.length || unkeyedIterator.hasNext();
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Entry<String,Object> next() {
+            if (next < slots.length) {
+                Key<Object> key = (Key<Object>) Key.bySlot(next);
+                current = next;
+                currentUnkeyed = false;
+                next = nextSlot(next + 1);
+                return new SimpleEntry<>(key.name(), get(key)) {
+                    @Override
+                    public Object setValue(Object value) {
+                        super.setValue(value);
+                        return PipelineContext.this.put(key.name(), value);
+                    }
+                };
+            }
+            currentUnkeyed = true;
+            return unkeyedIterator.next();
+        }
+
+        @Override
+        public void remove() {
+            if (currentUnkeyed)
+                unkeyedIterator.remove();
+            else if (current >= 0) {
+                PipelineContext.this.remove(Key.bySlot(current));
+                current = -1;
+            }
+            else
+                throw new IllegalStateException();
+        }
+
+        private int nextSlot(int from) {
+            int slot = from;
+            while (slot < slots.length && slots[slot] == null) {
+                slot++;
+            }
+            return slot;
+        }
+    }
+}
@@ -20,14 +20,33 @@ public interface PipelineOp {
      * @throws AtomicInputException if any.
      */
     Map<String,Object> execute(Map input) throws Exception;
+    /**
+     * <p>contract.</p>
+     * Keys consumed and produced by this op, checked by {@link PipelineBuilder#validate(Key[])}.
+     *
+     * @return a {@link Contract} object or null if unknown
+     */
+    default Contract contract() {
+        return null;
+    }
     /**
      * <p>andThen.</p>
+     * Chains are compiled into one flat {@link CompiledPipeline}, see {@link PipelineBuilder}.
      *
      * @param after a {@link PipelineOp} object
      * @return a {@link PipelineOp} object
      */
     default PipelineOp andThen(PipelineOp after) {
         Objects.requireNonNull(after);
-        return (Map t) -> after.execute(execute(t));
+        return new PipelineBuilder().add(this).add(after).build();
+    }
+    /**
+     * <p>async.</p>
+     * Runs this op on a virtual thread, see {@link AsyncPipelineOp#of(PipelineOp)}.
+     *
+     * @return a {@link AsyncPipelineOp} object
+     */
+    default AsyncPipelineOp async() {
+        return AsyncPipelineOp.of(this);
     }
 }
@@ -0,0 +1,19 @@
+package net.sberg.openkim.pipeline;
+
+/**
+ * <p>StageListener interface.</p>
+ * Callback of a {@link CompiledPipeline} that is invoked once after every executed stage.
+ * Listeners are called on the executing thread, so implementations must be cheap and thread safe.
+ */
+@FunctionalInterface
+public interface StageListener {
+    /**
+     * <p>onStage.</p>
+     *
+     * @param stage index of the stage inside the compiled pipeline
+     * @param op the executed {@link PipelineOp}
+     * @param durationNanos wall clock time of the stage in nanoseconds
+     * @param error the exception thrown by the stage or null on success
+     */
+    void onStage(int stage, PipelineOp op, long durationNanos, Exception error);
+}
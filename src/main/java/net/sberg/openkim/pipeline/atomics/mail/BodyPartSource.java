@@ -0,0 +1,181 @@
+package net.sberg.openkim.pipeline.atomics.mail;
+
+import jakarta.activation.DataHandler;
+import jakarta.activation.DataSource;
+import jakarta.mail.MessagingException;
+import jakarta.mail.internet.MimeBodyPart;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Objects;
+
+/**
+ * <p>BodyPartSource class.</p>
+ * Content of a body part for {@link MailAddMimeBodyParts} from a {@link Path}, an {@link InputStream} supplier
+ * or a {@link ByteBuffer}, with an explicit Content-Type and Content-Transfer-Encoding. The content is read once,
+ * when the message is written, and encoded while it is copied. Unlike a {@code FileDataSource} it is not scanned
+ * beforehand to choose the transfer encoding.
+ * <p>
+ * Without a Content-Type it is looked up by the file name extension, otherwise {@code application/octet-stream}.
+ * Without a transfer encoding {@code text/*} content is sent quoted-printable and all other content base64, both
+ * are safe for any content.
+ * <pre>{@code
+ * BodyPartSource.of(() -> store.open(id), "application/pdf", "base64").fileName("report.pdf");
+ * }</pre>
+ */
+public final class BodyPartSource {
+
+    /**
+     * Opens the content, called once for every write of the message.
+     */
+    @FunctionalInterface
+    public interface InputStreamSupplier {
+        InputStream open() throws IOException;
+    }
+
+    private final InputStreamSupplier supplier;
+    private String contentType;
+    private String transferEncoding;
+    private String fileName;
+    private String disposition = MimeBodyPart.ATTACHMENT;
+
+    private BodyPartSource(InputStreamSupplier supplier, String contentType, String transferEncoding, String fileName) {
+        this.supplier = Objects.requireNonNull(supplier);
+        this.contentType = contentType;
+        this.transferEncoding = transferEncoding;
+        this.fileName = fileName;
+    }
+
+    /**
+     * <p>of.</p>
+     *
+     * @param path the file, its name is used as file name
+     * @param contentType the Content-Type or null
+     * @param transferEncoding the Content-Transfer-Encoding or null
+     * @return a new {@link BodyPartSource} object
+     */
+    public static BodyPartSource of(Path path, String contentType, String transferEncoding) {
+        Objects.requireNonNull(path);
+        return new BodyPartSource(() -> Files.newInputStream(path), contentType, transferEncoding,
+                path.getFileName() != null ? path.getFileName().toString() : null);
+    }
+
+    /**
+     * <p>of.</p>
+     *
+     * @param supplier opens the content, the stream is closed after it is read
+     * @param contentType the Content-Type or null
+     * @param transferEncoding the Content-Transfer-Encoding or null
+     * @return a new {@link BodyPartSource} object
+     */
+    public static BodyPartSource of(InputStreamSupplier supplier, String contentType, String transferEncoding) {
+        return new BodyPartSource(supplier, contentType, transferEncoding, null);
+    }
+
+    /**
+     * <p>of.</p>
+     *
+     * @param buffer the content from its position to its limit, the buffer itself is not changed
+     * @param contentType the Content-Type or null
+     * @param transferEncoding the Content-Transfer-Encoding or null
+     * @return a new {@link BodyPartSource} object
+     */
+    public static BodyPartSource of(ByteBuffer buffer, String contentType, String transferEncoding) {
+        ByteBuffer content = buffer.slice();
+        return new BodyPartSource(() -> new ByteBufferSharedInputStream(content), contentType, transferEncoding, null);
+    }
+
+    /**
+     * <p>fileName.</p>
+     *
+     * @param fileName the file name of the part or null
+     * @return this {@link BodyPartSource} object
+     */
+    public BodyPartSource fileName(String fileName) {
+        this.fileName = fileName;
+        return this;
+    }
+
+    /**
+     * <p>disposition.</p>
+     *
+     * @param disposition {@code attachment} (default), {@code inline} or null for no Content-Disposition
+     * @return this {@link BodyPartSource} object
+     */
+    public BodyPartSource disposition(String disposition) {
+        this.disposition = disposition;
+        return this;
+    }
+
+    /**
+     * <p>contentType.</p>
+     *
+     * @return the explicit Content-Type, otherwise the one of the file name or {@code application/octet-stream}
+     */
+    public String contentType() {
+        if (contentType == null) {
+            String guessed = fileName != null ? URLConnection.guessContentTypeFromName(fileName) : null;
+            contentType = guessed != null ? guessed : "application/octet-stream";
+        }
+        return contentType;
+    }
+
+    /**
+     * <p>transferEncoding.</p>
+     *
+     * @return the explicit Content-Transfer-Encoding, otherwise quoted-printable for text and base64 for all other
+     */
+    public String transferEncoding() {
+        if (transferEncoding == null)
+            transferEncoding = contentType().toLowerCase(Locale.ROOT).startsWith("text/") ? "quoted-printable" : "base64";
+        return transferEncoding;
+    }
+
+    /**
+     * <p>toBodyPart.</p>
+     *
+     * @return a new {@link MimeBodyPart} with the headers set, the content is read when the part is written
+     * @throws MessagingException if a header can not be set
+     */
+    public MimeBodyPart toBodyPart() throws MessagingException {
+        MimeBodyPart part = new MimeBodyPart();
+        part.setDataHandler(new DataHandler(new SupplierDataSource()));
+        // set after the data handler, which removes them, so they are not computed from the content
+        part.setHeader("Content-Type", contentType());
+        part.setHeader("Content-Transfer-Encoding", transferEncoding());
+        if (disposition != null)
+            part.setDisposition(disposition);
+        if (fileName != null)
+            part.setFileName(fileName);
+        return part;
+    }
+
+    private final class SupplierDataSource implements DataSource {
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            return supplier.open();
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            throw new IOException("BodyPartSource is read only");
+        }
+
+        @Override
+        public String getContentType() {
+            return contentType();
+        }
+
+        @Override
+        public String getName() {
+            return fileName;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package net.sberg.openkim.pipeline.atomics.mail;
+
+import jakarta.mail.internet.SharedInputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * <p>ByteBufferSharedInputStream class.</p>
+ * {@link SharedInputStream} on a {@link ByteBuffer}, typically a memory mapped mail file.
+ * {@link jakarta.mail.internet.MimeMessage} and {@link jakarta.mail.internet.MimeMultipart} keep sub streams of a
+ * SharedInputStream instead of copying the content, so body parts are views of the buffer and the bytes are only
+ * read when a part is accessed. Sub streams share the buffer, closing a stream releases nothing.
+ * Like every InputStream an instance must not be read by several threads, sub streams are independent.
+ */
+public class ByteBufferSharedInputStream extends InputStream implements SharedInputStream {
+
+    private final ByteBuffer buffer;
+    private int mark;
+
+    /**
+     * <p>Constructor for ByteBufferSharedInputStream.</p>
+     *
+     * @param buffer a {@link ByteBuffer} object, the stream reads from its position to its limit
+     */
+    public ByteBufferSharedInputStream(ByteBuffer buffer) {
+        this.buffer = buffer.slice();
+    }
+
+    /**
+     * <p>map.</p>
+     * Maps the file read only. The file channel is closed right away, the mapping stays valid
+     * until the buffer is garbage collected.
+     *
+     * @param file a {@link Path} object
+     * @return a {@link ByteBufferSharedInputStream} on the mapped file
+     * @throws IOException if the file can not be mapped, e.g. it is larger than 2 GB
+     */
+    public static ByteBufferSharedInputStream map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE)
+                throw new IOException("File " + file + " is too large to be mapped: " + size + " bytes");
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            return new ByteBufferSharedInputStream(mapped);
+        }
+    }
+
+    @Override
+    public int read() {
+        return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (len == 0)
+            return 0;
+        if (!buffer.hasRemaining())
+            return -1;
+        int count = Math.min(len, buffer.remaining());
+        buffer.get(b, off, count);
+        return count;
+    }
+
+    @Override
+    public long skip(long n) {
+        int count = (int) Math.max(0, Math.min(n, buffer.remaining()));
+        buffer.position(buffer.position() + count);
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return buffer.remaining();
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    @Override
+    public void mark(int readlimit) {
+        mark = buffer.position();
+    }
+
+    @Override
+    public void reset() {
+        buffer.position(mark);
+    }
+
+    @Override
+    public long getPosition() {
+        return buffer.position();
+    }
+
+    @Override
+    public InputStream newStream(long start, long end) {
+        if (end == -1)
+            end = buffer.limit();
+        if (start < 0 || start > end || end > buffer.limit())
+            throw new IllegalArgumentException("Invalid range " + start + " - " + end + " of " + buffer.limit() + " bytes");
+        return new ByteBufferSharedInputStream(buffer.slice((int) start, (int) (end - start)));
+    }
+}
@@ -0,0 +1,30 @@
+package net.sberg.openkim.pipeline.atomics.mail;
+
+import jakarta.mail.MessagingException;
+import jakarta.mail.Session;
+import jakarta.mail.internet.MimeMessage;
+import jakarta.mail.internet.SharedInputStream;
+
+import java.util.List;
+
+/**
+ * <p>CachedMimeMessage class.</p>
+ * {@link MimeMessage} handed out by the {@link MimeMessageCache}. The headers are parsed from the cached raw mail
+ * into a private {@link jakarta.mail.internet.InternetHeaders} and the body is a view of the raw mail, which is only
+ * read. Changes to headers or content replace parts of this message only, like on a message parsed from the raw mail.
+ */
+public class CachedMimeMessage extends MimeMessage implements HeaderPatch.Target {
+
+    CachedMimeMessage(Session session, SharedInputStream content, long bodyOffset) throws MessagingException {
+        super(session);
+        this.headers = createInternetHeaders(content.newStream(0, bodyOffset));
+        this.contentStream = content.newStream(bodyOffset, -1);
+        this.modified = false;
+        this.saved = true;
+    }
+
+    @Override
+    public void replaceHeaderLines(List<String> lines) {
+        headers = HeaderPatch.internetHeaders(lines);
+    }
+}
@@ -0,0 +1,145 @@
+package net.sberg.openkim.pipeline.atomics.mail;
+
+import jakarta.mail.internet.SharedInputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * <p>FileChannelSharedInputStream class.</p>
+ * {@link SharedInputStream} on a region of a {@link FileChannel}. All sub streams read with positional reads from
+ * the same channel, so {@link jakarta.mail.internet.MimeMessage} and its body parts reference file regions instead of
+ * copying the content to the heap. Unlike {@link jakarta.mail.util.SharedFileInputStream} the streams do not own
+ * the file: closing a stream only drops its buffer, closing the channel invalidates all streams at once.
+ * Like every InputStream an instance must not be read by several threads, sub streams are independent.
+ */
+public class FileChannelSharedInputStream extends InputStream implements SharedInputStream {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final FileChannel channel;
+    private final long start;
+    private final long end;
+    private long position;
+    private long mark;
+    private ByteBuffer buffer;
+    private long bufferStart;
+
+    /**
+     * <p>Constructor for FileChannelSharedInputStream on the whole file.</p>
+     *
+     * @param channel a readable {@link FileChannel} object, owned by the caller
+     * @throws IOException if the size of the channel can not be read
+     */
+    public FileChannelSharedInputStream(FileChannel channel) throws IOException {
+        this(channel, 0, channel.size());
+    }
+
+    private FileChannelSharedInputStream(FileChannel channel, long start, long end) {
+        this.channel = channel;
+        this.start = start;
+        this.end = end;
+        this.position = start;
+        this.mark = start;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (position >= end)
+            return -1;
+        if (!buffered(position))
+            fill();
+        return buffer.get((int) (position++ - bufferStart)) & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0)
+            return 0;
+        if (position >= end)
+            return -1;
+        len = (int) Math.min(len, end - position);
+        if (buffered(position)) {
+            int count = (int) Math.min(len, bufferStart + buffer.limit() - position);
+            buffer.get((int) (position - bufferStart), b, off, count);
+            position += count;
+            return count;
+        }
+        if (len >= BUFFER_SIZE) {
+            int count = channel.read(ByteBuffer.wrap(b, off, len), position);
+            if (count < 0)
+                return -1;
+            position += count;
+            return count;
+        }
+        fill();
+        return read(b, off, len);
+    }
+
+    @Override
+    public long skip(long n) {
+        long count = Math.max(0, Math.min(n, end - position));
+        position += count;
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return (int) Math.min(Integer.MAX_VALUE, end - position);
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    @Override
+    public void mark(int readlimit) {
+        mark = position;
+    }
+
+    @Override
+    public void reset() {
+        position = mark;
+    }
+
+    @Override
+    public void close() {
+        buffer = null;
+    }
+
+    @Override
+    public long getPosition() {
+        return position - start;
+    }
+
+    @Override
+    public InputStream newStream(long start, long end) {
+        if (end == -1)
+            end = this.end - this.start;
+        if (start < 0 || start > end || this.start + end > this.end)
+            throw new IllegalArgumentException("Invalid range " + start + " - " + end + " of " + (this.end - this.start) + " bytes");
+        return new FileChannelSharedInputStream(channel, this.start + start, this.start + end);
+    }
+
+    private boolean buffered(long pos) {
+        return buffer != null && pos >= bufferStart && pos < bufferStart + buffer.limit();
+    }
+
+    private void fill() throws IOException {
+        if (buffer == null)
+            buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        buffer.clear();
+        buffer.limit((int) Math.min(BUFFER_SIZE, end - position));
+        bufferStart = position;
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, bufferStart + buffer.position()) < 0)
+                break;
+        }
+        buffer.flip();
+        if (!buffer.hasRemaining())
+            throw new IOException("Unexpected end of file at position " + position);
+    }
+}
@@ -2,21 +2,176 @@ package net.sberg.openkim.pipeline.atomics.mail;
 
 import jakarta.mail.internet.ContentType;
 import jakarta.mail.internet.MimePart;
+import jakarta.mail.internet.ParseException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>GenericContentTypeCleaner class.</p>
+ * Content-Type handler for {@code mail.mime.contenttypehandler}, Content-Types that can not be parsed are replaced by
+ * {@code application/octet-stream}. Well formed values are checked by a scanner without exceptions, only values the
+ * scanner can not decide, e.g. with comments or RFC 2231 parameters, are parsed by {@link ContentType}.
+ * The results are cached per raw value, a value is checked and a wrong value is logged only once.
+ */
 public class GenericContentTypeCleaner {
 
     static Logger logger = LoggerFactory.getLogger(GenericContentTypeCleaner.class);
 
+    public static final String DEFAULT_CONTENT_TYPE = "application/octet-stream";
+
+    private static final int MAX_CACHE_SIZE = 1024;
+    private static final int MAX_CACHED_LENGTH = 1024;
+    private static final String MIME_SPECIALS = "()<>@,;:\\\"\t []/?=";
+
+    private static final Map<String, String> CACHE = new ConcurrentHashMap<>();
+
+    private enum Result {
+        VALID, INVALID, UNKNOWN
+    }
+
     public static final String cleanContentType(MimePart mp, String contentType) {
+        String key = contentType != null ? contentType : "";
+        String cleaned = CACHE.get(key);
+        if (cleaned != null)
+            return cleaned;
+
+        boolean valid = isValidContentType(key);
+        cleaned = valid ? key : DEFAULT_CONTENT_TYPE;
+        if (!valid)
+            logger.warn("Found wrong and problematic contentType <{}> in MimeMessage/MimePart, will be set to default type: {}", contentType, DEFAULT_CONTENT_TYPE);
+        if (key.length() <= MAX_CACHED_LENGTH) {
+            // bounded without eviction order, wrong values repeat within a message and refill quickly
+            if (CACHE.size() >= MAX_CACHE_SIZE)
+                CACHE.clear();
+            CACHE.put(key, cleaned);
+        }
+        return cleaned;
+    }
+
+    /**
+     * <p>isValidContentType.</p>
+     *
+     * @param contentType a raw Content-Type value
+     * @return true if {@link ContentType} can parse the value
+     */
+    public static boolean isValidContentType(String contentType) {
+        if (contentType == null)
+            return false;
+        return switch (scan(contentType)) {
+            case VALID -> true;
+            case INVALID -> false;
+            case UNKNOWN -> parses(contentType);
+        };
+    }
+
+    private static boolean parses(String contentType) {
         try {
             new ContentType(contentType);
-            return contentType;
+            return true;
+        }
+        catch (ParseException e) {
+            logger.debug("Content-Type <{}> can not be parsed", contentType, e);
+            return false;
         }
-        catch (Exception e) {
-            logger.warn("Found wrong and problematic contentType in MimeMessage/MimePart, will be set to default type: application/octet-stream", e);
-            return "application/octet-stream";
+    }
+
+    /**
+     * Scans {@code type "/" subtype *(";" attribute "=" (token / quoted-string))} like the
+     * {@link jakarta.mail.internet.HeaderTokenizer} with MIME specials. A broken type or subtype is INVALID,
+     * comments, non ASCII characters, RFC 2231 attributes and any deviation in the parameters are UNKNOWN.
+     */
+    private static Result scan(String s) {
+        int length = s.length();
+        int i = skipWhitespace(s, 0);
+        if (i < length && s.charAt(i) == '(')
+            return Result.UNKNOWN;
+        int end = atomEnd(s, i);
+        if (end < 0)
+            return Result.UNKNOWN;
+        if (end == i)
+            return Result.INVALID;
+
+        i = skipWhitespace(s, end);
+        if (i < length && s.charAt(i) == '(')
+            return Result.UNKNOWN;
+        if (i == length || s.charAt(i) != '/')
+            return Result.INVALID;
+
+        i = skipWhitespace(s, i + 1);
+        if (i < length && s.charAt(i) == '(')
+            return Result.UNKNOWN;
+        end = atomEnd(s, i);
+        if (end < 0)
+            return Result.UNKNOWN;
+        if (end == i)
+            return Result.INVALID;
+
+        i = skipWhitespace(s, end);
+        while (i < length) {
+            if (s.charAt(i) != ';')
+                return Result.UNKNOWN;
+            i = skipWhitespace(s, i + 1);
+            end = atomEnd(s, i);
+            if (end <= i || s.lastIndexOf('*', end - 1) >= i)
+                return Result.UNKNOWN;
+            i = skipWhitespace(s, end);
+            if (i == length || s.charAt(i) != '=')
+                return Result.UNKNOWN;
+            i = skipWhitespace(s, i + 1);
+            if (i < length && s.charAt(i) == '"') {
+                end = quotedEnd(s, i + 1);
+            } else {
+                end = atomEnd(s, i);
+                if (end == i)
+                    return Result.UNKNOWN;
+            }
+            if (end < 0)
+                return Result.UNKNOWN;
+            i = skipWhitespace(s, end);
+        }
+        return Result.VALID;
+    }
+
+    private static int skipWhitespace(String s, int i) {
+        while (i < s.length()) {
+            char c = s.charAt(i);
+            if (c != ' ' && c != '\t' && c != '\r' && c != '\n')
+                break;
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * @return end of the atom at i, i if there is none, -1 for a non ASCII character
+     */
+    private static int atomEnd(String s, int i) {
+        while (i < s.length()) {
+            char c = s.charAt(i);
+            if (c >= 0177)
+                return -1;
+            if (c <= 040 || MIME_SPECIALS.indexOf(c) >= 0)
+                break;
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * @return index after the closing quote, -1 if the quoted string is not terminated
+     */
+    private static int quotedEnd(String s, int i) {
+        while (i < s.length()) {
+            char c = s.charAt(i);
+            if (c == '\\')
+                i++;
+            else if (c == '"')
+                return i + 1;
+            i++;
         }
+        return -1;
     }
 }
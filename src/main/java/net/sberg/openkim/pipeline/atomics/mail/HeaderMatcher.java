@@ -0,0 +1,98 @@
+package net.sberg.openkim.pipeline.atomics.mail;
+
+import jakarta.mail.Header;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Part;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * <p>HeaderMatcher class.</p>
+ * Header names of {@link MailGetHeader} compiled once: names without regex meta characters are looked up in a
+ * case insensitive hash set, all other names are compiled to case insensitive {@link Pattern}s that have to match
+ * the whole header name. A header matching several names is found once.
+ * <p>
+ * The matcher is immutable and can be shared between pipelines and threads.
+ */
+public final class HeaderMatcher {
+
+    private static final String META_CHARACTERS = "\\.[]{}()*+?^$|";
+
+    private final Set<String> literals = new HashSet<>();
+    private final Pattern[] patterns;
+
+    private HeaderMatcher(Collection<String> names) {
+        List<Pattern> compiled = new ArrayList<>();
+        for (String name : names) {
+            if (isLiteral(name))
+                literals.add(name.toLowerCase(Locale.ROOT));
+            else
+                compiled.add(Pattern.compile(name, Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE));
+        }
+        this.patterns = compiled.toArray(new Pattern[0]);
+    }
+
+    /**
+     * <p>compile.</p>
+     *
+     * @param names header names or regular expressions for header names
+     * @return a new {@link HeaderMatcher} object
+     * @throws PatternSyntaxException if a name is not a valid regular expression
+     */
+    public static HeaderMatcher compile(Collection<String> names) {
+        return new HeaderMatcher(names);
+    }
+
+    /**
+     * <p>matches.</p>
+     *
+     * @param headerName the name of a header
+     * @return true if one of the names matches
+     */
+    public boolean matches(String headerName) {
+        if (headerName == null)
+            return false;
+        if (!literals.isEmpty() && literals.contains(headerName.toLowerCase(Locale.ROOT)))
+            return true;
+        for (Pattern pattern : patterns) {
+            if (pattern.matcher(headerName).matches())
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * <p>collect.</p>
+     * Scans the headers of the part once.
+     *
+     * @param part the {@link Part} to read the headers from
+     * @return the matching headers with a value, in header order
+     * @throws MessagingException if the headers can not be read
+     */
+    public List<Header> collect(Part part) throws MessagingException {
+        List<Header> result = new ArrayList<>();
+        Enumeration<Header> headers = part.getAllHeaders();
+        while (headers.hasMoreElements()) {
+            Header header = headers.nextElement();
+            if (header.getValue() != null && matches(header.getName()))
+                result.add(header);
+        }
+        return result;
+    }
+
+    private static boolean isLiteral(String name) {
+        for (int i = 0; i < name.length(); i++) {
+            if (META_CHARACTERS.indexOf(name.charAt(i)) >= 0)
+                return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,53 @@
+package net.sberg.openkim.pipeline.atomics.mail;
+
+import jakarta.activation.DataHandler;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Session;
+import jakarta.mail.internet.InternetHeaders;
+import jakarta.mail.internet.MimeMessage;
+
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * <p>HeaderOnlyMimeMessage class.</p>
+ * Lightweight {@link MimeMessage} that only holds the header block of a mail. The input is read up to the blank line
+ * that separates header and body, the body is never read. Header based getters like {@link #getSubject()},
+ * {@link #getFrom()} or {@link #getHeader(String)} work as usual, every access to the content fails with a
+ * {@link MessagingException}.
+ */
+public class HeaderOnlyMimeMessage extends MimeMessage implements HeaderPatch.Target {
+
+    /**
+     * <p>Constructor for HeaderOnlyMimeMessage.</p>
+     *
+     * @param session a {@link Session} object
+     * @param in a {@link InputStream} positioned at the start of the mail, read up to the end of the header block
+     * @throws MessagingException if the headers can not be parsed
+     */
+    public HeaderOnlyMimeMessage(Session session, InputStream in) throws MessagingException {
+        super(session);
+        boolean allowUtf8 = session != null && Boolean.parseBoolean(session.getProperty("mail.mime.allowutf8"));
+        this.headers = new InternetHeaders(in, allowUtf8);
+        this.modified = false;
+    }
+
+    @Override
+    public synchronized DataHandler getDataHandler() throws MessagingException {
+        throw bodyNotLoaded();
+    }
+
+    @Override
+    protected InputStream getContentStream() throws MessagingException {
+        throw bodyNotLoaded();
+    }
+
+    private static MessagingException bodyNotLoaded() {
+        return new MessagingException("Message body is not loaded, the message was created with MAIL_HEADERS_ONLY");
+    }
+
+    @Override
+    public void replaceHeaderLines(List<String> lines) {
+        headers = HeaderPatch.internetHeaders(lines);
+    }
+}
@@ -0,0 +1,346 @@
+package net.sberg.openkim.pipeline.atomics.mail;
+
+import jakarta.mail.MessagingException;
+import jakarta.mail.internet.InternetHeaders;
+import jakarta.mail.internet.MimeMessage;
+import jakarta.mail.internet.MimeUtility;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * <p>HeaderPatch class.</p>
+ * Ordered add / set / remove operations on the headers of a message for {@link MailPatchHeaders}. The operations
+ * are folded per header name while they are given, so applying the patch touches every header once, whatever the
+ * number of operations. The result is the same as calling {@code addHeader}, {@code setHeader} and
+ * {@code removeHeader} of the message in the given order:
+ * <ul>
+ *     <li>add appends a header after the last header of the name, {@code Received} and {@code Return-Path} before
+ *     the first one, headers of a new name are appended at the end (trace headers at the top)</li>
+ *     <li>set replaces the first header of the name in place and removes the others, a null value removes, the
+ *     spelling of the name of the replaced header is kept, also if it was added or set by the patch</li>
+ *     <li>remove removes all headers of the name, headers of the name added or set later take their place</li>
+ * </ul>
+ * Names are case insensitive, values are used as given and have to be encoded and folded by the caller. Headers
+ * that are not named by an operation keep their position and raw line.
+ * <p>
+ * Messages of this package ({@link PassthroughMimeMessage}, {@link CachedMimeMessage},
+ * {@link HeaderOnlyMimeMessage}) get their new header lines in one pass over the old ones, on any other
+ * {@link MimeMessage} every touched name is applied with one {@code setHeader} or {@code removeHeader} followed by
+ * the added values. A patch must not be changed while it is applied and can be reused for any number of messages.
+ * <pre>{@code
+ * new HeaderPatch().remove("X-Spam-Flag").set("X-KIM-Version", "1.5").add("Received", received);
+ * }</pre>
+ */
+public final class HeaderPatch {
+
+    /**
+     * Message that can replace its header lines at once.
+     */
+    interface Target {
+        void replaceHeaderLines(List<String> lines);
+    }
+
+    private final Map<String, Plan> plans = new HashMap<>();
+    private final List<Plan> order = new ArrayList<>();
+    private int operations;
+    private long seq;
+
+    /**
+     * <p>add.</p>
+     *
+     * @param name the header name
+     * @param value the raw header value
+     * @return this {@link HeaderPatch} object
+     */
+    public HeaderPatch add(String name, String value) {
+        if (value == null)
+            throw new IllegalArgumentException("HeaderPatch value of " + name + " is null");
+        Plan plan = plan(name);
+        if (plan.reverse) {
+            // inserted before the first header of the name, it is the first one now
+            plan.firstName = name;
+            plan.firstExistingName = name;
+            plan.firstKept = false;
+        } else if (plan.firstName == null && !plan.anchored) {
+            plan.firstName = name;
+        }
+        plan.insert(new Field(name, name, value, false));
+        return this;
+    }
+
+    /**
+     * <p>set.</p>
+     *
+     * @param name the header name
+     * @param value the raw header value, null removes the header
+     * @return this {@link HeaderPatch} object
+     */
+    public HeaderPatch set(String name, String value) {
+        if (value == null)
+            return remove(name);
+        Plan plan = plan(name);
+        // set replaces the first header, a removed one gets the given name
+        String spelling = plan.firstName != null ? plan.firstName : name;
+        String existingSpelling = plan.firstKept ? null : plan.firstExistingName != null ? plan.firstExistingName : name;
+        plan.firstName = spelling;
+        plan.firstExistingName = existingSpelling;
+        plan.keep = false;
+        plan.atFirst = true;
+        plan.values.clear();
+        plan.insert(new Field(spelling, existingSpelling, value, true));
+        return this;
+    }
+
+    /**
+     * <p>setText.</p>
+     * Like {@link #set(String, String)} with a value encoded and folded as by {@code MimeMessage.setSubject}.
+     *
+     * @param name the header name
+     * @param text the unencoded header value, null removes the header
+     * @return this {@link HeaderPatch} object
+     * @throws UnsupportedEncodingException if UTF-8 is not supported
+     */
+    public HeaderPatch setText(String name, String text) throws UnsupportedEncodingException {
+        if (text == null)
+            return remove(name);
+        return set(name, MimeUtility.fold(name != null ? name.length() + 2 : 0, MimeUtility.encodeText(text, "UTF-8", null)));
+    }
+
+    /**
+     * <p>remove.</p>
+     *
+     * @param name the header name
+     * @return this {@link HeaderPatch} object
+     */
+    public HeaderPatch remove(String name) {
+        Plan plan = plan(name);
+        plan.anchored = plan.anchored || plan.firstName != null;
+        plan.firstName = null;
+        plan.firstExistingName = null;
+        plan.firstKept = false;
+        plan.keep = false;
+        plan.values.clear();
+        return this;
+    }
+
+    /**
+     * <p>size.</p>
+     *
+     * @return number of operations
+     */
+    public int size() {
+        return operations;
+    }
+
+    /**
+     * <p>apply.</p>
+     *
+     * @param message the {@link MimeMessage} to change
+     * @throws MessagingException if a header can not be read or changed
+     */
+    public void apply(MimeMessage message) throws MessagingException {
+        if (plans.isEmpty())
+            return;
+        if (message instanceof Target target) {
+            List<String> lines = new ArrayList<>();
+            Enumeration<String> all = message.getAllHeaderLines();
+            while (all.hasMoreElements())
+                lines.add(all.nextElement());
+            target.replaceHeaderLines(apply(lines));
+            return;
+        }
+        for (Plan plan : bySeq()) {
+            // in operation order, trace header values were inserted at the front
+            Iterator<Field> fields = plan.reverse ? plan.values.descendingIterator() : plan.values.iterator();
+            Field field = fields.hasNext() ? fields.next() : null;
+            boolean existing = message.getHeader(plan.name) != null;
+            if (plan.atFirst && (field == null || !field.set)) {
+                // set followed by remove: one removed header at the place of the first one is left as anchor
+                message.setHeader(plan.name, "");
+                message.removeHeader(plan.name);
+            } else if (!plan.keep && !plan.atFirst) {
+                message.removeHeader(plan.name);
+            } else if (existing && field != null && field.set && field.existingName != null) {
+                // the first header was removed before the set, setHeader must not keep its spelling
+                message.removeHeader(plan.name);
+            }
+            for (; field != null; field = fields.hasNext() ? fields.next() : null) {
+                String name = existing && field.existingName != null ? field.existingName : field.name;
+                if (field.set)
+                    message.setHeader(name, field.value);
+                else
+                    message.addHeader(name, field.value);
+            }
+        }
+    }
+
+    /**
+     * <p>apply.</p>
+     * Applies the patch in one pass over the raw header lines.
+     *
+     * @param lines the raw header lines, continuation lines included in their header line
+     * @return the new raw header lines
+     */
+    public List<String> apply(List<String> lines) {
+        int size = lines.size();
+        Plan[] touched = new Plan[size];
+        int[] first = new int[order.size()];
+        int[] last = new int[order.size()];
+        Arrays.fill(first, -1);
+        int added = 0;
+        for (int i = 0; i < size; i++) {
+            Plan plan = plans.get(key(name(lines.get(i))));
+            if (plan == null)
+                continue;
+            touched[i] = plan;
+            if (first[plan.index] < 0)
+                first[plan.index] = i;
+            last[plan.index] = i;
+        }
+
+        List<Plan> head = new ArrayList<>();
+        List<Plan> tail = new ArrayList<>();
+        for (Plan plan : order) {
+            added += plan.values.size();
+            if (first[plan.index] < 0 && !plan.values.isEmpty())
+                (plan.reverse ? head : tail).add(plan);
+        }
+        head.sort(Comparator.comparingLong((Plan plan) -> plan.seq).reversed());
+        tail.sort(Comparator.comparingLong(plan -> plan.seq));
+
+        List<String> result = new ArrayList<>(size + added);
+        for (Plan plan : head)
+            emit(plan, false, null, result);
+        for (int i = 0; i < size; i++) {
+            Plan plan = touched[i];
+            String line = lines.get(i);
+            if (plan == null) {
+                result.add(line);
+            } else if (plan.atFirst) {
+                if (i == first[plan.index])
+                    emit(plan, true, line, result);
+            } else {
+                if (plan.reverse && i == first[plan.index])
+                    emit(plan, true, null, result);
+                if (plan.keep)
+                    result.add(line);
+                if (!plan.reverse && i == last[plan.index])
+                    emit(plan, true, null, result);
+            }
+        }
+        for (Plan plan : tail)
+            emit(plan, false, null, result);
+        return result;
+    }
+
+    /**
+     * <p>internetHeaders.</p>
+     *
+     * @param lines raw header lines
+     * @return {@link InternetHeaders} holding exactly the given lines, without the placeholders of an empty one
+     */
+    static InternetHeaders internetHeaders(List<String> lines) {
+        return new LineHeaders(lines);
+    }
+
+    private void emit(Plan plan, boolean existing, String replacedLine, List<String> result) {
+        for (Field field : plan.values) {
+            String name = existing ? field.existingName : field.name;
+            int colon = name == null && replacedLine != null ? replacedLine.indexOf(':') : -1;
+            // set keeps the spelling of the replaced name, like InternetHeaders.setHeader
+            if (colon >= 0)
+                result.add(replacedLine.substring(0, colon + 1) + " " + field.value);
+            else
+                result.add((name != null ? name : field.name) + ": " + field.value);
+        }
+    }
+
+    private List<Plan> bySeq() {
+        List<Plan> sorted = new ArrayList<>(order);
+        sorted.sort(Comparator.comparingLong(plan -> plan.seq));
+        return sorted;
+    }
+
+    private Plan plan(String name) {
+        if (name == null || name.isEmpty() || name.indexOf(':') >= 0 || !name.strip().equals(name))
+            throw new IllegalArgumentException("HeaderPatch name " + name + " is not a valid header name");
+        operations++;
+        return plans.computeIfAbsent(key(name), key -> {
+            Plan plan = new Plan(order.size(), name);
+            order.add(plan);
+            return plan;
+        });
+    }
+
+    private static String name(String line) {
+        int colon = line.indexOf(':');
+        return (colon >= 0 ? line.substring(0, colon) : line).trim();
+    }
+
+    private static String key(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+
+    private final class Plan {
+
+        private final int index;
+        private final String name;
+        private final boolean reverse;
+        // keep: the existing headers stay, atFirst: the values take the place of the first existing header instead of
+        // following the last one
+        // removed headers stay anchors for later values, like the removed headers of InternetHeaders
+        private boolean keep = true;
+        private boolean atFirst;
+        // spelling of the first header of the name that a set keeps, for a message without and with existing headers
+        // of the name: null if there is none or it is removed, firstKept if it is the first existing header
+        private String firstName;
+        private String firstExistingName;
+        private boolean firstKept = true;
+        // a header added by the patch was removed and is an anchor before later values
+        private boolean anchored;
+        private final ArrayDeque<Field> values = new ArrayDeque<>();
+        private long seq;
+
+        Plan(int index, String name) {
+            this.index = index;
+            this.name = name;
+            this.reverse = name.equalsIgnoreCase("Received") || name.equalsIgnoreCase("Return-Path");
+        }
+
+        void insert(Field field) {
+            // without existing headers the group is placed when its first value is added
+            if (seq == 0)
+                seq = ++HeaderPatch.this.seq;
+            if (reverse)
+                values.addFirst(field);
+            else
+                values.addLast(field);
+        }
+    }
+
+    /**
+     * A value with the name used without and with existing headers of the name, existingName null keeps the spelling
+     * of the replaced header.
+     */
+    private record Field(String name, String existingName, String value, boolean set) {
+    }
+
+    private static final class LineHeaders extends InternetHeaders {
+
+        LineHeaders(List<String> lines) {
+            headers = new ArrayList<>(lines.size());
+            for (String line : lines)
+                addHeaderLine(line);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package net.sberg.openkim.pipeline.atomics.mail;
+
+/**
+ * <p>HtmlSplicer class.</p>
+ * Inserts into or replaces the body of an HTML text by locating the {@code body} tags with a scan of the text.
+ * No DOM is built and the rest of the document is copied unchanged, the result is built in one exactly sized
+ * buffer. Tags are found case insensitive, quoted attribute values of the {@code body} start tag may contain
+ * {@code >}.
+ */
+final class HtmlSplicer {
+
+    private HtmlSplicer() {
+    }
+
+    /**
+     * <p>append.</p>
+     *
+     * @param html the HTML text
+     * @param fragment the HTML to insert
+     * @return html with fragment before the last {@code </body>}, otherwise before the last {@code </html>},
+     * otherwise at the end
+     */
+    static String append(String html, String fragment) {
+        int end = lastIndexOfTag(html, "</body", html.length());
+        if (end < 0)
+            end = lastIndexOfTag(html, "</html", html.length());
+        if (end < 0)
+            end = html.length();
+        return splice(html, end, end, fragment);
+    }
+
+    /**
+     * <p>replaceBody.</p>
+     *
+     * @param html the HTML text
+     * @param fragment the new body content
+     * @return html with the content between {@code <body ...>} and the last {@code </body>}, otherwise the last
+     * {@code </html>}, otherwise the end replaced by fragment, fragment alone if html has no body start tag
+     */
+    static String replaceBody(String html, String fragment) {
+        int start = bodyContentStart(html);
+        if (start < 0)
+            return fragment;
+        int end = lastIndexOfTag(html, "</body", html.length());
+        if (end < start)
+            end = lastIndexOfTag(html, "</html", html.length());
+        if (end < start)
+            end = html.length();
+        return splice(html, start, end, fragment);
+    }
+
+    private static String splice(String html, int start, int end, String fragment) {
+        return new StringBuilder(html.length() - (end - start) + fragment.length())
+                .append(html, 0, start)
+                .append(fragment)
+                .append(html, end, html.length())
+                .toString();
+    }
+
+    /**
+     * @return index after the {@code <body ...>} start tag or -1
+     */
+    private static int bodyContentStart(String html) {
+        int from = 0;
+        while (true) {
+            int tag = indexOfIgnoreCase(html, "<body", from);
+            if (tag < 0)
+                return -1;
+            int i = tag + 5;
+            if (i < html.length() && isTagNameEnd(html.charAt(i))) {
+                char quote = 0;
+                for (; i < html.length(); i++) {
+                    char c = html.charAt(i);
+                    if (quote != 0) {
+                        if (c == quote)
+                            quote = 0;
+                    } else if (c == '"' || c == '\'') {
+                        quote = c;
+                    } else if (c == '>') {
+                        return i + 1;
+                    }
+                }
+                return -1;
+            }
+            from = i;
+        }
+    }
+
+    /**
+     * @return index of the last tag start like {@code </body} followed by {@code >} or whitespace before end, or -1
+     */
+    private static int lastIndexOfTag(String html, String tag, int end) {
+        int from = end - tag.length();
+        while (from >= 0) {
+            int index = lastIndexOfIgnoreCase(html, tag, from);
+            if (index < 0)
+                return -1;
+            int after = index + tag.length();
+            if (after == html.length() || isTagNameEnd(html.charAt(after)))
+                return index;
+            from = index - 1;
+        }
+        return -1;
+    }
+
+    private static boolean isTagNameEnd(char c) {
+        return c == '>' || c == '/' || Character.isWhitespace(c);
+    }
+
+    private static int indexOfIgnoreCase(String s, String lowerTag, int from) {
+        for (int i = Math.max(0, from); i <= s.length() - lowerTag.length(); i++) {
+            if (s.charAt(i) == '<' && s.regionMatches(true, i, lowerTag, 0, lowerTag.length()))
+                return i;
+        }
+        return -1;
+    }
+
+    private static int lastIndexOfIgnoreCase(String s, String lowerTag, int from) {
+        for (int i = Math.min(from, s.length() - lowerTag.length()); i >= 0; i--) {
+            if (s.charAt(i) == '<' && s.regionMatches(true, i, lowerTag, 0, lowerTag.length()))
+                return i;
+        }
+        return -1;
+    }
+}
@@ -3,6 +3,7 @@ package net.sberg.openkim.pipeline.atomics.mail;
 import jakarta.mail.MessagingException;
 import jakarta.mail.internet.MimeMessage;
 import net.sberg.openkim.pipeline.AtomicInputException;
+import net.sberg.openkim.pipeline.Contract;
 import net.sberg.openkim.pipeline.PipelineOp;
 
 import java.util.Map;
@@ -20,20 +21,23 @@ import java.util.Map;
 
 public class MailAddHeader extends MailKeys implements PipelineOp {
 
+    static final Contract CONTRACT = new Contract()
+            .requires(MAIL_MIMEMESSAGE_KEY, MAIL_HEADER_KEY);
+
+    @Override
+    public Contract contract() {
+        return CONTRACT;
+    }
+
     @SuppressWarnings("unchecked")
     @Override
     public Map<String,Object> execute(Map input) throws MessagingException, AtomicInputException {
 
-        if (input.get(MAIL_MIMEMESSAGE) == null)
-            throw new AtomicInputException("MAIL_MIMEMESSAGE not exist or is null!");
-        if (input.get(MAIL_HEADER) == null)
-            throw new AtomicInputException("MAIL_SUBJECT not exist or is null!");
-        if (!(input.get(MAIL_MIMEMESSAGE) instanceof MimeMessage message))
-            throw new AtomicInputException("MAIL_MIMEMESSAGE is not instance of MimeMessage!");
-        if (!(input.get(MAIL_HEADER) instanceof Map<?,?>))
+        MimeMessage message = MAIL_MIMEMESSAGE_KEY.require(input);
+        if (!(MAIL_HEADER_KEY.require(input) instanceof Map<?,?> headers))
             throw new AtomicInputException("MAIL_HEADER is not instance of Map!");
 
-        Map<String,String> headerMap = (Map<String,String>) input.get(MAIL_HEADER);
+        Map<String,String> headerMap = (Map<String,String>) headers;
         for (Map.Entry<String, String> header : headerMap.entrySet()) {
             message.addHeader(header.getKey(), header.getValue());
         }
@@ -9,49 +9,52 @@ import jakarta.mail.internet.MimeBodyPart;
 import jakarta.mail.internet.MimeMessage;
 import jakarta.mail.internet.MimeMultipart;
 import net.sberg.openkim.pipeline.AtomicInputException;
+import net.sberg.openkim.pipeline.Contract;
 import net.sberg.openkim.pipeline.PipelineOp;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.List;
 import java.util.Map;
 
 /**
- * Atomic MailGetMimeMessage create a MimeMessage from mail File, mail InputStream or new empty MimeMessage.
- * If a Session is set, it will be added to MimeMessage otherwise an empty Session will be set.
+ * Atomic MailAddMimeBodyParts replaces the content of the MimeMessage by a multipart with one body part per element
+ * of MAIL_ADDMIMEBODYPARTS. A File becomes an attachment whose Content-Type and Content-Transfer-Encoding are chosen
+ * by scanning the file, a String a text part. A {@link BodyPartSource}, Path or ByteBuffer becomes an attachment with
+ * an explicit or precomputed Content-Type and Content-Transfer-Encoding, its content is read once when the message is
+ * written, see {@link BodyPartSource}.
  * A {@code Map<String,Object>} will be used for input / output information transport.
- * @Input   key: {@code MAIL_FILE}<br>
- *          value: File [{@code java.io.File}] <br>
- *          optional: default -> null<br>
- *          key: [{@code  MAIL_STREAM}]<br>
- *          value: InputStream [{@code java.io.InputStream}]<br>
- *          optional: default -> null<br>
- *          key: {@code MAIL_MIMEMESSAGE}<br>
+ * @Input   key: {@code MAIL_MIMEMESSAGE}<br>
  *          value: MimeMessage [{@code jakarta.mail.internet.MimeMessage}]<br>
- *          optional: default -> EmptySession
- * @Output  key: {@code MAIL_MIMEMESSAGE}<br>
- *          value: MimeMessage [{@code jakarta.mail.internet.MimeMessage}]
+ *          key: {@code MAIL_ADDMIMEBODYPARTS}<br>
+ *          value: BodyPartList [{@code List<File | String | BodyPartSource | java.nio.file.Path | java.nio.ByteBuffer>}]
+ * @Output  all input values, the MimeMessage is modified
  */
 
 public class MailAddMimeBodyParts extends MailKeys implements PipelineOp {
 
+    static final Contract CONTRACT = new Contract()
+            .requires(MAIL_MIMEMESSAGE_KEY, MAIL_ADDMIMEBODYPARTS_KEY);
+
     Logger logger = LoggerFactory.getLogger(MailAddMimeBodyParts.class);
 
+    @Override
+    public Contract contract() {
+        return CONTRACT;
+    }
+
     @SuppressWarnings("unchecked")
     @Override
     public Map<String,Object> execute(Map input)
             throws FileNotFoundException, MessagingException, AtomicInputException {
 
-        if (input.get(MAIL_MIMEMESSAGE) == null)
-            throw new AtomicInputException("MAIL_MIMEMESSAGE not exist or is null!");
-        if (!(input.get(MAIL_MIMEMESSAGE) instanceof MimeMessage message))
-            throw new AtomicInputException("MAIL_MIMEMESSAGE is not instance of MimeMessage!");
-        if (input.get(MAIL_ADDMIMEBODYPARTS) == null)
-            throw new AtomicInputException("MAIL_MIMEMESSAGE not exist or is null!");
-        if (!(input.get(MAIL_ADDMIMEBODYPARTS) instanceof List<?> parts))
-            throw new AtomicInputException("MAIL_ADDMIMEBODYPARTS is not instance of List!");
+        MimeMessage message = MAIL_MIMEMESSAGE_KEY.require(input);
+        List<?> parts = MAIL_ADDMIMEBODYPARTS_KEY.require(input);
         if (parts.isEmpty())
             throw new AtomicInputException("MAIL_ADDMIMEBODYPARTS is an empty list!");
 
@@ -72,6 +75,20 @@ public class MailAddMimeBodyParts extends MailKeys implements PipelineOp {
                 mimeBodyPart.setText(partText);
                 multipart.addBodyPart(mimeBodyPart);
             }
+            else if (part instanceof BodyPartSource partSource){
+                logger.debug("Create MimeBodyPart from BodyPartSource: {}", partSource.contentType());
+                multipart.addBodyPart(partSource.toBodyPart());
+            }
+            else if (part instanceof Path partPath){
+                logger.debug("Create MimeBodyPart from Path: {}", partPath);
+                if (!Files.isRegularFile(partPath))
+                    throw new AtomicInputException("MAIL_ADDMIMEBODYPARTS file "+partPath+" not exist!");
+                multipart.addBodyPart(BodyPartSource.of(partPath, null, null).toBodyPart());
+            }
+            else if (part instanceof ByteBuffer partBuffer){
+                logger.debug("Create MimeBodyPart from ByteBuffer of {} bytes", partBuffer.remaining());
+                multipart.addBodyPart(BodyPartSource.of(partBuffer, null, null).toBodyPart());
+            }
             else {
                 throw new AtomicInputException(part.getClass() + " is not an supported type!");
             }
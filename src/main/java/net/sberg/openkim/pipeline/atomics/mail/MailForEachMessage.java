@@ -0,0 +1,164 @@
+package net.sberg.openkim.pipeline.atomics.mail;
+
+import jakarta.mail.internet.MimeMessage;
+import net.sberg.openkim.pipeline.AtomicInputException;
+import net.sberg.openkim.pipeline.Contract;
+import net.sberg.openkim.pipeline.PipelineContext;
+import net.sberg.openkim.pipeline.PipelineOp;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Atomic MailForEachMessage runs a sub pipeline once per message of {@code MAIL_GETMESSAGES}.
+ * Every message gets its own child context: a copy of the input map with the message under {@code MAIL_MIMEMESSAGE}.
+ * The child contexts are processed in parallel, at most {@code MAIL_FOREACH_PARALLELISM} at the same time.
+ * Resources a sub pipeline registers in its child context (see {@link PipelineContext#register(Map, Closeable)})
+ * are moved to the input map when the sub pipelines are finished, so they are closed with it and the results stay usable
+ * until then.
+ * A {@code Map<String,Object>} will be used for input / output information transport.
+ * @Input   key: {@code MAIL_GETMESSAGES}<br>
+ *          value: MimeMessages [{@code List<jakarta.mail.internet.MimeMessage>}] <br>
+ *          key: {@code MAIL_FOREACH_PIPELINE}<br>
+ *          value: SubPipeline executed per message [{@code net.sberg.openkim.pipeline.PipelineOp}] <br>
+ *          key: {@code MAIL_FOREACH_PARALLELISM}<br>
+ *          value: MaxMessagesInProcess [{@code Integer}]<br>
+ *          optional: default -> number of available processors<br>
+ *          key: {@code MAIL_FOREACH_EXECUTOR}<br>
+ *          value: Executor for the sub pipelines, e.g. a fixed thread pool [{@code java.util.concurrent.ExecutorService}]<br>
+ *          optional: default -> one virtual thread per message, the given executor is not shut down
+ * @Output  key: {@code MAIL_FOREACH_RESULTS}<br>
+ *          value: ChildContexts in message order [{@code List<Map<String,Object>>}] <br>
+ *          key: {@code MAIL_FOREACH_ERRORS}<br>
+ *          value: Failures by message index [{@code Map<Integer,Exception>}]
+ */
+
+public class MailForEachMessage extends MailKeys implements PipelineOp {
+
+    static final Contract CONTRACT = new Contract()
+            .requires(MAIL_GETMESSAGES_KEY, MAIL_FOREACH_PIPELINE_KEY)
+            .optional(MAIL_FOREACH_PARALLELISM_KEY, MAIL_FOREACH_EXECUTOR_KEY)
+            .produces(MAIL_FOREACH_RESULTS_KEY, MAIL_FOREACH_ERRORS_KEY);
+
+    private static final Set<String> PARENT_ONLY = Set.of(MAIL_GETMESSAGES, MAIL_FOREACH_PIPELINE,
+            MAIL_FOREACH_PARALLELISM, MAIL_FOREACH_EXECUTOR, MAIL_FOREACH_RESULTS, MAIL_FOREACH_ERRORS,
+            PipelineContext.PIPELINE_RESOURCES);
+
+    Logger logger = LoggerFactory.getLogger(MailForEachMessage.class);
+
+    @Override
+    public Contract contract() {
+        return CONTRACT;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    @Override
+    public Map<String,Object> execute(Map input) throws Exception {
+
+        List<MimeMessage> messages = MAIL_GETMESSAGES_KEY.require(input);
+        PipelineOp pipeline = MAIL_FOREACH_PIPELINE_KEY.require(input);
+        int parallelism = MAIL_FOREACH_PARALLELISM_KEY.getOrDefault(input, Runtime.getRuntime().availableProcessors());
+        if (parallelism < 1)
+            throw new AtomicInputException("MAIL_FOREACH_PARALLELISM must be greater than 0!");
+        ExecutorService executor = MAIL_FOREACH_EXECUTOR_KEY.get(input);
+
+        List<Map<String,Object>> results = new ArrayList<>(messages.size());
+        Map<Integer,Exception> errors = new TreeMap<>();
+
+        if (executor != null)
+            run(messages, pipeline, parallelism, executor, input, results, errors);
+        else {
+            try (ExecutorService virtualThreads = Executors.newVirtualThreadPerTaskExecutor()) {
+                run(messages, pipeline, parallelism, virtualThreads, input, results, errors);
+            }
+        }
+
+        logger.debug("Sub pipeline executed for {} messages, {} failed", messages.size(), errors.size());
+
+        input.put(MAIL_FOREACH_RESULTS, results);
+        input.put(MAIL_FOREACH_ERRORS, errors);
+
+        return input;
+    }
+
+    private void run(List<MimeMessage> messages, PipelineOp pipeline, int parallelism, ExecutorService executor,
+                     Map<String,Object> parent, List<Map<String,Object>> results, Map<Integer,Exception> errors)
+            throws InterruptedException {
+
+        Semaphore permits = new Semaphore(parallelism);
+        List<Future<Map<String,Object>>> futures = new ArrayList<>(messages.size());
+        List<Map<String,Object>> children = new ArrayList<>(messages.size());
+        try {
+            for (MimeMessage message : messages) {
+                Map<String,Object> child = childContext(parent);
+                child.put(MAIL_MIMEMESSAGE, message);
+                children.add(child);
+                results.add(child);
+
+                permits.acquire();
+                try {
+                    futures.add(executor.submit(() -> {
+                        try {
+                            return pipeline.execute(child);
+                        } finally {
+                            permits.release();
+                        }
+                    }));
+                } catch (RejectedExecutionException e) {
+                    permits.release();
+                    throw e;
+                }
+            }
+
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    Map<String,Object> result = futures.get(i).get();
+                    if (result != null)
+                        results.set(i, result);
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof Error error)
+                        throw error;
+                    logger.error("Sub pipeline failed for message {}", i, e.getCause());
+                    errors.put(i, (Exception) e.getCause());
+                }
+            }
+            adoptResources(parent, children, results);
+        } catch (InterruptedException e) {
+            futures.forEach(future -> future.cancel(true));
+            throw e;
+        }
+    }
+
+    /**
+     * Moves the resources registered in the child contexts and results to the parent, called when all sub pipelines
+     * are completed.
+     */
+    private void adoptResources(Map<String,Object> parent, List<Map<String,Object>> children,
+                                List<Map<String,Object>> results) {
+        Set<Map<String,Object>> adopted = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (List<Map<String,Object>> maps : List.of(children, results)) {
+            for (Map<String,Object> map : maps) {
+                if (map == parent || !adopted.add(map))
+                    continue;
+                List<Closeable> resources = PipelineContext.PIPELINE_RESOURCES_KEY.get(map);
+                if (resources == null)
+                    continue;
+                map.remove(PipelineContext.PIPELINE_RESOURCES);
+                for (Closeable resource : resources)
+                    PipelineContext.register(parent, resource);
+            }
+        }
+    }
+
+    private Map<String,Object> childContext(Map<String,Object> parent) {
+        Map<String,Object> child = parent instanceof PipelineContext ? new PipelineContext() : new HashMap<>();
+        for (Map.Entry<String,Object> entry : parent.entrySet()) {
+            if (!PARENT_ONLY.contains(entry.getKey()))
+                child.put(entry.getKey(), entry.getValue());
+        }
+        return child;
+    }
+}
@@ -3,6 +3,7 @@ package net.sberg.openkim.pipeline.atomics.mail;
 import jakarta.mail.MessagingException;
 import jakarta.mail.internet.MimeMessage;
 import net.sberg.openkim.pipeline.AtomicInputException;
+import net.sberg.openkim.pipeline.Contract;
 import net.sberg.openkim.pipeline.PipelineOp;
 
 import java.util.*;
@@ -18,19 +19,26 @@ import java.util.*;
  */
 
 public class MailGetFrom extends MailKeys implements PipelineOp {
+
+    static final Contract CONTRACT = new Contract()
+            .requires(MAIL_MIMEMESSAGE_KEY)
+            .produces(MAIL_FROM_KEY);
+
+    @Override
+    public Contract contract() {
+        return CONTRACT;
+    }
+
     @SuppressWarnings("unchecked")
 
     @Override
     public Map<String,Object> execute(Map input) throws MessagingException, AtomicInputException {
 
-        if (input.get(MAIL_MIMEMESSAGE) == null)
-            throw new AtomicInputException("MAIL_MIMEMESSAGE not exist or is null!");
-        if (!(input.get(MAIL_MIMEMESSAGE) instanceof MimeMessage message))
-            throw new AtomicInputException("MAIL_MIMEMESSAGE is not instance of MimeMessage!");
+        MimeMessage message = MAIL_MIMEMESSAGE_KEY.require(input);
 
-        input.put(MAIL_FROM, new ArrayList<String>());
-        Arrays.stream(message.getFrom()).iterator().forEachRemaining(from ->
-                ((List<String>) input.get(MAIL_FROM)).add(from.toString()));
+        List<String> from = new ArrayList<>();
+        Arrays.stream(message.getFrom()).iterator().forEachRemaining(address -> from.add(address.toString()));
+        input.put(MAIL_FROM, from);
         return input;
     }
 }
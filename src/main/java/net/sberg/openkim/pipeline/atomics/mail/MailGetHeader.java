@@ -1,20 +1,28 @@
 package net.sberg.openkim.pipeline.atomics.mail;
 
-import jakarta.mail.Header;
 import jakarta.mail.MessagingException;
 import jakarta.mail.internet.MimeMessage;
 import net.sberg.openkim.pipeline.AtomicInputException;
+import net.sberg.openkim.pipeline.Contract;
 import net.sberg.openkim.pipeline.PipelineOp;
 
 import java.util.*;
+import java.util.regex.PatternSyntaxException;
 
 /**
- * Atomic MailAddHeader get Header from MimeMessage. Input is a List of Strings that will be checked against MimeMessage.
- * The Strings of header name will be used as regex to find a header.
+ * Atomic MailGetHeader get Header from MimeMessage. Input is a List of Strings that will be checked against MimeMessage.
+ * The Strings of header name will be used as case insensitive regex to find a header.
  * Output will have the value if the header exist in MimeMessage.
+ * The header names are compiled into a {@link HeaderMatcher} and the headers are matched in one scan, a header
+ * matching several names is found once. MAIL_HEADER_NAMES is compiled on every call, names used for many messages
+ * should be compiled once with {@link HeaderMatcher#compile(java.util.Collection)} and given as MAIL_HEADER_MATCHER.
  * A {@code Map<String,Object>} will be used for input / output information transport.
  * @Input   key: {@code MAIL_HEADER_NAMES}
- *          value: MailHeaderNames [{@code List<String>}] and
+ *          value: MailHeaderNames [{@code List<String>}]
+ *          optional: if MAIL_HEADER_MATCHER is set<br>
+ *          key: {@code MAIL_HEADER_MATCHER}
+ *          value: compiled MailHeaderNames [{@code HeaderMatcher}]
+ *          optional: default -> compiled from MAIL_HEADER_NAMES<br>
  *          key: {@code MAIL_MIMEMESSAGE}
  *          value: MimeMessage [{@code jakarta.mail.internet.MimeMessage}]
  * @Output  key: {@code MAIL_HEADER}<br>
@@ -23,33 +31,38 @@ import java.util.*;
 
 public class MailGetHeader extends MailKeys implements PipelineOp {
 
+    static final Contract CONTRACT = new Contract()
+            .requires(MAIL_MIMEMESSAGE_KEY)
+            .optional(MAIL_HEADER_NAMES_KEY, MAIL_HEADER_MATCHER_KEY)
+            .produces(MAIL_HEADER_KEY);
+
+    @Override
+    public Contract contract() {
+        return CONTRACT;
+    }
+
     @SuppressWarnings("unchecked")
     @Override
     public Map<String,Object> execute(Map input) throws MessagingException, AtomicInputException {
 
-        if (input.get(MAIL_MIMEMESSAGE) == null)
-            throw new AtomicInputException("MAIL_MIMEMESSAGE not exist or is null!");
-        if (input.get(MAIL_HEADER_NAMES) == null)
-            throw new AtomicInputException("MAIL_SUBJECT not exist or is null!");
-        if (!(input.get(MAIL_MIMEMESSAGE) instanceof MimeMessage message))
-            throw new AtomicInputException("MAIL_MIMEMESSAGE is not instance of MimeMessage!");
-        if (!(input.get(MAIL_HEADER_NAMES) instanceof List<?>))
-            throw new AtomicInputException("MAIL_HEADER_NAMES is not instance of List!");
-
-        List<String> headerNames = (List<String>) input.get(MAIL_HEADER_NAMES);
-        List<Header> resultHeader = new ArrayList<>();
-        Enumeration<Header> allHeader = message.getAllHeaders();
-        while (allHeader.hasMoreElements()) {
-            Header header = allHeader.nextElement();
-            headerNames.forEach(headerName -> {
-                if (header.getName().toLowerCase().matches(headerName.toLowerCase())){
-                    if (header.getValue() != null) {
-                        resultHeader.add(header);
-                    }
-                }
-            });
+        MimeMessage message = MAIL_MIMEMESSAGE_KEY.require(input);
+        HeaderMatcher matcher = MAIL_HEADER_MATCHER_KEY.get(input);
+        if (matcher == null) {
+            List<String> headerNames = MAIL_HEADER_NAMES_KEY.get(input);
+            if (headerNames == null)
+                throw new AtomicInputException("MAIL_HEADER_NAMES or MAIL_HEADER_MATCHER not exist or is null!");
+            matcher = compile(headerNames);
         }
-        input.put(MAIL_HEADER, resultHeader);
+
+        input.put(MAIL_HEADER, matcher.collect(message));
         return input;
     }
+
+    private HeaderMatcher compile(List<String> headerNames) throws AtomicInputException {
+        try {
+            return HeaderMatcher.compile(headerNames);
+        } catch (PatternSyntaxException e) {
+            throw new AtomicInputException("MAIL_HEADER_NAMES contains an invalid pattern: " + e.getDescription());
+        }
+    }
 }
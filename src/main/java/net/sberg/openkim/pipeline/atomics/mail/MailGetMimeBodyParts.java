@@ -5,7 +5,10 @@ import jakarta.mail.Multipart;
 import jakarta.mail.internet.MimeBodyPart;
 import jakarta.mail.internet.MimeMessage;
 import net.sberg.openkim.pipeline.AtomicInputException;
+import net.sberg.openkim.pipeline.Contract;
 import net.sberg.openkim.pipeline.PipelineOp;
+import net.sberg.openkim.pipeline.atomics.mail.stream.MimePartIndex;
+import net.sberg.openkim.pipeline.atomics.mail.stream.MimeStreamPart;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -17,80 +20,90 @@ import java.util.Map;
 /**
  * Atomic MailGetMimeBodyParts extracts all mimeBodyParts recursive in a MimeBodyPartList.
  * Filters can be set to extract only specified MimeBodyPart.
- * The Current filters are filterSizeGreaterThen (in kB) and filterDisposition (attached or inline).
+ * The filters are filterSizeGreaterThen (in kB), filterDisposition (attached or inline) and a composed
+ * {@link PartFilter} on content type, file name, disposition, size and depth. All set filters must match.
+ * Filters are evaluated while the tree is walked, the walk stops as soon as the limit is reached and the content
+ * of a part is only read to descend into a nested multipart.
+ * Parts of a nested multipart are listed before the multipart part itself.
+ * With a {@link MimePartIndex} from {@link MailGetMimePartIndex} the parts are taken from the index, only the headers
+ * of each part are parsed and no multipart is parsed.
  * If no MimeBodyPart is found, the MAIL_MIMEBODYPARTS will be empty.
  * A {@code Map<String,Object>} will be used for input / output information transport.
  * @Input   key: {@code MAIL_MIMEMESSAGE}<br>
  *          value: MimeMessage [{@code jakarta.mail.internet.MimeMessage}]<br>
+ *          optional: used if MAIL_MIMEPARTINDEX is not set<br>
+ *          key: {@code MAIL_MIMEPARTINDEX}<br>
+ *          value: MimePartIndex [{@code net.sberg.openkim.pipeline.atomics.mail.stream.MimePartIndex}]<br>
+ *          optional: default -> null<br>
  *          key: {@code MAIL_GETMIMEBODYPARTS_FILTER_SIZEGREATERTHEN}<br>
  *          value: FilterSizeGreaterThen (in kB) [{@code integer}]<br>
  *          optional: default -> 0 (ignored)
  *          key: {@code MAIL_GETMIMEBODYPARTS_FILTER_DISPO}<br>
- *          value: FilterByDisposition (in kB) [{@code String}]<br>
+ *          value: FilterByDisposition [{@code String}]<br>
  *          optional: default -> null (ignored)
+ *          key: {@code MAIL_GETMIMEBODYPARTS_FILTER}<br>
+ *          value: Filter [{@code PartFilter}]<br>
+ *          optional: default -> null (ignored)
+ *          key: {@code MAIL_GETMIMEBODYPARTS_LIMIT}<br>
+ *          value: Maximum number of parts, 1 for the first match [{@code Integer}]<br>
+ *          optional: default -> no limit
  * @Output  key: {@code MAIL_MIMEBODYPARTS}<br>
  *          value: MimeBodyPartList [{@code List<jakarta.mail.internet.MimeBodyPart>}]
  */
 
 public class MailGetMimeBodyParts extends MailKeys implements PipelineOp {
 
+    static final Contract CONTRACT = new Contract()
+            .optional(MAIL_MIMEMESSAGE_KEY, MAIL_MIMEPARTINDEX_KEY, MAIL_GETMIMEBODYPARTS_FILTER_SIZEGREATERTHEN_KEY, MAIL_GETMIMEBODYPARTS_FILTER_DISPO_KEY,
+                    MAIL_GETMIMEBODYPARTS_FILTER_KEY, MAIL_GETMIMEBODYPARTS_LIMIT_KEY)
+            .produces(MAIL_MIMEBODYPARTS_KEY);
+
     Logger logger = LoggerFactory.getLogger(MailGetMimeBodyParts.class);
 
+    @Override
+    public Contract contract() {
+        return CONTRACT;
+    }
+
     @SuppressWarnings({"unchecked", "rawtypes"})
     @Override
     public Map<String,Object> execute(Map input)
             throws IOException, MessagingException, AtomicInputException {
 
-        if (input.get(MAIL_MIMEMESSAGE) == null)
-            throw new AtomicInputException("MAIL_MIMEMESSAGE not exist or is null!");
-        if (!(input.get(MAIL_MIMEMESSAGE) instanceof MimeMessage message))
-            throw new AtomicInputException("MAIL_MIMEMESSAGE is not instance of MimeMessage!");
+        MimeMessage message = MAIL_MIMEMESSAGE_KEY.get(input);
+        MimePartIndex index = MAIL_MIMEPARTINDEX_KEY.get(input);
+        if (message == null && index == null)
+            throw new AtomicInputException("MAIL_MIMEMESSAGE or MAIL_MIMEPARTINDEX not exist or is null!");
+
+        int filterSizeGreaterThen = MAIL_GETMIMEBODYPARTS_FILTER_SIZEGREATERTHEN_KEY.getOrDefault(input, 0);
+        String filterDispo = MAIL_GETMIMEBODYPARTS_FILTER_DISPO_KEY.get(input);
+        PartFilter partFilter = MAIL_GETMIMEBODYPARTS_FILTER_KEY.get(input);
+        int limit = MAIL_GETMIMEBODYPARTS_LIMIT_KEY.getOrDefault(input, Integer.MAX_VALUE);
+        if (limit <= 0)
+            throw new AtomicInputException("MAIL_GETMIMEBODYPARTS_LIMIT "+limit+" must be greater than 0!");
 
-        int filterSizeGreaterThen = input.containsKey(MAIL_GETMIMEBODYPARTS_FILTER_SIZEGREATERTHEN)
-                ? (int) input.get(MAIL_GETMIMEBODYPARTS_FILTER_SIZEGREATERTHEN)
-                : 0;
-        String filterDispo = input.containsKey(MAIL_GETMIMEBODYPARTS_FILTER_DISPO)
-                ? (String) input.get(MAIL_GETMIMEBODYPARTS_FILTER_DISPO)
-                : null;
+        PartFilter filter = PartFilter.all();
+        if (filterDispo != null)
+            filter = filter.and(PartFilter.disposition(filterDispo));
+        if (filterSizeGreaterThen > 0)
+            filter = filter.and(PartFilter.size(filterSizeGreaterThen * 1024L + 1, Long.MAX_VALUE));
+        if (partFilter != null)
+            filter = filter.and(partFilter);
 
         List<MimeBodyPart> parts = new ArrayList<>();
 
-        if (message.getContentType().contains("multipart")) {
-            Multipart multiPartContent = (Multipart) message.getContent();
-            List<MimeBodyPart> singleMimeBodyParts = new ArrayList<>();
-            extractAllSingleMimeBodyParts(multiPartContent,singleMimeBodyParts);
-            parts.addAll(singleMimeBodyParts);
-            if (filterDispo != null) {
-                parts.removeIf(part -> {
-                    try {
-                        String dispo = part.getDisposition();
-                        if (dispo == null || ! dispo.equalsIgnoreCase(filterDispo)){
-                            logger.debug("Part-{} disposition {} does not match MAIL_GETMIMEBODYPARTS_FILTER_DISPO={} " +
-                                            "and will filtered out",parts.indexOf(part), dispo, filterDispo);
-                            return true;
-                        }
-                        else
-                            logger.debug("Part-{} disposition {} matches MAIL_GETMIMEBODYPARTS_FILTER_DISPO={} " +
-                                    "and will be added",parts.indexOf(part), dispo, filterDispo);
-                    } catch (MessagingException e) { throw new RuntimeException(e); }
-                    return false;
-                });
-            }
-            if (filterSizeGreaterThen > 0) {
-                parts.removeIf(part -> {
-                    try {
-                        if (part.getSize() <= filterSizeGreaterThen * 1024){
-                            logger.debug("Part-{} size {}kB is smaller then MAIL_GETMIMEBODYPARTS_FILTER_SIZEGREATERTHEN=" +
-                                    "{}kB and will filtered out",parts.indexOf(part), part.getSize()/1024, filterSizeGreaterThen);
-                            return true;
-                        }
-                        else
-                            logger.debug("Part-{} size {}kB is greater then MAIL_GETMIMEBODYPARTS_FILTER_SIZEGREATERTHEN=" +
-                                    "{}kB and will be added",parts.indexOf(part), part.getSize()/1024, filterSizeGreaterThen);
-                    } catch (MessagingException e) { throw new RuntimeException(e); }
-                    return false;
-                });
+        if (index != null) {
+            if (index.root().isMultipart()) {
+                collectMimeBodyParts(index, filter, limit, parts);
+                logger.debug("Found {} matching MimeBodyParts in MimePartIndex", parts.size());
             }
+            else
+                logger.warn("MimePartIndex does not contain multipart!");
+        }
+        else if (message.getContentType().contains("multipart")) {
+            Multipart multiPartContent = (Multipart) message.getContent();
+            collectMimeBodyParts(multiPartContent, 1, filter, limit, parts);
+            logger.debug("Found {} matching MimeBodyParts in MimeMessage", parts.size());
         }
         else
             logger.warn("MimeMessage does not contain multipart!");
@@ -99,17 +112,58 @@ public class MailGetMimeBodyParts extends MailKeys implements PipelineOp {
         return input;
     }
 
-    private void extractAllSingleMimeBodyParts(Multipart multiPartContent, List<MimeBodyPart> singleMimeBodyParts)
-            throws MessagingException, IOException {
+    private void collectMimeBodyParts(MimePartIndex index, PartFilter filter, int limit, List<MimeBodyPart> parts)
+            throws MessagingException {
+        for (MimeStreamPart indexed : index.parts()) {
+            if (!listed(indexed))
+                continue;
+            MimeBodyPart part = index.bodyPart(indexed);
+            if (filter.test(part, indexed.depth())) {
+                logger.debug("Part-{} matches the filters and will be added", indexed.id());
+                parts.add(part);
+                if (parts.size() >= limit)
+                    return;
+            }
+            else
+                logger.debug("Part-{} does not match the filters and will filtered out", indexed.id());
+        }
+    }
+
+    /**
+     * Parts of the message, parts within an encapsulated message are not listed like in the MimeMessage walk.
+     */
+    private static boolean listed(MimeStreamPart part) {
+        if (part.parent() == null)
+            return false;
+        for (MimeStreamPart parent = part.parent(); parent.parent() != null; parent = parent.parent()) {
+            if (parent.isMessage())
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return false if the limit is reached and the walk stops
+     */
+    private boolean collectMimeBodyParts(Multipart multiPartContent, int depth, PartFilter filter, int limit,
+                                         List<MimeBodyPart> parts) throws MessagingException, IOException {
         for (int i = 0; i < multiPartContent.getCount(); i++) {
             MimeBodyPart part = (MimeBodyPart) multiPartContent.getBodyPart(i);
             if (part.getContentType().contains("multipart")){
                 Multipart internalMultiPart = (Multipart) part.getContent();
-                this.extractAllSingleMimeBodyParts(internalMultiPart,singleMimeBodyParts);
+                if (!collectMimeBodyParts(internalMultiPart, depth + 1, filter, limit, parts))
+                    return false;
+            }
+            if (filter.test(part, depth)) {
+                logger.debug("Part-{} at depth {} matches the filters and will be added", i, depth);
+                parts.add(part);
+                if (parts.size() >= limit)
+                    return false;
             }
-            singleMimeBodyParts.add(part);
+            else
+                logger.debug("Part-{} at depth {} does not match the filters and will filtered out", i, depth);
         }
-        logger.debug("Found {} single MimeBodyParts in MimeMessage", singleMimeBodyParts.size());
+        return true;
     }
 
 }
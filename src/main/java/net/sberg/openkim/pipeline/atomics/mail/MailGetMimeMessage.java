@@ -2,16 +2,29 @@ package net.sberg.openkim.pipeline.atomics.mail;
 
 import jakarta.mail.MessagingException;
 import jakarta.mail.Session;
+import jakarta.mail.internet.InternetHeaders;
 import jakarta.mail.internet.MimeMessage;
+import jakarta.mail.internet.SharedInputStream;
+import jakarta.mail.util.SharedByteArrayInputStream;
 import net.sberg.openkim.pipeline.AtomicInputException;
+import net.sberg.openkim.pipeline.Contract;
+import net.sberg.openkim.pipeline.PipelineContext;
 import net.sberg.openkim.pipeline.PipelineOp;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.Map;
 import java.util.Properties;
 
@@ -25,6 +38,25 @@ import java.util.Properties;
  *          key: [{@code  MAIL_STREAM}]<br>
  *          value: InputStream [{@code java.io.InputStream}]<br>
  *          optional: default -> null<br>
+ *          key: {@code MAIL_STREAM_SPILL_THRESHOLD}<br>
+ *          value: Maximum size in bytes of a MAIL_STREAM that is buffered in memory, larger streams are
+ *          copied to a temp file that is registered as resource and deleted when it is closed [{@code Integer}]<br>
+ *          optional: default -> 16 MB<br>
+ *          key: {@code MAIL_STREAM_SPILL_DIR}<br>
+ *          value: Directory of the temp files [{@code String}]<br>
+ *          optional: default -> java.io.tmpdir<br>
+ *          key: {@code MAIL_HEADERS_ONLY}<br>
+ *          value: Read File or InputStream only up to the end of the header block,
+ *          creates a {@link HeaderOnlyMimeMessage} [{@code Boolean}]<br>
+ *          optional: default -> false<br>
+ *          key: {@code MAIL_MIMEMESSAGE_CACHE}<br>
+ *          value: Cache for MAIL_FILE in mode HEAP and for MAIL_STREAM up to MAIL_STREAM_SPILL_THRESHOLD,
+ *          streams are looked up by Message-ID and are not read further on a hit [{@code MimeMessageCache}]<br>
+ *          optional: default -> null<br>
+ *          key: {@code MAIL_BODY_PASSTHROUGH}<br>
+ *          value: Create a {@link PassthroughMimeMessage} from File or InputStream, which is written with its
+ *          original body bytes as long as only headers are changed [{@code Boolean}]<br>
+ *          optional: default -> false<br>
  *          key: {@code MAIL_MIMEMESSAGE}<br>
  *          value: MimeMessage [{@code jakarta.mail.internet.MimeMessage}]<br>
  *          optional: default -> EmptySession
@@ -34,48 +66,185 @@ import java.util.Properties;
 
 public class MailGetMimeMessage extends MailKeys implements PipelineOp {
 
+    static final Contract CONTRACT = new Contract()
+            .optional(MAIL_FILE_KEY, MAIL_FILE_MODE_KEY, MAIL_STREAM_KEY, MAIL_STREAM_SPILL_THRESHOLD_KEY,
+                    MAIL_STREAM_SPILL_DIR_KEY, MAIL_HEADERS_ONLY_KEY, MAIL_MIMEMESSAGE_CACHE_KEY,
+                    MAIL_BODY_PASSTHROUGH_KEY, MAIL_SESSION_KEY)
+            .produces(MAIL_MIMEMESSAGE_KEY);
+
+    private static final int HEADER_BUFFER_SIZE = 4096;
+    private static final int DEFAULT_SPILL_THRESHOLD = 16 * 1024 * 1024;
+    private static final int MESSAGE_ID_PEEK_SIZE = 64 * 1024;
+
     Logger logger = LoggerFactory.getLogger(MailGetMimeMessage.class);
 
+    @Override
+    public Contract contract() {
+        return CONTRACT;
+    }
+
     @SuppressWarnings("unchecked")
     @Override
     public Map<String,Object> execute(Map input)
-            throws FileNotFoundException, MessagingException, AtomicInputException {
+            throws IOException, MessagingException, AtomicInputException {
 
-        if (input.get(MAIL_FILE) != null && !(input.get(MAIL_FILE) instanceof File))
-            throw new AtomicInputException("MAIL_FILE is not instance of File!");
-        if (input.get(MAIL_STREAM) != null && !(input.get(MAIL_STREAM) instanceof InputStream))
-            throw new AtomicInputException("MAIL_STREAM is not instance of InputStream!");
-        if (input.get(MAIL_SESSION) != null && !(input.get(MAIL_SESSION) instanceof Session))
-            throw new AtomicInputException("MAIL_SESSION is not instance of Session!");
+        File mailFile = MAIL_FILE_KEY.get(input);
+        InputStream mailInputStream = MAIL_STREAM_KEY.get(input);
 
         MimeMessage message;
-        Session session = (input.containsKey(MAIL_SESSION))
-                ? (Session) input.get(MAIL_SESSION)
+        Session session = MAIL_SESSION_KEY.isPresent(input)
+                ? MAIL_SESSION_KEY.get(input)
                 : Session.getInstance(new Properties());
 
-        File mailFile = (input.containsKey(MAIL_FILE))
-                ? (File) input.get(MAIL_FILE)
-                : null;
-
-        InputStream mailInputStream = (input.containsKey(MAIL_STREAM))
-                ? (InputStream) input.get(MAIL_STREAM)
-                : null;
-
         if (System.getProperty("mail.mime.contenttypehandler") != null) {
             logger.debug("Use custom contentTypeHandler: {}", System.getProperty("mail.mime.contenttypehandler"));
         }
 
-        if ( mailFile != null ) {
-            logger.debug("Create MimeMessage from File: {}", ((File) input.get(MAIL_FILE)).getName());
-            message = new MimeMessage(session, new FileInputStream(mailFile));
+        boolean headersOnly = MAIL_HEADERS_ONLY_KEY.getOrDefault(input, false);
+        MimeMessageCache cache = MAIL_MIMEMESSAGE_CACHE_KEY.get(input);
+
+        if ( headersOnly && mailFile != null ) {
+            logger.debug("Create HeaderOnlyMimeMessage from File: {}", mailFile.getName());
+            try (InputStream in = new BufferedInputStream(new FileInputStream(mailFile), HEADER_BUFFER_SIZE)) {
+                message = new HeaderOnlyMimeMessage(session, in);
+            }
+        } else if ( headersOnly && mailInputStream != null ) {
+            logger.debug("Create HeaderOnlyMimeMessage from InputStream");
+            message = new HeaderOnlyMimeMessage(session, mailInputStream.markSupported()
+                    ? mailInputStream
+                    : new BufferedInputStream(mailInputStream, HEADER_BUFFER_SIZE));
+        } else if ( mailFile != null ) {
+            Mode mode = MAIL_FILE_MODE_KEY.getOrDefault(input, Mode.HEAP);
+            logger.debug("Create MimeMessage from File: {} mode: {}", mailFile.getName(), mode);
+            message = switch (mode) {
+                case HEAP -> cache != null ? cache.load(session, mailFile.toPath()) : readHeap(session, mailFile);
+                case SHARED -> readShared(session, mailFile, input);
+                case MAPPED -> new MimeMessage(session, ByteBufferSharedInputStream.map(mailFile.toPath()));
+            };
         } else if ( mailInputStream != null ) {
             logger.debug("Create MimeMessage from InputStream");
-            message = new MimeMessage(session, mailInputStream);
+            message = cache != null
+                    ? readStreamCached(session, mailInputStream, cache, input)
+                    : readStream(session, mailInputStream, null, null, input);
         } else {
             logger.debug("Create empty MimeMessage");
             message = new MimeMessage(session);
         }
+        if (MAIL_BODY_PASSTHROUGH_KEY.getOrDefault(input, false) && !headersOnly
+                && (mailFile != null || mailInputStream != null)) {
+            logger.debug("Create PassthroughMimeMessage");
+            message = new PassthroughMimeMessage(message);
+        }
         input.put(MAIL_MIMEMESSAGE, message);
         return input;
     }
+
+    /**
+     * Reading modes of {@code MAIL_FILE}.
+     */
+    public enum Mode {
+        /**
+         * The file is read into one byte array and closed, body parts are views of the array.
+         */
+        HEAP,
+        /**
+         * The file stays open and body parts are read from it when accessed.
+         * The file is registered as resource and closed by {@link PipelineContext#close()}
+         * or {@link PipelineContext#closeResources(Map)}, the message is unusable afterwards.
+         */
+        SHARED,
+        /**
+         * The file is memory mapped and closed, body parts are views of the mapping.
+         * The mapping is released when the message is garbage collected, files above 2 GB are not supported.
+         */
+        MAPPED
+    }
+
+    private MimeMessage readHeap(Session session, File mailFile) throws IOException, MessagingException {
+        byte[] content;
+        try (FileInputStream in = new FileInputStream(mailFile)) {
+            content = in.readAllBytes();
+        }
+        return new MimeMessage(session, new SharedByteArrayInputStream(content));
+    }
+
+    /**
+     * Streams up to the spill threshold are parsed from one byte array. Larger streams are copied to a temp file
+     * that is read like {@link Mode#SHARED}, the file is deleted when the registered channel is closed.
+     * A stream that is already a {@link SharedInputStream} is parsed as is.
+     * With a cache and a Message-ID a stream buffered in memory is cached.
+     */
+    @SuppressWarnings("unchecked")
+    private MimeMessage readStream(Session session, InputStream in, MimeMessageCache cache, String messageId, Map input)
+            throws IOException, MessagingException, AtomicInputException {
+        if (in instanceof SharedInputStream)
+            return new MimeMessage(session, in);
+
+        int threshold = MAIL_STREAM_SPILL_THRESHOLD_KEY.getOrDefault(input, DEFAULT_SPILL_THRESHOLD);
+        if (threshold < 0 || threshold == Integer.MAX_VALUE)
+            throw new AtomicInputException("MAIL_STREAM_SPILL_THRESHOLD "+threshold+" out of range!");
+        byte[] head = in.readNBytes(threshold + 1);
+        if (head.length <= threshold)
+            return cache != null && messageId != null
+                    ? cache.put(session, messageId, head)
+                    : new MimeMessage(session, new SharedByteArrayInputStream(head));
+
+        String spillDir = MAIL_STREAM_SPILL_DIR_KEY.get(input);
+        Path spillFile = spillDir != null
+                ? Files.createTempFile(Path.of(spillDir), "openkim-mail-", ".eml")
+                : Files.createTempFile("openkim-mail-", ".eml");
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(spillFile, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                    StandardOpenOption.DELETE_ON_CLOSE);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(spillFile);
+            throw e;
+        }
+        try {
+            OutputStream out = Channels.newOutputStream(channel);
+            out.write(head);
+            long size = head.length + in.transferTo(out);
+            logger.debug("MAIL_STREAM of {} bytes exceeds {} bytes, spilled to {}", size, threshold, spillFile);
+            MimeMessage message = new MimeMessage(session, new FileChannelSharedInputStream(channel));
+            PipelineContext.register(input, channel);
+            return message;
+        } catch (IOException | MessagingException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Looks the stream up by the Message-ID in its first bytes, the rest of the stream is only read on a miss.
+     */
+    private MimeMessage readStreamCached(Session session, InputStream in, MimeMessageCache cache, Map input)
+            throws IOException, MessagingException, AtomicInputException {
+        InputStream buffered = in.markSupported() ? in : new BufferedInputStream(in, HEADER_BUFFER_SIZE);
+        buffered.mark(MESSAGE_ID_PEEK_SIZE);
+        byte[] peek = buffered.readNBytes(MESSAGE_ID_PEEK_SIZE);
+        buffered.reset();
+        String messageId = new InternetHeaders(new ByteArrayInputStream(peek)).getHeader("Message-ID", null);
+        if (messageId != null) {
+            MimeMessage message = cache.get(session, messageId);
+            if (message != null) {
+                logger.debug("Use cached MimeMessage: {}", messageId);
+                return message;
+            }
+        }
+        return readStream(session, buffered, cache, messageId, input);
+    }
+
+    @SuppressWarnings("unchecked")
+    private MimeMessage readShared(Session session, File mailFile, Map input) throws IOException, MessagingException {
+        FileChannel channel = FileChannel.open(mailFile.toPath(), StandardOpenOption.READ);
+        try {
+            MimeMessage message = new MimeMessage(session, new FileChannelSharedInputStream(channel));
+            PipelineContext.register(input, channel);
+            return message;
+        } catch (IOException | MessagingException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
 }
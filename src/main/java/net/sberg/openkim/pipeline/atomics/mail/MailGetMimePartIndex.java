@@ -0,0 +1,83 @@
+package net.sberg.openkim.pipeline.atomics.mail;
+
+import jakarta.mail.internet.SharedInputStream;
+import jakarta.mail.util.SharedByteArrayInputStream;
+import net.sberg.openkim.pipeline.AtomicInputException;
+import net.sberg.openkim.pipeline.Contract;
+import net.sberg.openkim.pipeline.PipelineContext;
+import net.sberg.openkim.pipeline.PipelineOp;
+import net.sberg.openkim.pipeline.atomics.mail.stream.MimePartIndex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+
+/**
+ * Atomic MailGetMimePartIndex builds a {@link MimePartIndex} of a mail File or InputStream with one scan of the
+ * raw bytes. {@link MailGetMimeBodyParts} uses the index instead of a MimeMessage, the body parts are then created
+ * from the raw bytes of each part without parsing the multiparts around them, their content is read when it is
+ * accessed, e.g. by {@link MailSaveAttachmentFile}.
+ * A File stays open like in {@link MailGetMimeMessage.Mode#SHARED} and is registered as resource, an InputStream is
+ * read into memory.
+ * A {@code Map<String,Object>} will be used for input / output information transport.
+ * @Input   key: {@code MAIL_FILE}<br>
+ *          value: File [{@code java.io.File}] <br>
+ *          optional: default -> null<br>
+ *          key: [{@code  MAIL_STREAM}]<br>
+ *          value: InputStream [{@code java.io.InputStream}]<br>
+ *          optional: used if MAIL_FILE is not set
+ * @Output  all input values and <br>
+ *          key: {@code MAIL_MIMEPARTINDEX}<br>
+ *          value: MimePartIndex [{@code net.sberg.openkim.pipeline.atomics.mail.stream.MimePartIndex}]
+ */
+
+public class MailGetMimePartIndex extends MailKeys implements PipelineOp {
+
+    static final Contract CONTRACT = new Contract()
+            .optional(MAIL_FILE_KEY, MAIL_STREAM_KEY)
+            .produces(MAIL_MIMEPARTINDEX_KEY);
+
+    Logger logger = LoggerFactory.getLogger(MailGetMimePartIndex.class);
+
+    @Override
+    public Contract contract() {
+        return CONTRACT;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    @Override
+    public Map<String,Object> execute(Map input) throws IOException, AtomicInputException {
+
+        File mailFile = MAIL_FILE_KEY.get(input);
+        InputStream mailInputStream = MAIL_STREAM_KEY.get(input);
+
+        MimePartIndex index;
+        if (mailFile != null) {
+            logger.debug("Create MimePartIndex from File: {}", mailFile.getName());
+            FileChannel channel = FileChannel.open(mailFile.toPath(), StandardOpenOption.READ);
+            try {
+                index = MimePartIndex.build(new FileChannelSharedInputStream(channel));
+                PipelineContext.register(input, channel);
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        } else if (mailInputStream != null) {
+            logger.debug("Create MimePartIndex from InputStream");
+            index = MimePartIndex.build(mailInputStream instanceof SharedInputStream shared
+                    ? shared
+                    : new SharedByteArrayInputStream(mailInputStream.readAllBytes()));
+        } else {
+            throw new AtomicInputException("MAIL_FILE or MAIL_STREAM not exist or is null!");
+        }
+        logger.debug("Indexed {} parts", index.parts().size());
+
+        input.put(MAIL_MIMEPARTINDEX, index);
+        return input;
+    }
+}
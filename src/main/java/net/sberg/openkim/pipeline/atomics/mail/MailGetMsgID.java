@@ -3,6 +3,7 @@ package net.sberg.openkim.pipeline.atomics.mail;
 import jakarta.mail.MessagingException;
 import jakarta.mail.internet.MimeMessage;
 import net.sberg.openkim.pipeline.AtomicInputException;
+import net.sberg.openkim.pipeline.Contract;
 import net.sberg.openkim.pipeline.PipelineOp;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -25,22 +26,24 @@ import java.util.Map;
 
 public class MailGetMsgID extends MailKeys implements PipelineOp {
 
+    static final Contract CONTRACT = new Contract()
+            .requires(MAIL_MIMEMESSAGE_KEY)
+            .optional(MAIL_MESSAGEID_CREATE_IF_NOT_EXISTS_KEY)
+            .produces(MAIL_MESSAGEID_KEY);
+
     Logger logger = LoggerFactory.getLogger(MailGetMsgID.class);
 
+    @Override
+    public Contract contract() {
+        return CONTRACT;
+    }
+
     @SuppressWarnings("unchecked")
     @Override
     public Map<String,Object> execute(Map input) throws MessagingException, AtomicInputException {
 
-        if (input.get(MAIL_MIMEMESSAGE) == null)
-            throw new AtomicInputException("MAIL_MIMEMESSAGE not exist or is null!");
-        if (!(input.get(MAIL_MIMEMESSAGE) instanceof MimeMessage message))
-            throw new AtomicInputException("MAIL_MIMEMESSAGE is not instance of MimeMessage!");
-        if (input.containsKey(MAIL_MESSAGEID_CREATE_IF_NOT_EXISTS) &&
-                !(input.get(MAIL_MESSAGEID_CREATE_IF_NOT_EXISTS) instanceof Boolean))
-            throw new AtomicInputException("MAIL_MESSAGEID_CREATE_IF_NOT_EXISTS is not instance of boolean!");
-
-        boolean createIfNotExists = input.containsKey(MAIL_MESSAGEID_CREATE_IF_NOT_EXISTS)
-                && (Boolean) input.get(MAIL_MESSAGEID_CREATE_IF_NOT_EXISTS);
+        MimeMessage message = MAIL_MIMEMESSAGE_KEY.require(input);
+        boolean createIfNotExists = MAIL_MESSAGEID_CREATE_IF_NOT_EXISTS_KEY.getOrDefault(input, false);
 
         if ( (message.getMessageID() == null || message.getMessageID().isEmpty()) && createIfNotExists ) {
             message.saveChanges();
@@ -1,9 +1,11 @@
 package net.sberg.openkim.pipeline.atomics.mail;
 
+import jakarta.mail.Address;
 import jakarta.mail.Message;
 import jakarta.mail.MessagingException;
 import jakarta.mail.internet.MimeMessage;
 import net.sberg.openkim.pipeline.AtomicInputException;
+import net.sberg.openkim.pipeline.Contract;
 import net.sberg.openkim.pipeline.PipelineOp;
 
 import java.util.ArrayList;
@@ -26,29 +28,36 @@ import java.util.Map;
 
 public class MailGetRecipients extends MailKeys implements PipelineOp {
 
+    static final Contract CONTRACT = new Contract()
+            .requires(MAIL_MIMEMESSAGE_KEY)
+            .optional(MAIL_RECIPIENTS_TYPES_KEY)
+            .produces(MAIL_RECIPIENTS_KEY, MAIL_RECIPIENTS_TYPES_KEY);
+
+    @Override
+    public Contract contract() {
+        return CONTRACT;
+    }
+
     @SuppressWarnings("unchecked")
     @Override
     public Map<String,Object> execute(Map input) throws MessagingException, AtomicInputException {
 
-        if (input.get(MAIL_MIMEMESSAGE) == null)
-            throw new AtomicInputException("MAIL_MIMEMESSAGE not exist or is null!");
-        if (!(input.get(MAIL_MIMEMESSAGE) instanceof MimeMessage message))
-            throw new AtomicInputException("MAIL_MIMEMESSAGE is not instance of MimeMessage!");
-        if (input.get(MAIL_RECIPIENTS_TYPES) != null && ! (input.get(MAIL_RECIPIENTS_TYPES) instanceof List<?>))
-            throw new AtomicInputException("MAIL_RECIPIENTS_TYPES is not instance of List!");
-
-        if (input.get(MAIL_RECIPIENTS_TYPES) == null || ((List<Message.RecipientType>) input.get(MAIL_RECIPIENTS_TYPES)).isEmpty())
-            input.put(MAIL_RECIPIENTS_TYPES, new ArrayList<>() {{ add(Message.RecipientType.TO); }});
+        MimeMessage message = MAIL_MIMEMESSAGE_KEY.require(input);
+        List<Message.RecipientType> types = MAIL_RECIPIENTS_TYPES_KEY.get(input);
 
-        input.put(MAIL_RECIPIENTS, new ArrayList<String>());
-        List<Message.RecipientType> types = (List<Message.RecipientType>) input.get(MAIL_RECIPIENTS_TYPES);
+        if (types == null || types.isEmpty()) {
+            types = new ArrayList<>() {{ add(Message.RecipientType.TO); }};
+            input.put(MAIL_RECIPIENTS_TYPES, types);
+        }
 
+        List<String> recipients = new ArrayList<>();
         for (Message.RecipientType type : types) {
-            if (message.getRecipients(type) != null) {
-                Arrays.stream(message.getRecipients(type)).iterator().forEachRemaining(to ->
-                        ((List<String>) input.get(MAIL_RECIPIENTS)).add(to.toString()));
+            Address[] addresses = message.getRecipients(type);
+            if (addresses != null) {
+                Arrays.stream(addresses).iterator().forEachRemaining(to -> recipients.add(to.toString()));
             }
         }
+        input.put(MAIL_RECIPIENTS, recipients);
         return input;
     }
 }
@@ -2,6 +2,7 @@ package net.sberg.openkim.pipeline.atomics.mail;
 
 import jakarta.mail.*;
 import net.sberg.openkim.pipeline.AtomicInputException;
+import net.sberg.openkim.pipeline.Contract;
 import net.sberg.openkim.pipeline.PipelineOp;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -20,18 +21,22 @@ import java.util.Properties;
 
 public class MailGetSession extends MailKeys implements PipelineOp {
 
+    static final Contract CONTRACT = new Contract()
+            .requires(MAIL_SESSION_PROPS_KEY)
+            .produces(MAIL_SESSION_KEY);
+
+    @Override
+    public Contract contract() {
+        return CONTRACT;
+    }
+
     @SuppressWarnings("unchecked")
     @Override
     public Map<String,Object> execute(Map input) throws MessagingException, AtomicInputException {
 
         Logger logger = LoggerFactory.getLogger(MailGetSession.class);
 
-        if (input.get(MAIL_SESSION_PROPS) == null)
-            throw new AtomicInputException("MAIL_SESSION_PROPS not exist or is null!");
-        if (!(input.get(MAIL_SESSION_PROPS) instanceof Map<?,?>))
-            throw new AtomicInputException("MAIL_SESSION_PROPS is not instance of Map!");
-
-        Map<String,Object> sessionProps = (Map<String, Object>) input.get(MAIL_SESSION_PROPS);
+        Map<String,Object> sessionProps = MAIL_SESSION_PROPS_KEY.require(input);
         Properties props = new Properties(){{ putAll(sessionProps); }};
 
         logger.debug("Properties of Session: {}", props);
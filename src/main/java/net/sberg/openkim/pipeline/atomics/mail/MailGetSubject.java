@@ -1,17 +1,26 @@
 package net.sberg.openkim.pipeline.atomics.mail;
 
 import jakarta.mail.MessagingException;
-import jakarta.mail.internet.MimeMessage;
+import net.sberg.openkim.pipeline.Contract;
 import net.sberg.openkim.pipeline.PipelineOp;
 
 import java.util.Map;
 
 public class MailGetSubject extends MailKeys implements PipelineOp {
 
+    static final Contract CONTRACT = new Contract()
+            .requires(MAIL_MIMEMESSAGE_KEY)
+            .produces(MAIL_SUBJECT_KEY);
+
+    @Override
+    public Contract contract() {
+        return CONTRACT;
+    }
+
     @SuppressWarnings("unchecked")
     @Override
     public Map<String,Object> execute(Map input) throws MessagingException {
-        String subject = ((MimeMessage) input.get(MAIL_MIMEMESSAGE)).getSubject();
+        String subject = MAIL_MIMEMESSAGE_KEY.require(input).getSubject();
         input.put(MAIL_SUBJECT, subject);
         return input;
     }
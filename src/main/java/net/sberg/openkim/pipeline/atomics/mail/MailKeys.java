@@ -1,64 +1,193 @@
 package net.sberg.openkim.pipeline.atomics.mail;
 
+import jakarta.mail.Address;
+import jakarta.mail.Flags;
+import jakarta.mail.Message;
+import jakarta.mail.Session;
+import jakarta.mail.internet.MimeBodyPart;
+import jakarta.mail.internet.MimeMessage;
+import net.sberg.openkim.pipeline.Key;
+import net.sberg.openkim.pipeline.PipelineOp;
+import net.sberg.openkim.pipeline.atomics.mail.stream.MimePartIndex;
+import net.sberg.openkim.pipeline.atomics.mail.stream.MimeStreamPart;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Predicate;
+
+/**
+ * Names of all mail pipeline values. Every String name has a typed {@link Key} counterpart with the suffix
+ * {@code _KEY}, which gives slot indexed access when the atomics run on a
+ * {@link net.sberg.openkim.pipeline.PipelineContext}. Keys typed with {@code Object} carry different
+ * value types depending on the atomic.
+ */
 public class MailKeys {
     public static final String MAIL_MIMEMESSAGE = "mail.mimemessage";
+    public static final Key<MimeMessage> MAIL_MIMEMESSAGE_KEY = Key.of(MAIL_MIMEMESSAGE, MimeMessage.class);
     public static final String MAIL_MESSAGEID = "mail.messageid";
+    public static final Key<String> MAIL_MESSAGEID_KEY = Key.of(MAIL_MESSAGEID, String.class);
     public static final String MAIL_MESSAGEID_CREATE_IF_NOT_EXISTS = "mail.messageid.createifnotexists";
+    public static final Key<Boolean> MAIL_MESSAGEID_CREATE_IF_NOT_EXISTS_KEY = Key.of(MAIL_MESSAGEID_CREATE_IF_NOT_EXISTS, Boolean.class);
     public static final String MAIL_SUBJECT = "mail.subject";
+    public static final Key<String> MAIL_SUBJECT_KEY = Key.of(MAIL_SUBJECT, String.class);
     public static final String MAIL_FILE = "mail.file";
+    public static final Key<File> MAIL_FILE_KEY = Key.of(MAIL_FILE, File.class);
     public static final String MAIL_STREAM = "mail.stream";
+    public static final Key<InputStream> MAIL_STREAM_KEY = Key.of(MAIL_STREAM, InputStream.class);
+    public static final String MAIL_FILE_MODE = "mail.file.mode";
+    public static final Key<MailGetMimeMessage.Mode> MAIL_FILE_MODE_KEY = Key.of(MAIL_FILE_MODE, MailGetMimeMessage.Mode.class);
+    public static final String MAIL_HEADERS_ONLY = "mail.headers.only";
+    public static final Key<Boolean> MAIL_HEADERS_ONLY_KEY = Key.of(MAIL_HEADERS_ONLY, Boolean.class);
+    public static final String MAIL_STREAM_SPILL_THRESHOLD = "mail.stream.spill.threshold";
+    public static final Key<Integer> MAIL_STREAM_SPILL_THRESHOLD_KEY = Key.of(MAIL_STREAM_SPILL_THRESHOLD, Integer.class);
+    public static final String MAIL_STREAM_SPILL_DIR = "mail.stream.spill.dir";
+    public static final Key<String> MAIL_STREAM_SPILL_DIR_KEY = Key.of(MAIL_STREAM_SPILL_DIR, String.class);
+    public static final String MAIL_MIMEMESSAGE_CACHE = "mail.mimemessage.cache";
+    public static final Key<MimeMessageCache> MAIL_MIMEMESSAGE_CACHE_KEY = Key.of(MAIL_MIMEMESSAGE_CACHE, MimeMessageCache.class);
+    public static final String MAIL_BODY_PASSTHROUGH = "mail.body.passthrough";
+    public static final Key<Boolean> MAIL_BODY_PASSTHROUGH_KEY = Key.of(MAIL_BODY_PASSTHROUGH, Boolean.class);
     public static final String MAIL_HEADER = "mail.header";
+    public static final Key<Object> MAIL_HEADER_KEY = Key.of(MAIL_HEADER, Object.class);
     public static final String MAIL_HEADER_NAMES = "mail.header.names";
+    public static final Key<List<String>> MAIL_HEADER_NAMES_KEY = Key.of(MAIL_HEADER_NAMES, List.class);
+    public static final String MAIL_HEADER_MATCHER = "mail.header.matcher";
+    public static final Key<HeaderMatcher> MAIL_HEADER_MATCHER_KEY = Key.of(MAIL_HEADER_MATCHER, HeaderMatcher.class);
     public static final String MAIL_FROM = "mail.from";
+    public static final Key<Object> MAIL_FROM_KEY = Key.of(MAIL_FROM, Object.class);
     public static final String MAIL_RECIPIENTS = "mail.recipients";
+    public static final Key<List<String>> MAIL_RECIPIENTS_KEY = Key.of(MAIL_RECIPIENTS, List.class);
     public static final String MAIL_RECIPIENTS_TYPES = "mail.recipients.types";
+    public static final Key<List<Message.RecipientType>> MAIL_RECIPIENTS_TYPES_KEY = Key.of(MAIL_RECIPIENTS_TYPES, List.class);
     public static final String MAIL_GETMESSAGES = "mail.getmessages";
+    public static final Key<List<MimeMessage>> MAIL_GETMESSAGES_KEY = Key.of(MAIL_GETMESSAGES, List.class);
     public static final String MAIL_GETMESSAGES_USER = "mail.getmessages.user";
+    public static final Key<String> MAIL_GETMESSAGES_USER_KEY = Key.of(MAIL_GETMESSAGES_USER, String.class);
     public static final String MAIL_GETMESSAGES_PASSWORD = "mail.getmessages.password";
+    public static final Key<String> MAIL_GETMESSAGES_PASSWORD_KEY = Key.of(MAIL_GETMESSAGES_PASSWORD, String.class);
     public static final String MAIL_GETMESSAGES_FOLDER = "mail.getmessages.folder";
+    public static final Key<String> MAIL_GETMESSAGES_FOLDER_KEY = Key.of(MAIL_GETMESSAGES_FOLDER, String.class);
     public static final String MAIL_GETMESSAGES_FOLDERMODE = "mail.getmessages.foldermode";
+    public static final Key<Integer> MAIL_GETMESSAGES_FOLDERMODE_KEY = Key.of(MAIL_GETMESSAGES_FOLDERMODE, Integer.class);
     public static final String MAIL_GETMESSAGES_EXPUNGE = "mail.getmessages.expunge";
+    public static final Key<Boolean> MAIL_GETMESSAGES_EXPUNGE_KEY = Key.of(MAIL_GETMESSAGES_EXPUNGE, Boolean.class);
     public static final String MAIL_GETMESSAGES_FLAGS = "mail.getmessages.flags";
+    public static final Key<List<Flags.Flag>> MAIL_GETMESSAGES_FLAGS_KEY = Key.of(MAIL_GETMESSAGES_FLAGS, List.class);
     public static final String MAIL_GETMESSAGES_POP3IDS = "mail.getmessages.pop3ids";
+    public static final Key<List<String>> MAIL_GETMESSAGES_POP3IDS_KEY = Key.of(MAIL_GETMESSAGES_POP3IDS, List.class);
     public static final String MAIL_SESSION = "mail.session";
+    public static final Key<Session> MAIL_SESSION_KEY = Key.of(MAIL_SESSION, Session.class);
     public static final String MAIL_SESSION_PROPS = "mail.session.props";
+    public static final Key<Map<String,Object>> MAIL_SESSION_PROPS_KEY = Key.of(MAIL_SESSION_PROPS, Map.class);
 
     // MailSendMessage parameter
     public static final String MAIL_SENDMESSAGE_USER = "mail.sendmessage.user";
+    public static final Key<String> MAIL_SENDMESSAGE_USER_KEY = Key.of(MAIL_SENDMESSAGE_USER, String.class);
     public static final String MAIL_SENDMESSAGE_PASSWORD = "mail.sendmessage.password";
+    public static final Key<String> MAIL_SENDMESSAGE_PASSWORD_KEY = Key.of(MAIL_SENDMESSAGE_PASSWORD, String.class);
     public static final String MAIL_SENDMESSAGE_ADDRESSES = "mail.sendmessage.addresses";
+    public static final Key<Address[]> MAIL_SENDMESSAGE_ADDRESSES_KEY = Key.of(MAIL_SENDMESSAGE_ADDRESSES, Address[].class);
 
     // ReplaceRecipients parameter
     public static final String MAIL_REPLACERECIPIENTS = "mail.replacerecipients";
+    public static final Key<Map<String,String>> MAIL_REPLACERECIPIENTS_KEY = Key.of(MAIL_REPLACERECIPIENTS, Map.class);
     public static final String MAIL_REPLACERECIPIENTS_COUNT = "mail.replacerecipients.count";
+    public static final Key<Integer> MAIL_REPLACERECIPIENTS_COUNT_KEY = Key.of(MAIL_REPLACERECIPIENTS_COUNT, Integer.class);
+    public static final String MAIL_REPLACERECIPIENTS_RULES = "mail.replacerecipients.rules";
+    public static final Key<RecipientRewriter> MAIL_REPLACERECIPIENTS_RULES_KEY = Key.of(MAIL_REPLACERECIPIENTS_RULES, RecipientRewriter.class);
+    public static final String MAIL_REPLACERECIPIENTS_HITS = "mail.replacerecipients.hits";
+    public static final Key<Map<String,Integer>> MAIL_REPLACERECIPIENTS_HITS_KEY = Key.of(MAIL_REPLACERECIPIENTS_HITS, Map.class);
 
     // MimeBodyParts
     public static final String MAIL_MIMEBODYPARTS = "mail.mimebodyparts";
+    public static final Key<List<MimeBodyPart>> MAIL_MIMEBODYPARTS_KEY = Key.of(MAIL_MIMEBODYPARTS, List.class);
+
+    // StreamRemoveMimeBodyParts
+    public static final String MAIL_STREAMREMOVEMIMEBODYPARTS_FILTER = "mail.streamremovemimebodyparts.filter";
+    public static final Key<Predicate<MimeStreamPart>> MAIL_STREAMREMOVEMIMEBODYPARTS_FILTER_KEY = Key.of(MAIL_STREAMREMOVEMIMEBODYPARTS_FILTER, Predicate.class);
+    public static final String MAIL_STREAMREMOVEMIMEBODYPARTS_OUTPUT = "mail.streamremovemimebodyparts.output";
+    public static final Key<OutputStream> MAIL_STREAMREMOVEMIMEBODYPARTS_OUTPUT_KEY = Key.of(MAIL_STREAMREMOVEMIMEBODYPARTS_OUTPUT, OutputStream.class);
+    public static final String MAIL_STREAMREMOVEMIMEBODYPARTS_REMOVED = "mail.streamremovemimebodyparts.removed";
+    public static final Key<List<MimeStreamPart>> MAIL_STREAMREMOVEMIMEBODYPARTS_REMOVED_KEY = Key.of(MAIL_STREAMREMOVEMIMEBODYPARTS_REMOVED, List.class);
 
     // AddMimeBodyParts
     public static final String MAIL_ADDMIMEBODYPARTS = "mail.addmimebodyparts";
+    public static final Key<List<?>> MAIL_ADDMIMEBODYPARTS_KEY = Key.of(MAIL_ADDMIMEBODYPARTS, List.class);
 
     // GetMimeBodyParts
     public static final String MAIL_GETMIMEBODYPARTS_FILTER_SIZEGREATERTHEN = "mail.getmimebodyparts.filter.sizegreaterthen";
+    public static final Key<Integer> MAIL_GETMIMEBODYPARTS_FILTER_SIZEGREATERTHEN_KEY = Key.of(MAIL_GETMIMEBODYPARTS_FILTER_SIZEGREATERTHEN, Integer.class);
     public static final String MAIL_GETMIMEBODYPARTS_FILTER_DISPO = "mail.getmimebodyparts.filter.dispo";
+    public static final Key<String> MAIL_GETMIMEBODYPARTS_FILTER_DISPO_KEY = Key.of(MAIL_GETMIMEBODYPARTS_FILTER_DISPO, String.class);
+    public static final String MAIL_GETMIMEBODYPARTS_FILTER = "mail.getmimebodyparts.filter";
+    public static final Key<PartFilter> MAIL_GETMIMEBODYPARTS_FILTER_KEY = Key.of(MAIL_GETMIMEBODYPARTS_FILTER, PartFilter.class);
+    public static final String MAIL_GETMIMEBODYPARTS_LIMIT = "mail.getmimebodyparts.limit";
+    public static final Key<Integer> MAIL_GETMIMEBODYPARTS_LIMIT_KEY = Key.of(MAIL_GETMIMEBODYPARTS_LIMIT, Integer.class);
+    public static final String MAIL_MIMEPARTINDEX = "mail.mimepartindex";
+    public static final Key<MimePartIndex> MAIL_MIMEPARTINDEX_KEY = Key.of(MAIL_MIMEPARTINDEX, MimePartIndex.class);
 
     // SetAddRecipients
     public static final String MAIL_SETADDRECIPIENTS = "mail.setaddrecipients";
+    public static final Key<Map<Message.RecipientType,String>> MAIL_SETADDRECIPIENTS_KEY = Key.of(MAIL_SETADDRECIPIENTS, Map.class);
     public static final String MAIL_SETADDRECIPIENTS_ADD = "mail.setaddrecipients.add";
+    public static final Key<Boolean> MAIL_SETADDRECIPIENTS_ADD_KEY = Key.of(MAIL_SETADDRECIPIENTS_ADD, Boolean.class);
 
     // SaveAttachmentFile
     public static final String MAIL_SAVEATTACHMENTFILE_BASEDIR = "mail.saveattachmentfile.basedir";
+    public static final Key<String> MAIL_SAVEATTACHMENTFILE_BASEDIR_KEY = Key.of(MAIL_SAVEATTACHMENTFILE_BASEDIR, String.class);
     public static final String MAIL_SAVEATTACHMENTFILE_SAVEDFILES = "mail.saveattachmentfile.savedfiles";
+    public static final Key<List<String>> MAIL_SAVEATTACHMENTFILE_SAVEDFILES_KEY = Key.of(MAIL_SAVEATTACHMENTFILE_SAVEDFILES, List.class);
+    public static final String MAIL_SAVEATTACHMENTFILE_PARALLELISM = "mail.saveattachmentfile.parallelism";
+    public static final Key<Integer> MAIL_SAVEATTACHMENTFILE_PARALLELISM_KEY = Key.of(MAIL_SAVEATTACHMENTFILE_PARALLELISM, Integer.class);
+    public static final String MAIL_SAVEATTACHMENTFILE_EXECUTOR = "mail.saveattachmentfile.executor";
+    public static final Key<ExecutorService> MAIL_SAVEATTACHMENTFILE_EXECUTOR_KEY = Key.of(MAIL_SAVEATTACHMENTFILE_EXECUTOR, ExecutorService.class);
+    public static final String MAIL_SAVEATTACHMENTFILE_WRITTEN = "mail.saveattachmentfile.written";
+    public static final Key<List<SavedAttachmentFile>> MAIL_SAVEATTACHMENTFILE_WRITTEN_KEY = Key.of(MAIL_SAVEATTACHMENTFILE_WRITTEN, List.class);
+    public static final String MAIL_SAVEATTACHMENTFILE_CONTENTADDRESSED = "mail.saveattachmentfile.contentaddressed";
+    public static final Key<Boolean> MAIL_SAVEATTACHMENTFILE_CONTENTADDRESSED_KEY = Key.of(MAIL_SAVEATTACHMENTFILE_CONTENTADDRESSED, Boolean.class);
+    public static final String MAIL_SAVEATTACHMENTFILE_STOREDFILES = "mail.saveattachmentfile.storedfiles";
+    public static final Key<List<StoredAttachmentFile>> MAIL_SAVEATTACHMENTFILE_STOREDFILES_KEY = Key.of(MAIL_SAVEATTACHMENTFILE_STOREDFILES, List.class);
 
     // ModTextBody
     public static final String MAIL_MODTEXTBODY_PLAIN = "mail.modtextbody.plain";
+    public static final Key<String> MAIL_MODTEXTBODY_PLAIN_KEY = Key.of(MAIL_MODTEXTBODY_PLAIN, String.class);
     public static final String MAIL_MODTEXTBODY_HTML = "mail.modtextbody.html";
+    public static final Key<String> MAIL_MODTEXTBODY_HTML_KEY = Key.of(MAIL_MODTEXTBODY_HTML, String.class);
     public static final String MAIL_MODTEXTBODY_TYPE = "mail.modtextbody.type";
+    public static final Key<MailModTextBody.Type> MAIL_MODTEXTBODY_TYPE_KEY = Key.of(MAIL_MODTEXTBODY_TYPE, MailModTextBody.Type.class);
+
+    // RenderTemplate
+    public static final String MAIL_TEMPLATE_PLAIN = "mail.template.plain";
+    public static final Key<Object> MAIL_TEMPLATE_PLAIN_KEY = Key.of(MAIL_TEMPLATE_PLAIN, Object.class);
+    public static final String MAIL_TEMPLATE_HTML = "mail.template.html";
+    public static final Key<Object> MAIL_TEMPLATE_HTML_KEY = Key.of(MAIL_TEMPLATE_HTML, Object.class);
+
+    // PatchHeaders
+    public static final String MAIL_PATCHHEADERS = "mail.patchheaders";
+    public static final Key<HeaderPatch> MAIL_PATCHHEADERS_KEY = Key.of(MAIL_PATCHHEADERS, HeaderPatch.class);
 
     // Fetch message header from POP3 folder
     public static final String MAIL_POP3FETCHMSGINFO = "mail.pop3fetchmsginfo";
+    public static final Key<List<MessageHeadInfo>> MAIL_POP3FETCHMSGINFO_KEY = Key.of(MAIL_POP3FETCHMSGINFO, List.class);
+
+    // ForEachMessage
+    public static final String MAIL_FOREACH_PIPELINE = "mail.foreach.pipeline";
+    public static final Key<PipelineOp> MAIL_FOREACH_PIPELINE_KEY = Key.of(MAIL_FOREACH_PIPELINE, PipelineOp.class);
+    public static final String MAIL_FOREACH_PARALLELISM = "mail.foreach.parallelism";
+    public static final Key<Integer> MAIL_FOREACH_PARALLELISM_KEY = Key.of(MAIL_FOREACH_PARALLELISM, Integer.class);
+    public static final String MAIL_FOREACH_EXECUTOR = "mail.foreach.executor";
+    public static final Key<ExecutorService> MAIL_FOREACH_EXECUTOR_KEY = Key.of(MAIL_FOREACH_EXECUTOR, ExecutorService.class);
+    public static final String MAIL_FOREACH_RESULTS = "mail.foreach.results";
+    public static final Key<List<Map<String,Object>>> MAIL_FOREACH_RESULTS_KEY = Key.of(MAIL_FOREACH_RESULTS, List.class);
+    public static final String MAIL_FOREACH_ERRORS = "mail.foreach.errors";
+    public static final Key<Map<Integer,Exception>> MAIL_FOREACH_ERRORS_KEY = Key.of(MAIL_FOREACH_ERRORS, Map.class);
 
     // Delete pop3 message by pop3 uid
     public static final String MAIL_POP3DELETEMESSAGES = "mail.pop3deletemessages";
+    public static final Key<List<?>> MAIL_POP3DELETEMESSAGES_KEY = Key.of(MAIL_POP3DELETEMESSAGES, List.class);
     public static final String MAIL_POP3DELETEMESSAGES_DELCOUNT = "mail.pop3deletemessages.delcount";
+    public static final Key<Integer> MAIL_POP3DELETEMESSAGES_DELCOUNT_KEY = Key.of(MAIL_POP3DELETEMESSAGES_DELCOUNT, Integer.class);
 }
@@ -6,9 +6,8 @@ import jakarta.mail.Multipart;
 import jakarta.mail.internet.MimeMessage;
 import jakarta.mail.internet.MimeUtility;
 import net.sberg.openkim.pipeline.AtomicInputException;
+import net.sberg.openkim.pipeline.Contract;
 import net.sberg.openkim.pipeline.PipelineOp;
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -17,40 +16,47 @@ import java.util.Map;
 
 /**
  * Atomic MailModTextBody.
- * If no MimeBodyPart is found, the MAIL_MIMEBODYPARTS will be empty.
+ * Appends text to or replaces the text of the plain and html text bodies.
+ * HTML is appended before {@code </body>} (or {@code </html>}, or at the end) and REPLACE replaces the content of
+ * the {@code body} element, the head of the document is kept. The HTML is not parsed, only the body tags are located.
  * A {@code Map<String,Object>} will be used for input / output information transport.
  * @Input   key: {@code MAIL_MIMEMESSAGE}<br>
  *          value: MimeMessage [{@code jakarta.mail.internet.MimeMessage}]<br>
- * @Output  key: {@code MAIL_MIMEBODYPARTS}<br>
- *          value: MimeBodyPartList [{@code List<jakarta.mail.internet.MimeBodyPart>}]
+ *          key: {@code MAIL_MODTEXTBODY_TYPE}<br>
+ *          value: APPEND or REPLACE [{@code MailModTextBody.Type}]<br>
+ *          key: {@code MAIL_MODTEXTBODY_PLAIN}<br>
+ *          value: Text for text/plain bodies [{@code String}]<br>
+ *          optional: default -> null (plain bodies unchanged)<br>
+ *          key: {@code MAIL_MODTEXTBODY_HTML}<br>
+ *          value: HTML for text/html bodies [{@code String}]<br>
+ *          optional: default -> null (html bodies unchanged)
+ * @Output  all input values, the MimeMessage is modified
  */
 
 public class MailModTextBody extends MailKeys implements PipelineOp {
 
+    static final Contract CONTRACT = new Contract()
+            .requires(MAIL_MIMEMESSAGE_KEY, MAIL_MODTEXTBODY_TYPE_KEY)
+            .optional(MAIL_MODTEXTBODY_PLAIN_KEY, MAIL_MODTEXTBODY_HTML_KEY);
+
     Logger logger = LoggerFactory.getLogger(MailModTextBody.class);
 
+    @Override
+    public Contract contract() {
+        return CONTRACT;
+    }
+
     @SuppressWarnings("unchecked")
     @Override
     public Map<String,Object> execute(Map input)
             throws IOException, MessagingException, AtomicInputException {
 
-        if (input.get(MAIL_MIMEMESSAGE) == null)
-            throw new AtomicInputException("MAIL_MIMEMESSAGE not exist or is null!");
-        if (!(input.get(MAIL_MIMEMESSAGE) instanceof MimeMessage message))
-            throw new AtomicInputException("MAIL_MIMEMESSAGE is not instance of MimeMessage!");
-        if (input.get(MAIL_MODTEXTBODY_HTML) == null && input.get(MAIL_MODTEXTBODY_PLAIN) == null)
+        MimeMessage message = MAIL_MIMEMESSAGE_KEY.require(input);
+        String modTextBodyPlain = MAIL_MODTEXTBODY_PLAIN_KEY.get(input);
+        String modTextBodyHtml = MAIL_MODTEXTBODY_HTML_KEY.get(input);
+        if (modTextBodyHtml == null && modTextBodyPlain == null)
             throw new AtomicInputException("MAIL_MODTEXTBODY (plain or html) not exist or is null!");
-        if (input.get(MAIL_MODTEXTBODY_TYPE) == null)
-            throw new AtomicInputException("MAIL_MODTEXTBODY not exist or is null!");
-        if (!(input.get(MAIL_MODTEXTBODY_TYPE) instanceof Type modTextBodytype))
-            throw new AtomicInputException("MAIL_MODTEXTBODY_TYPE is not instance of MailModTextBody.Type!");
-
-        String modTextBodyPlain = input.containsKey(MAIL_MODTEXTBODY_PLAIN)
-                ? (String) input.get(MAIL_MODTEXTBODY_PLAIN)
-                : null;
-        String modTextBodyHtml = input.containsKey(MAIL_MODTEXTBODY_HTML)
-                ? (String) input.get(MAIL_MODTEXTBODY_HTML)
-                : null;
+        Type modTextBodytype = MAIL_MODTEXTBODY_TYPE_KEY.require(input);
 
         if (message.getContentType().contains("multipart")){
             Multipart multipart = (Multipart) message.getContent();
@@ -78,10 +84,9 @@ public class MailModTextBody extends MailKeys implements PipelineOp {
 
     private String modifyBodyText(String bodyText, String contentType, String modTextBodyPlain, String modTextBodyHtml, Type modTextBodytype)
             throws IOException {
-        StringBuilder decodedBodyText = new StringBuilder(MimeUtility.decodeText(bodyText));
         if (contentType.contains("text/plain") && modTextBodyPlain != null){
             if (modTextBodytype.equals(Type.APPEND)){
-                bodyText = decodedBodyText.append(modTextBodyPlain).toString();
+                bodyText = MimeUtility.decodeText(bodyText).concat(modTextBodyPlain);
             }
             if (modTextBodytype.equals(Type.REPLACE)){
                 bodyText = MimeUtility.decodeText(modTextBodyPlain);
@@ -89,12 +94,10 @@ public class MailModTextBody extends MailKeys implements PipelineOp {
         }
         if (contentType.contains("text/html") && modTextBodyHtml != null){
             if (modTextBodytype.equals(Type.APPEND)){
-                Document document = Jsoup.parse(decodedBodyText.toString());
-                document.body().append(modTextBodyHtml);
-                bodyText = document.html();
+                bodyText = HtmlSplicer.append(MimeUtility.decodeText(bodyText), modTextBodyHtml);
             }
             if (modTextBodytype.equals(Type.REPLACE)){
-                logger.warn("Not implemented jet");
+                bodyText = HtmlSplicer.replaceBody(MimeUtility.decodeText(bodyText), modTextBodyHtml);
             }
         }
         return bodyText;
@@ -0,0 +1,45 @@
+package net.sberg.openkim.pipeline.atomics.mail;
+
+import jakarta.mail.MessagingException;
+import jakarta.mail.internet.MimeMessage;
+import net.sberg.openkim.pipeline.AtomicInputException;
+import net.sberg.openkim.pipeline.Contract;
+import net.sberg.openkim.pipeline.PipelineOp;
+
+import java.util.Map;
+
+/**
+ * Atomic MailPatchHeaders applies an ordered list of add / set / remove header operations to a MimeMessage.
+ * The operations are folded per header name by the {@link HeaderPatch}, every header is touched once instead of
+ * scanning the header list per operation as {@link MailAddHeader}, {@link MailSetHeader} and {@link MailSetSubject}
+ * do. Headers without operation keep their position and raw line.
+ * A {@code Map<String,Object>} will be used for input / output information transport.
+ * @Input   key: {@code MAIL_PATCHHEADERS}<br>
+ *          value: HeaderOperations [{@code HeaderPatch}] <br>
+ *          key: {@code MAIL_MIMEMESSAGE}<br>
+ *          value: MimeMessage [{@code jakarta.mail.internet.MimeMessage}]
+ * @Output  all inputs
+ */
+
+public class MailPatchHeaders extends MailKeys implements PipelineOp {
+
+    static final Contract CONTRACT = new Contract()
+            .requires(MAIL_MIMEMESSAGE_KEY, MAIL_PATCHHEADERS_KEY);
+
+    @Override
+    public Contract contract() {
+        return CONTRACT;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    @Override
+    public Map<String,Object> execute(Map input) throws MessagingException, AtomicInputException {
+
+        MimeMessage message = MAIL_MIMEMESSAGE_KEY.require(input);
+        HeaderPatch patch = MAIL_PATCHHEADERS_KEY.require(input);
+
+        patch.apply(message);
+
+        return input;
+    }
+}
@@ -2,6 +2,7 @@ package net.sberg.openkim.pipeline.atomics.mail;
 
 import jakarta.mail.*;
 import net.sberg.openkim.pipeline.AtomicInputException;
+import net.sberg.openkim.pipeline.Contract;
 import net.sberg.openkim.pipeline.PipelineOp;
 import org.eclipse.angus.mail.pop3.POP3Folder;
 import org.eclipse.angus.mail.pop3.POP3Store;
@@ -29,35 +30,32 @@ import java.util.Map;
 
 public class MailPop3DeleteMessages extends MailKeys implements PipelineOp {
 
+    static final Contract CONTRACT = new Contract()
+            .requires(MAIL_SESSION_KEY, MAIL_GETMESSAGES_USER_KEY, MAIL_GETMESSAGES_PASSWORD_KEY, MAIL_POP3DELETEMESSAGES_KEY)
+            .produces(MAIL_POP3DELETEMESSAGES_DELCOUNT_KEY);
+
     Logger logger = LoggerFactory.getLogger(MailPop3DeleteMessages.class);
 
+    @Override
+    public Contract contract() {
+        return CONTRACT;
+    }
+
     @SuppressWarnings({"rawtypes", "unchecked"})
     @Override
     public Map<String,Object> execute(Map input) throws MessagingException, AtomicInputException {
 
-        if (input.get(MAIL_SESSION) == null)
-            throw new AtomicInputException("MAIL_SESSION not exist or is null!");
-        if (!(input.get(MAIL_SESSION) instanceof Session session))
-            throw new AtomicInputException("MAIL_SESSION is not instance of Session!");
-        if (input.get(MAIL_GETMESSAGES_USER) == null)
-            throw new AtomicInputException("MAIL_GETMESSAGES_USER not exist or is null!");
-        if (!(input.get(MAIL_GETMESSAGES_USER) instanceof String user))
-            throw new AtomicInputException("MAIL_GETMESSAGES_USER is not instance of Session!");
-        if (input.get(MAIL_GETMESSAGES_PASSWORD) == null)
-            throw new AtomicInputException("MAIL_GETMESSAGES_PASSWORD not exist or is null!");
-        if (!(input.get(MAIL_GETMESSAGES_PASSWORD) instanceof String password))
-            throw new AtomicInputException("MAIL_GETMESSAGES_PASSWORD is not instance of Session!");
-        if (input.get(MAIL_POP3DELETEMESSAGES) == null)
-            throw new AtomicInputException("MAIL_POP3DELETEMESSAGES not exist or is null!");
-        if (!(input.get(MAIL_POP3DELETEMESSAGES) instanceof List<?>))
-            throw new AtomicInputException("MAIL_POP3DELETEMESSAGES is not instance of List!");
+        Session session = MAIL_SESSION_KEY.require(input);
+        String user = MAIL_GETMESSAGES_USER_KEY.require(input);
+        String password = MAIL_GETMESSAGES_PASSWORD_KEY.require(input);
+        List<?> uids = MAIL_POP3DELETEMESSAGES_KEY.require(input);
 
         POP3Store store = null;
         POP3Folder folder = null;
         List<String> delPop3Uids = new ArrayList<>();
         int msgDeleteCount = 0;
 
-        ((List<?>) input.get(MAIL_POP3DELETEMESSAGES)).forEach(object -> {
+        uids.forEach(object -> {
             if (! (object instanceof String) ) {
                 throw new AtomicInputException("MAIL_POP3DELETEMESSAGES elements not instance of String!");
             }
@@ -3,6 +3,7 @@ package net.sberg.openkim.pipeline.atomics.mail;
 import jakarta.mail.*;
 import jakarta.mail.internet.MimeMessage;
 import net.sberg.openkim.pipeline.AtomicInputException;
+import net.sberg.openkim.pipeline.Contract;
 import net.sberg.openkim.pipeline.PipelineOp;
 import org.eclipse.angus.mail.pop3.POP3Folder;
 import org.eclipse.angus.mail.pop3.POP3Store;
@@ -42,44 +43,49 @@ import java.util.Map;
 
 public class MailPop3GetMessages extends MailKeys implements PipelineOp {
 
+    static final Contract CONTRACT = new Contract()
+            .requires(MAIL_SESSION_KEY, MAIL_GETMESSAGES_USER_KEY, MAIL_GETMESSAGES_PASSWORD_KEY)
+            .optional(MAIL_GETMESSAGES_FOLDER_KEY, MAIL_GETMESSAGES_FOLDERMODE_KEY,
+                    MAIL_GETMESSAGES_EXPUNGE_KEY, MAIL_GETMESSAGES_FLAGS_KEY, MAIL_GETMESSAGES_POP3IDS_KEY)
+            .produces(MAIL_GETMESSAGES_KEY);
+
     Logger logger = LoggerFactory.getLogger(MailPop3GetMessages.class);
 
+    @Override
+    public Contract contract() {
+        return CONTRACT;
+    }
+
     @SuppressWarnings({"unchecked", "rawtypes"})
     @Override
     public Map<String,Object> execute(Map input) throws MessagingException, AtomicInputException {
 
-        if (input.get(MAIL_SESSION) == null)
-            throw new AtomicInputException("MAIL_SESSION not exist or is null!");
-        if (!(input.get(MAIL_SESSION) instanceof Session session))
-            throw new AtomicInputException("MAIL_SESSION is not instance of Session!");
-        if (input.get(MAIL_GETMESSAGES_USER) == null)
-            throw new AtomicInputException("MAIL_GETMESSAGES_USER not exist or is null!");
-        if (!(input.get(MAIL_GETMESSAGES_USER) instanceof String user))
-            throw new AtomicInputException("MAIL_GETMESSAGES_USER is not instance of Session!");
-        if (input.get(MAIL_GETMESSAGES_PASSWORD) == null)
-            throw new AtomicInputException("MAIL_GETMESSAGES_PASSWORD not exist or is null!");
-        if (!(input.get(MAIL_GETMESSAGES_PASSWORD) instanceof String password))
-            throw new AtomicInputException("MAIL_GETMESSAGES_PASSWORD is not instance of Session!");
-
-        if (! input.containsValue(MAIL_GETMESSAGES_FOLDERMODE))
+        Session session = MAIL_SESSION_KEY.require(input);
+        String user = MAIL_GETMESSAGES_USER_KEY.require(input);
+        String password = MAIL_GETMESSAGES_PASSWORD_KEY.require(input);
+
+        if (! MAIL_GETMESSAGES_FOLDERMODE_KEY.isPresent(input))
             input.put(MAIL_GETMESSAGES_FOLDERMODE, POP3Folder.READ_WRITE);
 
-        if (! input.containsKey(MAIL_GETMESSAGES_FOLDER))
+        if (! MAIL_GETMESSAGES_FOLDER_KEY.isPresent(input))
             input.put(MAIL_GETMESSAGES_FOLDER, "INBOX");
 
-        if (! input.containsKey(MAIL_GETMESSAGES_EXPUNGE))
+        if (! MAIL_GETMESSAGES_EXPUNGE_KEY.isPresent(input))
             input.put(MAIL_GETMESSAGES_EXPUNGE, true);
 
-        if (! input.containsKey(MAIL_GETMESSAGES_FLAGS))
+        if (! MAIL_GETMESSAGES_FLAGS_KEY.isPresent(input))
             input.put(MAIL_GETMESSAGES_FLAGS, new ArrayList<Flags.Flag>());
 
-        if (! input.containsKey(MAIL_GETMESSAGES_POP3IDS))
+        if (! MAIL_GETMESSAGES_POP3IDS_KEY.isPresent(input))
             input.put(MAIL_GETMESSAGES_POP3IDS, new ArrayList<String>());
 
 
         String protocol = session.getProperty("mail.store.protocol");
-        List<Flags.Flag> flags = (List<Flags.Flag>)input.get(MAIL_GETMESSAGES_FLAGS);
-        List<String> pop3Uids = (List<String>)input.get(MAIL_GETMESSAGES_POP3IDS);
+        String folderName = MAIL_GETMESSAGES_FOLDER_KEY.require(input);
+        int folderMode = MAIL_GETMESSAGES_FOLDERMODE_KEY.require(input);
+        boolean expunge = MAIL_GETMESSAGES_EXPUNGE_KEY.require(input);
+        List<Flags.Flag> flags = MAIL_GETMESSAGES_FLAGS_KEY.require(input);
+        List<String> pop3Uids = MAIL_GETMESSAGES_POP3IDS_KEY.require(input);
 
         POP3Store store = null;
         POP3Folder folder = null;
@@ -89,13 +95,13 @@ public class MailPop3GetMessages extends MailKeys implements PipelineOp {
             store = (POP3Store)session.getStore(protocol);
             store.connect(user,password);
 
-            folder = (POP3Folder)store.getFolder((String)input.get(MAIL_GETMESSAGES_FOLDER));
-            folder.open((int)input.get(MAIL_GETMESSAGES_FOLDERMODE));
+            folder = (POP3Folder)store.getFolder(folderName);
+            folder.open(folderMode);
 
             Message[] messages = folder.getMessages();
 
             logger.info("Mail {} read folder: {} by {} - {} messages found",protocol,
-                    input.get(MAIL_GETMESSAGES_FOLDER), user, messages.length);
+                    folderName, user, messages.length);
             if (!pop3Uids.isEmpty()){
                 logger.debug("Messages getting by Pop3UID filter: {}", pop3Uids);
             }
@@ -113,7 +119,7 @@ public class MailPop3GetMessages extends MailKeys implements PipelineOp {
         } finally {
             try {
                 if (folder != null && folder.isOpen())
-                    folder.close((boolean)input.get(MAIL_GETMESSAGES_EXPUNGE));
+                    folder.close(expunge);
                 if (store != null) {
                     store.close();
                 }
@@ -5,6 +5,8 @@ import jakarta.mail.Multipart;
 import jakarta.mail.internet.MimeBodyPart;
 import jakarta.mail.internet.MimeMessage;
 import net.sberg.openkim.pipeline.AtomicInputException;
+import net.sberg.openkim.pipeline.Contract;
+import net.sberg.openkim.pipeline.PipelineContext;
 import net.sberg.openkim.pipeline.PipelineOp;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -25,30 +27,33 @@ import java.util.Map;
 
 public class MailRemoveMimeBodyParts extends MailKeys implements PipelineOp {
 
+    static final Contract CONTRACT = new Contract()
+            .requires(MAIL_MIMEMESSAGE_KEY, MAIL_MIMEBODYPARTS_KEY);
+
     Logger logger = LoggerFactory.getLogger(MailRemoveMimeBodyParts.class);
 
+    @Override
+    public Contract contract() {
+        return CONTRACT;
+    }
+
     @SuppressWarnings({"unchecked", "rawtypes"})
     @Override
     public Map<String,Object> execute(Map input)
             throws IOException, MessagingException, AtomicInputException {
 
-        if (input.get(MAIL_MIMEMESSAGE) == null)
-            throw new AtomicInputException("MAIL_MIMEMESSAGE not exist or is null!");
-        if (!(input.get(MAIL_MIMEMESSAGE) instanceof MimeMessage message))
-            throw new AtomicInputException("MAIL_MIMEMESSAGE is not instance of MimeMessage!");
-        if (input.get(MAIL_MIMEBODYPARTS) == null)
-            throw new AtomicInputException("MAIL_MIMEBODYPARTS not exist or is null!");
-        if (!(input.get(MAIL_MIMEBODYPARTS) instanceof List<?>))
-            throw new AtomicInputException("MAIL_MIMEBODYPARTS is not instance of List!");
+        MimeMessage message = MAIL_MIMEMESSAGE_KEY.require(input);
+        List<MimeBodyPart> parts = MAIL_MIMEBODYPARTS_KEY.require(input);
 
-        ((List) input.get(MAIL_MIMEBODYPARTS)).forEach(object -> {
-            if (! (object instanceof MimeBodyPart) ) {
-                throw new AtomicInputException("MAIL_MIMEBODYPARTS elements not instance of MimeBodyPart!");
-            }
-        });
+        if (!PipelineContext.isTrusted(input)) {
+            ((List<?>) parts).forEach(object -> {
+                if (! (object instanceof MimeBodyPart) ) {
+                    throw new AtomicInputException("MAIL_MIMEBODYPARTS elements not instance of MimeBodyPart!");
+                }
+            });
+        }
 
         if (message.getContentType().contains("multipart")) {
-            List<MimeBodyPart> parts = (List<MimeBodyPart>) input.get(MAIL_MIMEBODYPARTS);
             Multipart multiPartMessage = (Multipart) message.getContent();
 
             logger.debug("Removing {} MimeBodyParts", parts.size());
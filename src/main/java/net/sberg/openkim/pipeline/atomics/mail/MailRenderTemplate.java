@@ -0,0 +1,83 @@
+package net.sberg.openkim.pipeline.atomics.mail;
+
+import jakarta.mail.MessagingException;
+import net.sberg.openkim.pipeline.AtomicInputException;
+import net.sberg.openkim.pipeline.Contract;
+import net.sberg.openkim.pipeline.PipelineOp;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+
+/**
+ * Atomic MailRenderTemplate renders a plain and / or html {@link MailTemplate} with the values of the pipeline,
+ * e.g. a footer with sender, Message-ID and date, and puts the text as input for {@link MailModTextBody}.
+ * A template given as String is compiled once and cached, so a pipeline that is built for every message does not
+ * parse the same template again.
+ * A {@code Map<String,Object>} will be used for input / output information transport.
+ * @Input   key: {@code MAIL_TEMPLATE_PLAIN}<br>
+ *          value: MailTemplate compiled as plain or String [{@code MailTemplate}, {@code String}]<br>
+ *          optional: default -> null<br>
+ *          key: {@code MAIL_TEMPLATE_HTML}<br>
+ *          value: MailTemplate compiled as html or String, values are HTML escaped [{@code MailTemplate}, {@code String}]<br>
+ *          optional: default -> null<br>
+ *          key: {@code MAIL_MIMEMESSAGE}<br>
+ *          value: MimeMessage [{@code jakarta.mail.internet.MimeMessage}]<br>
+ *          optional: needed for {@code ${header:Name}} placeholders
+ * @Output  all input values and <br>
+ *          key: {@code MAIL_MODTEXTBODY_PLAIN}<br>
+ *          value: the rendered plain template [{@code String}]<br>
+ *          key: {@code MAIL_MODTEXTBODY_HTML}<br>
+ *          value: the rendered html template [{@code String}]
+ */
+
+public class MailRenderTemplate extends MailKeys implements PipelineOp {
+
+    static final Contract CONTRACT = new Contract()
+            .optional(MAIL_TEMPLATE_PLAIN_KEY, MAIL_TEMPLATE_HTML_KEY, MAIL_MIMEMESSAGE_KEY)
+            .produces(MAIL_MODTEXTBODY_PLAIN_KEY, MAIL_MODTEXTBODY_HTML_KEY);
+
+    Logger logger = LoggerFactory.getLogger(MailRenderTemplate.class);
+
+    @Override
+    public Contract contract() {
+        return CONTRACT;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    @Override
+    public Map<String,Object> execute(Map input) throws MessagingException, AtomicInputException {
+
+        MailTemplate plain = template(MAIL_TEMPLATE_PLAIN_KEY.get(input), false, "MAIL_TEMPLATE_PLAIN");
+        MailTemplate html = template(MAIL_TEMPLATE_HTML_KEY.get(input), true, "MAIL_TEMPLATE_HTML");
+        if (plain == null && html == null)
+            throw new AtomicInputException("MAIL_TEMPLATE (plain or html) not exist or is null!");
+
+        if (plain != null) {
+            logger.debug("Render plain template");
+            input.put(MAIL_MODTEXTBODY_PLAIN, plain.render(input));
+        }
+        if (html != null) {
+            logger.debug("Render html template");
+            input.put(MAIL_MODTEXTBODY_HTML, html.render(input));
+        }
+        return input;
+    }
+
+    private static MailTemplate template(Object value, boolean html, String label) throws AtomicInputException {
+        if (value == null)
+            return null;
+        if (value instanceof MailTemplate template) {
+            if (template.isHtml() != html)
+                throw new AtomicInputException(label + " is a " + (html ? "plain" : "html") + " MailTemplate!");
+            return template;
+        }
+        if (!(value instanceof String text))
+            throw new AtomicInputException(label + " is not instance of MailTemplate or String!");
+        try {
+            return MailTemplate.cached(text, html);
+        } catch (IllegalArgumentException e) {
+            throw new AtomicInputException(label + " is invalid: " + e.getMessage());
+        }
+    }
+}
@@ -1,22 +1,24 @@
 package net.sberg.openkim.pipeline.atomics.mail;
 
-import jakarta.mail.Address;
 import jakarta.mail.Message;
 import jakarta.mail.MessagingException;
 import jakarta.mail.internet.AddressException;
-import jakarta.mail.internet.InternetAddress;
 import jakarta.mail.internet.MimeMessage;
 import net.sberg.openkim.pipeline.AtomicInputException;
+import net.sberg.openkim.pipeline.Contract;
 import net.sberg.openkim.pipeline.PipelineOp;
 
-import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Atomic MailReplaceRecipients replace recipients. Will replace all addresses of given MailRecipientList (key -> find, value -> replace).
  * Recipient types to be searched can be set via MAIL_RECIPIENTS_TYPES. Count of all replacements will be fined in MAIL_REPLACERECIPIENTS_COUNT.
+ * The replacements are compiled into a {@link RecipientRewriter} that finds the first matching rule of an address with
+ * one scan. MAIL_REPLACERECIPIENTS is compiled on every call, rules used for many messages should be compiled once
+ * with {@link RecipientRewriter#compile(Map)} and given as MAIL_REPLACERECIPIENTS_RULES. Every recipient header is
+ * read and set at most once.
  * A {@code Map<String,Object>} will be used for input / output information transport.
  * @Input  key: {@code MAIL_MIMEMESSAGE} <br>
  *         value: MimeMessage [{@code jakarta.mail.internet.MimeMessage}]<br>
@@ -24,55 +26,55 @@ import java.util.concurrent.atomic.AtomicReference;
  *         value: MailRecipientList [{@code List<Message.RecipientType>}] <br>
  *         key: {@code MAIL_REPLACERECIPIENTS}<br>
  *         value: MailReplacements [{@code Map<String,String>}] <br>
+ *         optional: if MAIL_REPLACERECIPIENTS_RULES is set<br>
+ *         key: {@code MAIL_REPLACERECIPIENTS_RULES}<br>
+ *         value: compiled MailReplacements [{@code RecipientRewriter}] <br>
+ *         optional: default -> compiled from MAIL_REPLACERECIPIENTS
  * @Output all Inputs and<br>
  *          key: {@code MAIL_REPLACERECIPIENTS_COUNT}<br>
- *          value: replacementCount [{@code Integer}]
+ *          value: replacementCount [{@code Integer}]<br>
+ *          key: {@code MAIL_REPLACERECIPIENTS_HITS}<br>
+ *          value: replacements per find String of this message [{@code Map<String,Integer>}]
  */
 
 public class MailReplaceRecipients extends MailKeys implements PipelineOp {
 
+    static final Contract CONTRACT = new Contract()
+            .requires(MAIL_MIMEMESSAGE_KEY, MAIL_RECIPIENTS_TYPES_KEY)
+            .optional(MAIL_REPLACERECIPIENTS_KEY, MAIL_REPLACERECIPIENTS_RULES_KEY)
+            .produces(MAIL_REPLACERECIPIENTS_COUNT_KEY, MAIL_REPLACERECIPIENTS_HITS_KEY);
+
+    @Override
+    public Contract contract() {
+        return CONTRACT;
+    }
+
     @SuppressWarnings("unchecked")
     @Override
     public Map<String,Object> execute(Map input) throws MessagingException, AtomicInputException {
 
-        if (input.get(MAIL_MIMEMESSAGE) == null)
-            throw new AtomicInputException("MAIL_MIMEMESSAGE not exist or is null!");
-        if (!(input.get(MAIL_MIMEMESSAGE) instanceof MimeMessage message))
-            throw new AtomicInputException("MAIL_MIMEMESSAGE is not instance of MimeMessage!");
-        if (input.get(MAIL_RECIPIENTS_TYPES) == null)
-            throw new AtomicInputException("MAIL_RECIPIENTS_TYPES not exist or is null!");
-        if (! (input.get(MAIL_RECIPIENTS_TYPES) instanceof List<?>))
-            throw new AtomicInputException("MAIL_RECIPIENTS_TYPES is not instance of List!");
-        if (input.get(MAIL_REPLACERECIPIENTS) == null)
-            throw new AtomicInputException("MAIL_REPLACERECIPIENTS not exist or is null!");
-        if (! (input.get(MAIL_REPLACERECIPIENTS) instanceof Map<?,?>))
-            throw new AtomicInputException("MAIL_RECIPIENTS_TYPES is not instance of Map!");
+        MimeMessage message = MAIL_MIMEMESSAGE_KEY.require(input);
+        List<Message.RecipientType> types = MAIL_RECIPIENTS_TYPES_KEY.require(input);
+        RecipientRewriter rewriter = MAIL_REPLACERECIPIENTS_RULES_KEY.get(input);
+        if (rewriter == null) {
+            Map<String, String> replacements = MAIL_REPLACERECIPIENTS_KEY.get(input);
+            if (replacements == null)
+                throw new AtomicInputException("MAIL_REPLACERECIPIENTS or MAIL_REPLACERECIPIENTS_RULES not exist or is null!");
+            rewriter = compile(replacements);
+        }
 
-        List<Message.RecipientType> types = (List<Message.RecipientType>) input.get(MAIL_RECIPIENTS_TYPES);
-        Map<String, String> replacements = (Map<String, String>) input.get(MAIL_REPLACERECIPIENTS);
-        AtomicReference<Integer> replaceCount = new AtomicReference<>(0);
+        Map<String, Integer> hits = new HashMap<>();
+        int replaceCount = rewriter.rewrite(message, types, hits);
+        input.put(MAIL_REPLACERECIPIENTS_COUNT, replaceCount);
+        input.put(MAIL_REPLACERECIPIENTS_HITS, hits);
+        return input;
+    }
 
-        for (Message.RecipientType type : types) {
-            for (Map.Entry<String, String> entry : replacements.entrySet()) {
-                String find = entry.getKey();
-                String replace = entry.getValue();
-                if (message.getRecipients(type) != null) {
-                    List<Address> addresses = new ArrayList<>(List.of(message.getRecipients(type)));
-                    addresses.replaceAll(address -> {
-                        if (address.toString().toLowerCase().contains(find.toLowerCase())) {
-                            try {
-                                address = new InternetAddress(replace);
-                                replaceCount.getAndSet(replaceCount.get() + 1);
-                            }
-                            catch (AddressException e) { throw new RuntimeException(e); }
-                        }
-                        return address;
-                    });
-                    message.setRecipients(type, addresses.toArray(new Address[0]));
-                }
-            }
+    private RecipientRewriter compile(Map<String, String> replacements) throws AtomicInputException {
+        try {
+            return RecipientRewriter.compile(replacements);
+        } catch (AddressException e) {
+            throw new AtomicInputException("MAIL_REPLACERECIPIENTS contains an invalid address: " + e.getMessage());
         }
-        input.put(MAIL_REPLACERECIPIENTS_COUNT, replaceCount.get());
-        return input;
     }
 }
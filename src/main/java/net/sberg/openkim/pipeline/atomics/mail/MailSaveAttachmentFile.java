@@ -3,70 +3,334 @@ package net.sberg.openkim.pipeline.atomics.mail;
 import jakarta.mail.MessagingException;
 import jakarta.mail.internet.MimeBodyPart;
 import net.sberg.openkim.pipeline.AtomicInputException;
+import net.sberg.openkim.pipeline.Contract;
+import net.sberg.openkim.pipeline.PipelineContext;
 import net.sberg.openkim.pipeline.PipelineOp;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
 
 /**
  * Atomic MailSaveAttachmentFile.
+ * Saves the parts with disposition attachment and a file name, directory components of the file name are removed so
+ * a file is never written outside the base directory. The decoded content is streamed into a temp file
+ * in the target directory with a {@link FileChannel} and then atomically renamed, so a file either does not exist
+ * or is complete. Several attachments are written in parallel, attachments with the same file name are written
+ * one after another in list order, the last one wins.
+ * In content addressed mode the SHA-256 of the content is computed while it is written and the file is stored as
+ * {@code baseDir/ab/cd/abcd...} named by its hash. An attachment whose content is already stored is not kept again,
+ * all messages with the same attachment reference the one stored file.
  * A {@code Map<String,Object>} will be used for input / output information transport.
  * @Input   key: {@code MAIL_MIMEBODYPARTS}<br>
  *          value: MimeBodyPartList [{@code List<jakarta.mail.internet.MimeBodyPart>}]<br>
  *          key: {@code MAIL_SAVEATTACHMENTFILE_BASEDIR}<br>
- *          value: SaveBaseDir [{@code String}]
+ *          value: SaveBaseDir [{@code String}]<br>
+ *          key: {@code MAIL_SAVEATTACHMENTFILE_PARALLELISM}<br>
+ *          value: Maximum number of files written at the same time, 1 writes in the calling thread [{@code Integer}]<br>
+ *          optional: default -> number of processors<br>
+ *          key: {@code MAIL_SAVEATTACHMENTFILE_EXECUTOR}<br>
+ *          value: Executor for the writes [{@code java.util.concurrent.ExecutorService}]<br>
+ *          optional: default -> one virtual thread per file, the given executor is not shut down<br>
+ *          key: {@code MAIL_SAVEATTACHMENTFILE_CONTENTADDRESSED}<br>
+ *          value: Store files by content hash [{@code Boolean}]<br>
+ *          optional: default -> false
  * @Output  all input values and <br>
  *          key: {@code MAIL_SAVEATTACHMENTFILE_SAVEDFILES}<br>
- *          value: SavedFileList [{@code List<String>}]
+ *          value: SavedFileList, the stored paths in content addressed mode [{@code List<String>}]<br>
+ *          key: {@code MAIL_SAVEATTACHMENTFILE_STOREDFILES}<br>
+ *          value: Original file name and stored path per attachment in list order, only in content addressed mode [{@code List<StoredAttachmentFile>}]<br>
+ *          key: {@code MAIL_SAVEATTACHMENTFILE_WRITTEN}<br>
+ *          value: Bytes and time per written file [{@code List<SavedAttachmentFile>}]
  */
 
 public class MailSaveAttachmentFile extends MailKeys implements PipelineOp {
 
+    static final Contract CONTRACT = new Contract()
+            .requires(MAIL_MIMEBODYPARTS_KEY, MAIL_SAVEATTACHMENTFILE_BASEDIR_KEY)
+            .optional(MAIL_SAVEATTACHMENTFILE_PARALLELISM_KEY, MAIL_SAVEATTACHMENTFILE_EXECUTOR_KEY,
+                    MAIL_SAVEATTACHMENTFILE_CONTENTADDRESSED_KEY)
+            .produces(MAIL_SAVEATTACHMENTFILE_SAVEDFILES_KEY, MAIL_SAVEATTACHMENTFILE_WRITTEN_KEY,
+                    MAIL_SAVEATTACHMENTFILE_STOREDFILES_KEY);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
     Logger logger = LoggerFactory.getLogger(MailSaveAttachmentFile.class);
 
+    @Override
+    public Contract contract() {
+        return CONTRACT;
+    }
+
     @SuppressWarnings({"unchecked", "rawtypes"})
     @Override
     public Map<String,Object> execute(Map input)
             throws IOException, MessagingException, AtomicInputException {
 
-        if (input.get(MAIL_MIMEBODYPARTS) == null)
-            throw new AtomicInputException("MAIL_MIMEBODYPARTS not exist or is null!");
-        if (!(input.get(MAIL_MIMEBODYPARTS) instanceof List<?>))
-            throw new AtomicInputException("MAIL_MIMEBODYPARTS is not instance of List!");
-        if (input.get(MAIL_SAVEATTACHMENTFILE_BASEDIR) == null)
-            throw new AtomicInputException("MAIL_SAVEATTACHMENTFILE_BASEDIR not exist or is null!");
-        if (!(input.get(MAIL_SAVEATTACHMENTFILE_BASEDIR) instanceof String baseDir))
-            throw new AtomicInputException("MAIL_SAVEATTACHMENTFILE_BASEDIR is not instance of String!");
-
-        ((List<?>) input.get(MAIL_MIMEBODYPARTS)).forEach(object -> {
-            if (! (object instanceof MimeBodyPart) ) {
-                throw new AtomicInputException("MAIL_MIMEBODYPARTS elements not instance of MimeBodyPart!");
-            }
-        });
+        List<MimeBodyPart> parts = MAIL_MIMEBODYPARTS_KEY.require(input);
+        String baseDir = MAIL_SAVEATTACHMENTFILE_BASEDIR_KEY.require(input);
+        int parallelism = MAIL_SAVEATTACHMENTFILE_PARALLELISM_KEY.getOrDefault(input, Runtime.getRuntime().availableProcessors());
+        ExecutorService executor = MAIL_SAVEATTACHMENTFILE_EXECUTOR_KEY.get(input);
+        boolean contentAddressed = MAIL_SAVEATTACHMENTFILE_CONTENTADDRESSED_KEY.getOrDefault(input, false);
+
+        if (!PipelineContext.isTrusted(input)) {
+            ((List<?>) parts).forEach(object -> {
+                if (! (object instanceof MimeBodyPart) ) {
+                    throw new AtomicInputException("MAIL_MIMEBODYPARTS elements not instance of MimeBodyPart!");
+                }
+            });
+        }
 
         if (! new File(baseDir).exists())
             throw new AtomicInputException("MAIL_SAVEATTACHMENTFILE_BASEDIR "+baseDir+" not exist!");
+        if (parallelism < 1)
+            throw new AtomicInputException("MAIL_SAVEATTACHMENTFILE_PARALLELISM must be greater than 0!");
 
-        List<MimeBodyPart> parts = (List<MimeBodyPart>) input.get(MAIL_MIMEBODYPARTS);
         List<String> savedFiles = new ArrayList<>();
+        List<String> fileNames = new ArrayList<>();
+        Map<String, List<MimeBodyPart>> partsByFile = new LinkedHashMap<>();
+        List<WriteTask> tasks = new ArrayList<>();
 
         for (MimeBodyPart part : parts) {
             if (part.getDisposition() != null
                     && part.getDisposition().equalsIgnoreCase(MimeBodyPart.ATTACHMENT)
                     && part.getFileName() != null) {
-                String fullFile = baseDir + File.separator + part.getFileName();
-                logger.debug("Save attachment file: {}", fullFile);
-                part.saveFile(fullFile);
-                savedFiles.add(fullFile);
+                if (contentAddressed) {
+                    fileNames.add(part.getFileName());
+                    tasks.add(() -> List.of(store(baseDir, part)));
+                } else {
+                    String fileName = fileName(part.getFileName());
+                    if (fileName == null)
+                        continue;
+                    String fullFile = baseDir + File.separator + fileName;
+                    savedFiles.add(fullFile);
+                    partsByFile.computeIfAbsent(fullFile, file -> new ArrayList<>()).add(part);
+                }
+            }
+        }
+        partsByFile.forEach((fullFile, fileParts) -> tasks.add(() -> write(fullFile, fileParts)));
+
+        List<SavedAttachmentFile> written;
+        if (parallelism == 1 || tasks.size() <= 1)
+            written = runAll(tasks);
+        else if (executor != null)
+            written = runAll(tasks, parallelism, executor);
+        else {
+            try (ExecutorService virtualThreads = Executors.newVirtualThreadPerTaskExecutor()) {
+                written = runAll(tasks, parallelism, virtualThreads);
             }
         }
 
+        if (contentAddressed) {
+            List<StoredAttachmentFile> storedFiles = new ArrayList<>(written.size());
+            for (int i = 0; i < written.size(); i++) {
+                savedFiles.add(written.get(i).file());
+                storedFiles.add(new StoredAttachmentFile(fileNames.get(i), written.get(i).file()));
+            }
+            input.put(MAIL_SAVEATTACHMENTFILE_STOREDFILES, storedFiles);
+        }
         input.put(MAIL_SAVEATTACHMENTFILE_SAVEDFILES, savedFiles);
+        input.put(MAIL_SAVEATTACHMENTFILE_WRITTEN, written);
         return input;
     }
+
+    /**
+     * @return the file name without directory components, null if nothing usable is left
+     */
+    static String fileName(String fileName) {
+        if (fileName == null)
+            return null;
+        String name = fileName.substring(Math.max(fileName.lastIndexOf('/'), fileName.lastIndexOf('\\')) + 1).trim();
+        return name.isEmpty() || name.equals(".") || name.equals("..") ? null : name;
+    }
+
+    /**
+     * Writes one or more files.
+     */
+    private interface WriteTask {
+        List<SavedAttachmentFile> run() throws IOException, MessagingException;
+    }
+
+    private List<SavedAttachmentFile> runAll(List<WriteTask> tasks) throws IOException, MessagingException {
+        List<SavedAttachmentFile> written = new ArrayList<>();
+        for (WriteTask task : tasks) {
+            written.addAll(task.run());
+        }
+        return written;
+    }
+
+    private List<SavedAttachmentFile> runAll(List<WriteTask> tasks, int parallelism, ExecutorService executor)
+            throws IOException, MessagingException {
+        Semaphore permits = new Semaphore(parallelism);
+        List<Future<List<SavedAttachmentFile>>> futures = new ArrayList<>(tasks.size());
+        try {
+            for (WriteTask task : tasks) {
+                permits.acquire();
+                try {
+                    futures.add(executor.submit(() -> {
+                        try {
+                            return task.run();
+                        } finally {
+                            permits.release();
+                        }
+                    }));
+                } catch (RejectedExecutionException e) {
+                    permits.release();
+                    throw e;
+                }
+            }
+
+            List<SavedAttachmentFile> written = new ArrayList<>();
+            Exception failure = null;
+            for (Future<List<SavedAttachmentFile>> future : futures) {
+                try {
+                    written.addAll(future.get());
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof Error error)
+                        throw error;
+                    if (failure == null)
+                        failure = (Exception) e.getCause();
+                    else
+                        failure.addSuppressed(e.getCause());
+                }
+            }
+            if (failure instanceof IOException e)
+                throw e;
+            if (failure instanceof MessagingException e)
+                throw e;
+            if (failure != null)
+                throw (RuntimeException) failure;
+            return written;
+        } catch (InterruptedException e) {
+            futures.forEach(future -> future.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Saving attachment files interrupted");
+        }
+    }
+
+    private List<SavedAttachmentFile> write(String fullFile, List<MimeBodyPart> parts)
+            throws IOException, MessagingException {
+        List<SavedAttachmentFile> written = new ArrayList<>(parts.size());
+        for (MimeBodyPart part : parts) {
+            written.add(write(fullFile, part));
+        }
+        return written;
+    }
+
+    private SavedAttachmentFile write(String fullFile, MimeBodyPart part) throws IOException, MessagingException {
+        long start = System.nanoTime();
+        Path target = Path.of(fullFile).toAbsolutePath();
+        Path temp = tempFile(target.getParent());
+        long bytes;
+        try {
+            bytes = copy(part, temp, null);
+            move(temp, target);
+        } catch (IOException | MessagingException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        long nanos = System.nanoTime() - start;
+        logger.debug("Save attachment file: {} ({} bytes in {} ms)", fullFile, bytes, nanos / 1_000_000);
+        return new SavedAttachmentFile(fullFile, bytes, nanos);
+    }
+
+    /**
+     * Streams the part into a temp file while its SHA-256 is computed and moves it to
+     * {@code baseDir/ab/cd/abcd...}. If the content is already stored, the temp file is dropped.
+     */
+    private SavedAttachmentFile store(String baseDir, MimeBodyPart part) throws IOException, MessagingException {
+        long start = System.nanoTime();
+        Path base = Path.of(baseDir).toAbsolutePath();
+        Path temp = tempFile(base);
+        MessageDigest digest = sha256();
+        long bytes;
+        Path target;
+        boolean stored;
+        try {
+            bytes = copy(part, temp, digest);
+            String hash = HexFormat.of().formatHex(digest.digest());
+            target = base.resolve(hash.substring(0, 2)).resolve(hash.substring(2, 4)).resolve(hash);
+            stored = !Files.exists(target);
+            if (stored) {
+                Files.createDirectories(target.getParent());
+                move(temp, target);
+            } else {
+                Files.delete(temp);
+            }
+        } catch (IOException | MessagingException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        long nanos = System.nanoTime() - start;
+        logger.debug("Store attachment file: {} as {} ({} bytes in {} ms, {})", part.getFileName(), target, bytes,
+                nanos / 1_000_000, stored ? "stored" : "already stored");
+        return new SavedAttachmentFile(target.toString(), bytes, nanos);
+    }
+
+    /**
+     * A temp file in the directory of the target, so the move is a rename. It is created with default
+     * permissions like the target, a temp file of Files.createTempFile is owner only.
+     */
+    private static Path tempFile(Path dir) {
+        return dir.resolve(".openkim-" + UUID.randomUUID() + ".part");
+    }
+
+    private static long copy(MimeBodyPart part, Path file, MessageDigest digest) throws IOException, MessagingException {
+        long bytes = 0;
+        try (InputStream in = part.getInputStream();
+             FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                if (digest != null)
+                    digest.update(buffer, 0, read);
+                ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, read);
+                while (chunk.hasRemaining()) {
+                    channel.write(chunk);
+                }
+                bytes += read;
+            }
+        }
+        return bytes;
+    }
+
+    private static void move(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
 }
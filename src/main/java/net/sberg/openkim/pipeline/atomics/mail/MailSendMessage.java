@@ -5,6 +5,7 @@ import jakarta.mail.MessagingException;
 import jakarta.mail.Transport;
 import jakarta.mail.internet.MimeMessage;
 import net.sberg.openkim.pipeline.AtomicInputException;
+import net.sberg.openkim.pipeline.Contract;
 import net.sberg.openkim.pipeline.PipelineOp;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -33,20 +34,27 @@ import java.util.Map;
 
 public class MailSendMessage extends MailKeys implements PipelineOp {
 
+    static final Contract CONTRACT = new Contract()
+            .requires(MAIL_MIMEMESSAGE_KEY)
+            .optional(MAIL_SENDMESSAGE_ADDRESSES_KEY, MAIL_SENDMESSAGE_USER_KEY, MAIL_SENDMESSAGE_PASSWORD_KEY);
+
     Logger logger = LoggerFactory.getLogger(MailSendMessage.class);
 
+    @Override
+    public Contract contract() {
+        return CONTRACT;
+    }
+
     @SuppressWarnings({"unchecked","rawtypes"})
     @Override
     public Map<String,Object> execute(Map input) throws AtomicInputException, IOException, MessagingException {
 
-        if (input.get(MAIL_MIMEMESSAGE) == null)
-            throw new AtomicInputException("MAIL_MIMEMESSAGE not exist or is null!");
-        if (!(input.get(MAIL_MIMEMESSAGE) instanceof MimeMessage message))
-            throw new AtomicInputException("MAIL_MIMEMESSAGE is not instance of MimeMessage!");
-        if (input.containsKey(MAIL_SENDMESSAGE_ADDRESSES)) {
-            if (!(input.get(MAIL_SENDMESSAGE_ADDRESSES) instanceof Address[]))
+        MimeMessage message = MAIL_MIMEMESSAGE_KEY.require(input);
+        Address[] addresses = MAIL_SENDMESSAGE_ADDRESSES_KEY.get(input);
+        if (MAIL_SENDMESSAGE_ADDRESSES_KEY.isPresent(input)) {
+            if (addresses == null)
                 throw new AtomicInputException("MAIL_SENDMESSAGE_ADDRESSES is not instance of Address[]!");
-            if (((Address[]) input.get(MAIL_SENDMESSAGE_ADDRESSES)).length == 0)
+            if (addresses.length == 0)
                 throw new AtomicInputException("MAIL_SENDMESSAGE_ADDRESSES are empty!");
         }
 
@@ -55,11 +63,8 @@ public class MailSendMessage extends MailKeys implements PipelineOp {
         if (message.getSession().getProperty("mail.smtp.host") == null)
             throw new AtomicInputException("mail.smtp.host not set in MimeMessage Session!");
 
-        String user = (String) input.get(MAIL_SENDMESSAGE_USER);
-        String password = (String) input.get(MAIL_SENDMESSAGE_PASSWORD);
-        Address[] addresses = input.containsKey(MAIL_SENDMESSAGE_ADDRESSES)
-                ? (Address[]) input.get(MAIL_SENDMESSAGE_ADDRESSES)
-                : null;
+        String user = MAIL_SENDMESSAGE_USER_KEY.get(input);
+        String password = MAIL_SENDMESSAGE_PASSWORD_KEY.get(input);
 
         if (user == null || password == null || user.isBlank() || password.isBlank()) {
             logger.debug("Sending message without user and password!");
@@ -5,6 +5,8 @@ import jakarta.mail.MessagingException;
 import jakarta.mail.internet.InternetAddress;
 import jakarta.mail.internet.MimeMessage;
 import net.sberg.openkim.pipeline.AtomicInputException;
+import net.sberg.openkim.pipeline.Contract;
+import net.sberg.openkim.pipeline.PipelineContext;
 import net.sberg.openkim.pipeline.PipelineOp;
 
 import java.util.Map;
@@ -27,28 +29,30 @@ import java.util.Map;
 
 public class MailSetAddRecipients extends MailKeys implements PipelineOp {
 
+    static final Contract CONTRACT = new Contract()
+            .requires(MAIL_MIMEMESSAGE_KEY, MAIL_SETADDRECIPIENTS_KEY)
+            .optional(MAIL_SETADDRECIPIENTS_ADD_KEY);
+
+    @Override
+    public Contract contract() {
+        return CONTRACT;
+    }
+
     @SuppressWarnings({"unchecked", "rawtypes"})
     @Override
     public Map<String,Object> execute(Map input) throws MessagingException, AtomicInputException {
 
-        if (input.get(MAIL_MIMEMESSAGE) == null)
-            throw new AtomicInputException("MAIL_MIMEMESSAGE not exist or is null!");
-        if (!(input.get(MAIL_MIMEMESSAGE) instanceof MimeMessage message))
-            throw new AtomicInputException("MAIL_MIMEMESSAGE is not instance of MimeMessage!");
-        if (input.get(MAIL_SETADDRECIPIENTS) == null)
-            throw new AtomicInputException("MAIL_SETRECIPIENTS not exist or is null!");
-        if (!(input.get(MAIL_SETADDRECIPIENTS) instanceof Map<?,?>))
-            throw new AtomicInputException("MAIL_SETRECIPIENTS is not instance of Map");
-
-        ((Map)input.get(MAIL_SETADDRECIPIENTS)).forEach((k, v) -> {
-            if (! (k instanceof Message.RecipientType) || ! (v instanceof String))
-                throw new AtomicInputException("Map is not of type Map<Message.RecipientType, String>!");
-        });
-
-        Map<Message.RecipientType,String> recipients = (Map<Message.RecipientType, String>) input.get(MAIL_SETADDRECIPIENTS);
-        boolean add = false;
-        if (input.containsKey(MAIL_SETADDRECIPIENTS_ADD))
-            add = (boolean) input.get(MAIL_SETADDRECIPIENTS_ADD);
+        MimeMessage message = MAIL_MIMEMESSAGE_KEY.require(input);
+        Map<Message.RecipientType,String> recipients = MAIL_SETADDRECIPIENTS_KEY.require(input);
+
+        if (!PipelineContext.isTrusted(input)) {
+            ((Map<?,?>) recipients).forEach((k, v) -> {
+                if (! (k instanceof Message.RecipientType) || ! (v instanceof String))
+                    throw new AtomicInputException("Map is not of type Map<Message.RecipientType, String>!");
+            });
+        }
+
+        boolean add = MAIL_SETADDRECIPIENTS_ADD_KEY.getOrDefault(input, false);
 
         for (Map.Entry<Message.RecipientType,String> entry : recipients.entrySet()) {
             if (add)
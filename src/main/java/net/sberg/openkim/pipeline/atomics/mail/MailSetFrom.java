@@ -4,6 +4,7 @@ import jakarta.mail.MessagingException;
 import jakarta.mail.internet.InternetAddress;
 import jakarta.mail.internet.MimeMessage;
 import net.sberg.openkim.pipeline.AtomicInputException;
+import net.sberg.openkim.pipeline.Contract;
 import net.sberg.openkim.pipeline.PipelineOp;
 
 import java.util.Map;
@@ -22,20 +23,23 @@ import java.util.Map;
 
 public class MailSetFrom extends MailKeys implements PipelineOp {
 
+    static final Contract CONTRACT = new Contract()
+            .requires(MAIL_MIMEMESSAGE_KEY, MAIL_FROM_KEY);
+
+    @Override
+    public Contract contract() {
+        return CONTRACT;
+    }
+
     @SuppressWarnings({"unchecked", "rawtypes"})
     @Override
     public Map<String,Object> execute(Map input) throws MessagingException, AtomicInputException {
 
-        if (input.get(MAIL_MIMEMESSAGE) == null)
-            throw new AtomicInputException("MAIL_MIMEMESSAGE not exist or is null!");
-        if (input.get(MAIL_FROM) == null)
-            throw new AtomicInputException("MAIL_FROM not exist or is null!");
-        if (!(input.get(MAIL_MIMEMESSAGE) instanceof MimeMessage mimeMessage))
-            throw new AtomicInputException("MAIL_MIMEMESSAGE is not instance of MimeMessage!");
-        if (!(input.get(MAIL_FROM) instanceof String))
+        MimeMessage mimeMessage = MAIL_MIMEMESSAGE_KEY.require(input);
+        if (!(MAIL_FROM_KEY.require(input) instanceof String from))
             throw new AtomicInputException("MAIL_FROM is not instance of String!");
 
-        InternetAddress address = new InternetAddress((String) input.get(MAIL_FROM), true);
+        InternetAddress address = new InternetAddress(from, true);
         mimeMessage.setFrom(address);
         return input;
     }
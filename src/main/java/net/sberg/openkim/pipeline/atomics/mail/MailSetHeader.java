@@ -4,6 +4,7 @@ import jakarta.mail.Header;
 import jakarta.mail.MessagingException;
 import jakarta.mail.internet.MimeMessage;
 import net.sberg.openkim.pipeline.AtomicInputException;
+import net.sberg.openkim.pipeline.Contract;
 import net.sberg.openkim.pipeline.PipelineOp;
 
 import java.util.List;
@@ -22,20 +23,23 @@ import java.util.Map;
 
 public class MailSetHeader extends MailKeys implements PipelineOp {
 
+    static final Contract CONTRACT = new Contract()
+            .requires(MAIL_MIMEMESSAGE_KEY, MAIL_HEADER_KEY);
+
+    @Override
+    public Contract contract() {
+        return CONTRACT;
+    }
+
     @SuppressWarnings({"unchecked", "rawtypes"})
     @Override
     public Map<String,Object> execute(Map input) throws MessagingException, AtomicInputException {
 
-        if (input.get(MAIL_MIMEMESSAGE) == null)
-            throw new AtomicInputException("MAIL_MIMEMESSAGE not exist or is null!");
-        if (input.get(MAIL_HEADER) == null)
-            throw new AtomicInputException("MAIL_HEADER not exist or is null!");
-        if (!(input.get(MAIL_MIMEMESSAGE) instanceof MimeMessage message))
-            throw new AtomicInputException("MAIL_MIMEMESSAGE is not instance of MimeMessage!");
-        if (!(input.get(MAIL_HEADER) instanceof List<?>))
+        MimeMessage message = MAIL_MIMEMESSAGE_KEY.require(input);
+        if (!(MAIL_HEADER_KEY.require(input) instanceof List<?> headers))
             throw new AtomicInputException("MAIL_HEADER is not instance of List!");
 
-        List<Header> headerList = (List<Header>) input.get(MAIL_HEADER);
+        List<Header> headerList = (List<Header>) headers;
         for (Header header : headerList) {
             message.setHeader(header.getName(), header.getValue());
         }
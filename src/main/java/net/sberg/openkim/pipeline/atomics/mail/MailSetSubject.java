@@ -3,6 +3,7 @@ package net.sberg.openkim.pipeline.atomics.mail;
 import jakarta.mail.MessagingException;
 import jakarta.mail.internet.MimeMessage;
 import net.sberg.openkim.pipeline.AtomicInputException;
+import net.sberg.openkim.pipeline.Contract;
 import net.sberg.openkim.pipeline.PipelineOp;
 
 import java.util.Map;
@@ -20,20 +21,22 @@ import java.util.Map;
 
 public class MailSetSubject extends MailKeys implements PipelineOp {
 
+    static final Contract CONTRACT = new Contract()
+            .requires(MAIL_MIMEMESSAGE_KEY, MAIL_SUBJECT_KEY);
+
+    @Override
+    public Contract contract() {
+        return CONTRACT;
+    }
+
     @SuppressWarnings({"unchecked", "rawtypes"})
     @Override
     public Map<String,Object> execute(Map input) throws MessagingException {
 
-        if (input.get(MAIL_MIMEMESSAGE) == null)
-            throw new AtomicInputException("MAIL_MIMEMESSAGE not exist or is null!");
-        if (!(input.get(MAIL_MIMEMESSAGE) instanceof MimeMessage message))
-            throw new AtomicInputException("MAIL_MIMEMESSAGE is not instance of MimeMessage!");
-        if (input.get(MAIL_SUBJECT) == null)
-            throw new AtomicInputException("MAIL_SETSUBJECT not exist or is null!");
-        if (!(input.get(MAIL_SUBJECT) instanceof String))
-            throw new AtomicInputException("MAIL_SETSUBJECT is not instance of String!");
+        MimeMessage message = MAIL_MIMEMESSAGE_KEY.require(input);
+        String subject = MAIL_SUBJECT_KEY.require(input);
 
-        message.setSubject((String) input.get(MAIL_SUBJECT));
+        message.setSubject(subject);
 
         return input;
     }
@@ -0,0 +1,82 @@
+package net.sberg.openkim.pipeline.atomics.mail;
+
+import net.sberg.openkim.pipeline.AtomicInputException;
+import net.sberg.openkim.pipeline.Contract;
+import net.sberg.openkim.pipeline.PipelineOp;
+import net.sberg.openkim.pipeline.atomics.mail.stream.MimeStreamPart;
+import net.sberg.openkim.pipeline.atomics.mail.stream.MimeStreamRewriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Atomic MailStreamRemoveMimeBodyParts copies a mail File or InputStream to an OutputStream without the parts that
+ * match a filter, at any depth. Unlike {@link MailRemoveMimeBodyParts} no MimeMessage is built and the message is
+ * not re-serialized: the {@link MimeStreamRewriter} copies the raw bytes and drops the matching parts with their
+ * boundaries, so memory stays constant for any message size.
+ * A {@code Map<String,Object>} will be used for input / output information transport.
+ * @Input   key: {@code MAIL_FILE}<br>
+ *          value: File [{@code java.io.File}] <br>
+ *          optional: default -> null<br>
+ *          key: [{@code  MAIL_STREAM}]<br>
+ *          value: InputStream, read to its end and not closed [{@code java.io.InputStream}]<br>
+ *          optional: used if MAIL_FILE is not set<br>
+ *          key: {@code MAIL_STREAMREMOVEMIMEBODYPARTS_FILTER}<br>
+ *          value: true for the parts to remove, tested with the headers of each part
+ *          [{@code Predicate<MimeStreamPart>}]<br>
+ *          key: {@code MAIL_STREAMREMOVEMIMEBODYPARTS_OUTPUT}<br>
+ *          value: the rewritten mail is written to, flushed and not closed [{@code java.io.OutputStream}]
+ * @Output  all input values and <br>
+ *          key: {@code MAIL_STREAMREMOVEMIMEBODYPARTS_REMOVED}<br>
+ *          value: the removed parts [{@code List<MimeStreamPart>}]
+ */
+
+public class MailStreamRemoveMimeBodyParts extends MailKeys implements PipelineOp {
+
+    static final Contract CONTRACT = new Contract()
+            .requires(MAIL_STREAMREMOVEMIMEBODYPARTS_FILTER_KEY, MAIL_STREAMREMOVEMIMEBODYPARTS_OUTPUT_KEY)
+            .optional(MAIL_FILE_KEY, MAIL_STREAM_KEY)
+            .produces(MAIL_STREAMREMOVEMIMEBODYPARTS_REMOVED_KEY);
+
+    Logger logger = LoggerFactory.getLogger(MailStreamRemoveMimeBodyParts.class);
+
+    @Override
+    public Contract contract() {
+        return CONTRACT;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    @Override
+    public Map<String,Object> execute(Map input) throws IOException, AtomicInputException {
+
+        File mailFile = MAIL_FILE_KEY.get(input);
+        InputStream mailInputStream = MAIL_STREAM_KEY.get(input);
+        Predicate<MimeStreamPart> filter = MAIL_STREAMREMOVEMIMEBODYPARTS_FILTER_KEY.require(input);
+        OutputStream output = MAIL_STREAMREMOVEMIMEBODYPARTS_OUTPUT_KEY.require(input);
+
+        if (mailFile == null && mailInputStream == null)
+            throw new AtomicInputException("MAIL_FILE or MAIL_STREAM not exist or is null!");
+
+        MimeStreamRewriter rewriter = new MimeStreamRewriter(filter);
+        MimeStreamRewriter.Result result;
+        if (mailFile != null) {
+            try (InputStream in = new FileInputStream(mailFile)) {
+                result = rewriter.rewrite(in, output);
+            }
+        } else {
+            result = rewriter.rewrite(mailInputStream, output);
+        }
+        logger.debug("Removed {} parts, {} of {} bytes written", result.removed().size(),
+                result.bytesWritten(), result.bytesRead());
+
+        input.put(MAIL_STREAMREMOVEMIMEBODYPARTS_REMOVED, result.removed());
+        return input;
+    }
+}
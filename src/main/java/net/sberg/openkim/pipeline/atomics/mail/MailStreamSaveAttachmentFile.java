@@ -0,0 +1,164 @@
+package net.sberg.openkim.pipeline.atomics.mail;
+
+import jakarta.mail.internet.MimeBodyPart;
+import net.sberg.openkim.pipeline.AtomicInputException;
+import net.sberg.openkim.pipeline.Contract;
+import net.sberg.openkim.pipeline.PipelineOp;
+import net.sberg.openkim.pipeline.atomics.mail.stream.MimeStreamParser;
+import net.sberg.openkim.pipeline.atomics.mail.stream.MimeStreamPart;
+import net.sberg.openkim.pipeline.atomics.mail.stream.MimeVisitor;
+import net.sberg.openkim.pipeline.atomics.mail.stream.TransferDecoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Atomic MailStreamSaveAttachmentFile saves attachments directly from a mail File or InputStream.
+ * Unlike {@link MailSaveAttachmentFile} no MimeMessage is built: the mail is parsed by the {@link MimeStreamParser}
+ * in one forward pass and every attachment is decoded into its file while it is read, so memory does not grow with
+ * the message size. A part is saved if its disposition is {@code attachment} and it has a file name,
+ * directory components of the file name are removed. The transfer encoding is checked before the file is created,
+ * if the mail can not be read to its end the attachment file being written is deleted.
+ * A {@code Map<String,Object>} will be used for input / output information transport.
+ * @Input   key: {@code MAIL_FILE}<br>
+ *          value: File [{@code java.io.File}] <br>
+ *          optional: default -> null<br>
+ *          key: [{@code  MAIL_STREAM}]<br>
+ *          value: InputStream, read to its end and not closed [{@code java.io.InputStream}]<br>
+ *          optional: used if MAIL_FILE is not set<br>
+ *          key: {@code MAIL_SAVEATTACHMENTFILE_BASEDIR}<br>
+ *          value: SaveBaseDir [{@code String}]
+ * @Output  all input values and <br>
+ *          key: {@code MAIL_SAVEATTACHMENTFILE_SAVEDFILES}<br>
+ *          value: SavedFileList [{@code List<String>}]
+ */
+
+public class MailStreamSaveAttachmentFile extends MailKeys implements PipelineOp {
+
+    static final Contract CONTRACT = new Contract()
+            .requires(MAIL_SAVEATTACHMENTFILE_BASEDIR_KEY)
+            .optional(MAIL_FILE_KEY, MAIL_STREAM_KEY)
+            .produces(MAIL_SAVEATTACHMENTFILE_SAVEDFILES_KEY);
+
+    private static final MimeStreamParser PARSER = new MimeStreamParser();
+
+    Logger logger = LoggerFactory.getLogger(MailStreamSaveAttachmentFile.class);
+
+    @Override
+    public Contract contract() {
+        return CONTRACT;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    @Override
+    public Map<String,Object> execute(Map input) throws IOException, AtomicInputException {
+
+        File mailFile = MAIL_FILE_KEY.get(input);
+        InputStream mailInputStream = MAIL_STREAM_KEY.get(input);
+        String baseDir = MAIL_SAVEATTACHMENTFILE_BASEDIR_KEY.require(input);
+
+        if (mailFile == null && mailInputStream == null)
+            throw new AtomicInputException("MAIL_FILE or MAIL_STREAM not exist or is null!");
+        if (! new File(baseDir).exists())
+            throw new AtomicInputException("MAIL_SAVEATTACHMENTFILE_BASEDIR "+baseDir+" not exist!");
+
+        AttachmentWriter writer = new AttachmentWriter(Path.of(baseDir));
+        try {
+            if (mailFile != null) {
+                try (InputStream in = new FileInputStream(mailFile)) {
+                    PARSER.parse(in, writer);
+                }
+            } else {
+                PARSER.parse(mailInputStream, writer);
+            }
+            writer.closeCurrent();
+        } catch (IOException | RuntimeException e) {
+            writer.abort(e);
+            throw e;
+        }
+
+        input.put(MAIL_SAVEATTACHMENTFILE_SAVEDFILES, writer.savedFiles);
+        return input;
+    }
+
+    private final class AttachmentWriter implements MimeVisitor {
+
+        private final Path baseDir;
+        private final List<String> savedFiles = new ArrayList<>();
+        private OutputStream current;
+        private Path currentFile;
+
+        AttachmentWriter(Path baseDir) {
+            this.baseDir = baseDir;
+        }
+
+        @Override
+        public boolean startBody(MimeStreamPart part) throws IOException {
+            if (!part.isLeaf() || !MimeBodyPart.ATTACHMENT.equals(part.disposition()))
+                return false;
+            String fileName = MailSaveAttachmentFile.fileName(part.fileName());
+            if (fileName == null)
+                return false;
+            if (!TransferDecoder.isSupported(part.transferEncoding()))
+                throw new IOException("Unsupported Content-Transfer-Encoding: " + part.transferEncoding()
+                        + " of attachment " + fileName);
+            Path file = baseDir.resolve(fileName);
+            logger.debug("Save attachment file: {}", file);
+            current = TransferDecoder.decoding(part.transferEncoding(),
+                    new BufferedOutputStream(Files.newOutputStream(file)));
+            currentFile = file;
+            savedFiles.add(file.toString());
+            return true;
+        }
+
+        @Override
+        public void body(MimeStreamPart part, byte[] buffer, int offset, int length) throws IOException {
+            current.write(buffer, offset, length);
+        }
+
+        @Override
+        public void endPart(MimeStreamPart part) throws IOException {
+            closeCurrent();
+        }
+
+        void closeCurrent() throws IOException {
+            if (current != null) {
+                OutputStream out = current;
+                current = null;
+                out.close();
+                currentFile = null;
+            }
+        }
+
+        /**
+         * Closes and deletes the file that is not completely written.
+         */
+        void abort(Exception failure) {
+            Path file = currentFile;
+            try {
+                closeCurrent();
+            } catch (IOException e) {
+                failure.addSuppressed(e);
+            }
+            if (file == null)
+                return;
+            savedFiles.remove(file.toString());
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                failure.addSuppressed(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package net.sberg.openkim.pipeline.atomics.mail;
+
+import jakarta.mail.MessagingException;
+import jakarta.mail.internet.InternetAddress;
+import jakarta.mail.internet.MimeMessage;
+import jakarta.mail.internet.MimeUtility;
+import net.sberg.openkim.pipeline.Key;
+
+import java.io.UnsupportedEncodingException;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>MailTemplate class.</p>
+ * Text or HTML template with placeholders that are resolved from the pipeline values. A template is compiled once
+ * into literal and placeholder segments, rendering appends the segments to one builder without parsing or
+ * intermediate Strings. Instances are immutable and can be shared between pipelines and threads.
+ * <ul>
+ *     <li>{@code ${mail.messageid}} a pipeline value by name, e.g. {@link MailKeys#MAIL_MESSAGEID}</li>
+ *     <li>{@code ${mail.from:unknown}} with a default if the value is missing or empty</li>
+ *     <li>{@code ${header:Date}} a header of {@code MAIL_MIMEMESSAGE}, RFC 2047 decoded</li>
+ *     <li>{@code $$} a literal {@code $}</li>
+ * </ul>
+ * Collections are joined with {@code ", "}, addresses are written in their unicode form and dates in
+ * RFC 1123 format. In HTML templates the values are HTML escaped, the template text itself is not.
+ */
+public final class MailTemplate {
+
+    private static final int MAX_CACHE_SIZE = 256;
+    private static final Map<CacheKey, MailTemplate> CACHE = new ConcurrentHashMap<>();
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.RFC_1123_DATE_TIME.withZone(ZoneId.systemDefault());
+
+    private final String template;
+    private final boolean html;
+    private final Segment[] segments;
+    private final int literalLength;
+    private volatile int sizeHint;
+
+    private MailTemplate(String template, boolean html, List<Segment> segments) {
+        this.template = template;
+        this.html = html;
+        this.segments = segments.toArray(new Segment[0]);
+        int length = 0;
+        for (Segment segment : this.segments) {
+            if (segment instanceof Literal literal)
+                length += literal.text().length();
+        }
+        this.literalLength = length;
+        this.sizeHint = length + 64;
+    }
+
+    /**
+     * <p>compile.</p>
+     *
+     * @param template the template text
+     * @param html true if values are HTML escaped
+     * @return a new {@link MailTemplate} object
+     * @throws IllegalArgumentException if a placeholder is not terminated or empty
+     */
+    public static MailTemplate compile(String template, boolean html) {
+        Objects.requireNonNull(template);
+        List<Segment> segments = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        int i = 0;
+        while (i < template.length()) {
+            char c = template.charAt(i);
+            if (c != '$' || i + 1 == template.length()) {
+                literal.append(c);
+                i++;
+            } else if (template.charAt(i + 1) == '$') {
+                literal.append('$');
+                i += 2;
+            } else if (template.charAt(i + 1) == '{') {
+                int end = template.indexOf('}', i + 2);
+                if (end < 0)
+                    throw new IllegalArgumentException("Placeholder at " + i + " is not terminated: " + template);
+                if (!literal.isEmpty()) {
+                    segments.add(new Literal(literal.toString()));
+                    literal.setLength(0);
+                }
+                segments.add(placeholder(template.substring(i + 2, end), i));
+                i = end + 1;
+            } else {
+                literal.append(c);
+                i++;
+            }
+        }
+        if (!literal.isEmpty())
+            segments.add(new Literal(literal.toString()));
+        return new MailTemplate(template, html, segments);
+    }
+
+    /**
+     * <p>cached.</p>
+     * Like {@link #compile(String, boolean)}, templates rebuilt as equal Strings are compiled only once.
+     *
+     * @param template the template text
+     * @param html true if values are HTML escaped
+     * @return a shared {@link MailTemplate} object
+     */
+    public static MailTemplate cached(String template, boolean html) {
+        CacheKey key = new CacheKey(template, html);
+        MailTemplate compiled = CACHE.get(key);
+        if (compiled == null) {
+            compiled = compile(template, html);
+            if (CACHE.size() >= MAX_CACHE_SIZE)
+                CACHE.clear();
+            CACHE.put(key, compiled);
+        }
+        return compiled;
+    }
+
+    /**
+     * <p>render.</p>
+     *
+     * @param input the pipeline values
+     * @return the rendered text
+     * @throws MessagingException if a header of {@code MAIL_MIMEMESSAGE} can not be read
+     */
+    public String render(Map<String,Object> input) throws MessagingException {
+        StringBuilder out = new StringBuilder(sizeHint);
+        render(input, out);
+        if (out.length() > sizeHint)
+            sizeHint = out.length();
+        return out.toString();
+    }
+
+    /**
+     * <p>render.</p>
+     *
+     * @param input the pipeline values
+     * @param out the rendered text is appended, e.g. a builder reused for many messages
+     * @throws MessagingException if a header of {@code MAIL_MIMEMESSAGE} can not be read
+     */
+    public void render(Map<String,Object> input, StringBuilder out) throws MessagingException {
+        for (Segment segment : segments) {
+            if (segment instanceof Literal literal) {
+                out.append(literal.text());
+                continue;
+            }
+            int start = out.length();
+            if (segment instanceof Value value)
+                appendValue(value.key() != null ? value.key().get(input) : input.get(value.name()), out);
+            else if (segment instanceof Header header)
+                appendHeader(MailKeys.MAIL_MIMEMESSAGE_KEY.get(input), header.name(), out);
+            Placeholder placeholder = (Placeholder) segment;
+            if (out.length() == start && placeholder.defaultValue() != null)
+                appendText(placeholder.defaultValue(), out);
+        }
+    }
+
+    /**
+     * <p>literalLength.</p>
+     *
+     * @return length of the template text without placeholders
+     */
+    public int literalLength() {
+        return literalLength;
+    }
+
+    /**
+     * <p>isHtml.</p>
+     *
+     * @return true if values are HTML escaped
+     */
+    public boolean isHtml() {
+        return html;
+    }
+
+    @Override
+    public String toString() {
+        return template;
+    }
+
+    private void appendValue(Object value, StringBuilder out) {
+        if (value == null)
+            return;
+        if (value instanceof Collection<?> collection) {
+            boolean first = true;
+            for (Object element : collection) {
+                if (!first)
+                    out.append(", ");
+                appendValue(element, out);
+                first = false;
+            }
+        } else if (value instanceof Object[] array) {
+            appendValue(List.of(array), out);
+        } else if (value instanceof InternetAddress address) {
+            appendText(address.toUnicodeString(), out);
+        } else if (value instanceof Date date) {
+            out.append(DATE_FORMAT.format(date.toInstant()));
+        } else {
+            appendText(value.toString(), out);
+        }
+    }
+
+    private void appendHeader(MimeMessage message, String name, StringBuilder out) throws MessagingException {
+        if (message == null)
+            return;
+        String header = message.getHeader(name, ", ");
+        if (header == null)
+            return;
+        try {
+            appendText(MimeUtility.decodeText(MimeUtility.unfold(header)), out);
+        } catch (UnsupportedEncodingException e) {
+            appendText(header, out);
+        }
+    }
+
+    private void appendText(String text, StringBuilder out) {
+        if (!html) {
+            out.append(text);
+            return;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '<' -> out.append("&lt;");
+                case '>' -> out.append("&gt;");
+                case '&' -> out.append("&amp;");
+                case '"' -> out.append("&quot;");
+                case '\'' -> out.append("&#39;");
+                default -> out.append(c);
+            }
+        }
+    }
+
+    private static Segment placeholder(String expression, int position) {
+        int colon = expression.indexOf(':');
+        String name = (colon >= 0 ? expression.substring(0, colon) : expression).trim();
+        String defaultValue = colon >= 0 ? expression.substring(colon + 1) : null;
+        if (name.isEmpty())
+            throw new IllegalArgumentException("Empty placeholder at " + position);
+        if (name.equals("header")) {
+            if (defaultValue == null || defaultValue.isBlank())
+                throw new IllegalArgumentException("Header placeholder without header name at " + position);
+            int second = defaultValue.indexOf(':');
+            String header = (second >= 0 ? defaultValue.substring(0, second) : defaultValue).trim();
+            return new Header(header, second >= 0 ? defaultValue.substring(second + 1) : null);
+        }
+        return new Value(name, Key.lookup(name), defaultValue);
+    }
+
+    private sealed interface Segment permits Literal, Placeholder {
+    }
+
+    private sealed interface Placeholder extends Segment permits Value, Header {
+        String defaultValue();
+    }
+
+    private record Literal(String text) implements Segment {
+    }
+
+    /**
+     * A pipeline value, read through its {@link Key} if the name is registered when the template is compiled.
+     */
+    private record Value(String name, Key<?> key, String defaultValue) implements Placeholder {
+    }
+
+    private record Header(String name, String defaultValue) implements Placeholder {
+    }
+
+    private record CacheKey(String template, boolean html) {
+    }
+}
@@ -0,0 +1,234 @@
+package net.sberg.openkim.pipeline.atomics.mail;
+
+import jakarta.mail.MessagingException;
+import jakarta.mail.Session;
+import jakarta.mail.internet.InternetHeaders;
+import jakarta.mail.util.SharedByteArrayInputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>MimeMessageCache class.</p>
+ * Bounded LRU cache of parsed mails for pipelines that run over the same mails several times.
+ * Files are keyed by absolute path, modification time and size, streams by their Message-ID.
+ * An entry keeps the raw mail, the cache is bounded by the sum of the raw sizes and evicts the least recently used
+ * entries first. Mails larger than the bound are not cached.
+ * Every lookup returns a new {@link CachedMimeMessage} with its own headers on the shared, never written raw mail,
+ * so atomics that modify the message can not change the cached entry. Only the header block is parsed again,
+ * reading the mail and parsing multiparts is done per message on first access of the content, as for any message.
+ * The cache is thread safe.
+ */
+public class MimeMessageCache {
+
+    private final long maxBytes;
+    private final LinkedHashMap<Object, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long retainedBytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * <p>Constructor for MimeMessageCache.</p>
+     *
+     * @param maxBytes maximum sum of the raw mail sizes kept in the cache
+     */
+    public MimeMessageCache(long maxBytes) {
+        if (maxBytes <= 0)
+            throw new IllegalArgumentException("maxBytes must be positive!");
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * <p>load.</p>
+     * Returns the cached mail if path, modification time and size are unchanged, otherwise the file is read
+     * and cached.
+     *
+     * @param session a {@link Session} object for the returned message
+     * @param file a mail file
+     * @return a new {@link CachedMimeMessage}
+     * @throws IOException if the file can not be read
+     * @throws MessagingException if the headers can not be parsed
+     */
+    public CachedMimeMessage load(Session session, Path file) throws IOException, MessagingException {
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        FileKey key = new FileKey(file.toAbsolutePath().normalize(), attributes.lastModifiedTime().toMillis(), attributes.size());
+        Entry entry = lookup(key);
+        if (entry == null) {
+            byte[] content;
+            try (InputStream in = Files.newInputStream(file)) {
+                content = in.readAllBytes();
+            }
+            entry = Entry.parse(content);
+            // a file changed while it was read is returned but not cached
+            if (content.length == attributes.size())
+                store(key, entry);
+        }
+        return entry.view(session);
+    }
+
+    /**
+     * <p>get.</p>
+     *
+     * @param session a {@link Session} object for the returned message
+     * @param messageId the Message-ID header value of a mail read from a stream
+     * @return a new {@link CachedMimeMessage} or null if the mail is not cached
+     * @throws MessagingException if the message can not be created
+     */
+    public CachedMimeMessage get(Session session, String messageId) throws MessagingException {
+        Entry entry = lookup(messageId);
+        return entry != null ? entry.view(session) : null;
+    }
+
+    /**
+     * <p>put.</p>
+     *
+     * @param session a {@link Session} object for the returned message
+     * @param messageId the Message-ID header value of the mail
+     * @param content the raw mail, owned by the cache afterwards
+     * @return a new {@link CachedMimeMessage} on the content
+     * @throws MessagingException if the headers can not be parsed
+     */
+    public CachedMimeMessage put(Session session, String messageId, byte[] content) throws MessagingException {
+        Entry entry = Entry.parse(content);
+        store(messageId, entry);
+        return entry.view(session);
+    }
+
+    /**
+     * <p>invalidate.</p>
+     *
+     * @param file a mail file, all cached versions of the file are removed
+     */
+    public synchronized void invalidate(Path file) {
+        Path path = file.toAbsolutePath().normalize();
+        entries.entrySet().removeIf(e -> {
+            boolean remove = e.getKey() instanceof FileKey key && key.path().equals(path);
+            if (remove)
+                retainedBytes -= e.getValue().size();
+            return remove;
+        });
+    }
+
+    /**
+     * <p>invalidate.</p>
+     *
+     * @param messageId the Message-ID header value of a mail read from a stream
+     */
+    public synchronized void invalidate(String messageId) {
+        Entry entry = entries.remove(messageId);
+        if (entry != null)
+            retainedBytes -= entry.size();
+    }
+
+    /**
+     * <p>clear.</p>
+     */
+    public synchronized void clear() {
+        entries.clear();
+        retainedBytes = 0;
+    }
+
+    /**
+     * <p>size.</p>
+     *
+     * @return number of cached mails
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * <p>retainedBytes.</p>
+     *
+     * @return sum of the raw sizes of the cached mails
+     */
+    public synchronized long retainedBytes() {
+        return retainedBytes;
+    }
+
+    /**
+     * <p>maxBytes.</p>
+     *
+     * @return the bound of {@link #retainedBytes()}
+     */
+    public long maxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * <p>hits.</p>
+     *
+     * @return number of lookups answered from the cache
+     */
+    public synchronized long hits() {
+        return hits;
+    }
+
+    /**
+     * <p>misses.</p>
+     *
+     * @return number of lookups not answered from the cache
+     */
+    public synchronized long misses() {
+        return misses;
+    }
+
+    /**
+     * <p>evictions.</p>
+     *
+     * @return number of mails removed to stay within {@link #maxBytes()}
+     */
+    public synchronized long evictions() {
+        return evictions;
+    }
+
+    private synchronized Entry lookup(Object key) {
+        Entry entry = entries.get(key);
+        if (entry != null)
+            hits++;
+        else
+            misses++;
+        return entry;
+    }
+
+    private synchronized void store(Object key, Entry entry) {
+        if (entry.size() > maxBytes)
+            return;
+        Entry previous = entries.put(key, entry);
+        if (previous != null)
+            retainedBytes -= previous.size();
+        retainedBytes += entry.size();
+        Iterator<Map.Entry<Object, Entry>> eldest = entries.entrySet().iterator();
+        while (retainedBytes > maxBytes && eldest.hasNext()) {
+            retainedBytes -= eldest.next().getValue().size();
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    private record FileKey(Path path, long modified, long size) {
+    }
+
+    /**
+     * Raw mail and the offset of its body, never modified after creation.
+     */
+    private record Entry(SharedByteArrayInputStream content, long bodyOffset, long size) {
+
+        static Entry parse(byte[] content) throws MessagingException {
+            SharedByteArrayInputStream in = new SharedByteArrayInputStream(content);
+            new InternetHeaders(in);
+            return new Entry(in, in.getPosition(), content.length);
+        }
+
+        CachedMimeMessage view(Session session) throws MessagingException {
+            return new CachedMimeMessage(session, content, bodyOffset);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package net.sberg.openkim.pipeline.atomics.mail;
+
+import jakarta.mail.MessagingException;
+import jakarta.mail.internet.MimeBodyPart;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.regex.Pattern;
+
+/**
+ * <p>PartFilter interface.</p>
+ * Predicate on a {@link MimeBodyPart} during the tree walk of {@link MailGetMimeBodyParts}.
+ * The factories only look at headers and the size, the content of a part is never read.
+ * Filters are immutable and can be shared between pipelines and threads.
+ * <pre>{@code
+ * PartFilter pdfs = PartFilter.disposition(MimeBodyPart.ATTACHMENT)
+ *         .and(PartFilter.contentType("application/pdf").or(PartFilter.fileName("*.pdf")))
+ *         .and(PartFilter.size(1, 10 * 1024 * 1024));
+ * }</pre>
+ */
+@FunctionalInterface
+public interface PartFilter {
+
+    /**
+     * <p>test.</p>
+     *
+     * @param part a {@link MimeBodyPart} object
+     * @param depth 1 for the parts of the message, 2 for the parts of a nested multipart and so on
+     * @return true if the part is selected
+     * @throws MessagingException if a header can not be read
+     */
+    boolean test(MimeBodyPart part, int depth) throws MessagingException;
+
+    /**
+     * <p>and.</p>
+     *
+     * @param other a {@link PartFilter} object, only evaluated if this filter matches
+     * @return a {@link PartFilter} object
+     */
+    default PartFilter and(PartFilter other) {
+        Objects.requireNonNull(other);
+        return (part, depth) -> test(part, depth) && other.test(part, depth);
+    }
+
+    /**
+     * <p>or.</p>
+     *
+     * @param other a {@link PartFilter} object, only evaluated if this filter does not match
+     * @return a {@link PartFilter} object
+     */
+    default PartFilter or(PartFilter other) {
+        Objects.requireNonNull(other);
+        return (part, depth) -> test(part, depth) || other.test(part, depth);
+    }
+
+    /**
+     * <p>negate.</p>
+     *
+     * @return a {@link PartFilter} object
+     */
+    default PartFilter negate() {
+        return (part, depth) -> !test(part, depth);
+    }
+
+    /**
+     * <p>all.</p>
+     *
+     * @return a {@link PartFilter} that matches every part
+     */
+    static PartFilter all() {
+        return (part, depth) -> true;
+    }
+
+    /**
+     * <p>contentType.</p>
+     *
+     * @param types base types like {@code application/pdf} or wildcards like {@code image/*}, case insensitive
+     * @return a {@link PartFilter} that matches parts of one of the types
+     */
+    static PartFilter contentType(String... types) {
+        String[] lowerTypes = Arrays.stream(types).map(type -> type.trim().toLowerCase(Locale.ROOT)).toArray(String[]::new);
+        return (part, depth) -> {
+            String contentType = part.getContentType();
+            if (contentType == null)
+                contentType = "text/plain";
+            int end = contentType.indexOf(';');
+            String baseType = (end >= 0 ? contentType.substring(0, end) : contentType).trim().toLowerCase(Locale.ROOT);
+            for (String type : lowerTypes) {
+                if (type.endsWith("/*") ? baseType.startsWith(type.substring(0, type.length() - 1)) : baseType.equals(type))
+                    return true;
+            }
+            return false;
+        };
+    }
+
+    /**
+     * <p>fileName.</p>
+     *
+     * @param glob file name pattern with {@code *} and {@code ?}, case insensitive
+     * @return a {@link PartFilter} that matches parts with a matching file name
+     */
+    static PartFilter fileName(String glob) {
+        Pattern pattern = globPattern(glob);
+        return (part, depth) -> {
+            String fileName = part.getFileName();
+            return fileName != null && pattern.matcher(fileName).matches();
+        };
+    }
+
+    /**
+     * <p>disposition.</p>
+     *
+     * @param disposition {@code attachment} or {@code inline}, case insensitive
+     * @return a {@link PartFilter} that matches parts with the disposition
+     */
+    static PartFilter disposition(String disposition) {
+        Objects.requireNonNull(disposition);
+        return (part, depth) -> disposition.equalsIgnoreCase(part.getDisposition());
+    }
+
+    /**
+     * <p>size.</p>
+     * The size is the transfer encoded size of the content, parts of unknown size never match.
+     *
+     * @param min minimum size in bytes, inclusive
+     * @param max maximum size in bytes, inclusive
+     * @return a {@link PartFilter} that matches parts within the size range
+     */
+    static PartFilter size(long min, long max) {
+        return (part, depth) -> {
+            int size = part.getSize();
+            return size >= 0 && size >= min && size <= max;
+        };
+    }
+
+    /**
+     * <p>depth.</p>
+     *
+     * @param min minimum depth, inclusive
+     * @param max maximum depth, inclusive
+     * @return a {@link PartFilter} that matches parts within the depth range
+     */
+    static PartFilter depth(int min, int max) {
+        return (part, depth) -> depth >= min && depth <= max;
+    }
+
+    private static Pattern globPattern(String glob) {
+        StringBuilder regex = new StringBuilder();
+        int literal = 0;
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '*' || c == '?') {
+                if (literal < i)
+                    regex.append(Pattern.quote(glob.substring(literal, i)));
+                regex.append(c == '*' ? ".*" : ".");
+                literal = i + 1;
+            }
+        }
+        if (literal < glob.length())
+            regex.append(Pattern.quote(glob.substring(literal)));
+        return Pattern.compile(regex.toString(), Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE | Pattern.DOTALL);
+    }
+}
@@ -0,0 +1,99 @@
+package net.sberg.openkim.pipeline.atomics.mail;
+
+import jakarta.activation.DataHandler;
+import jakarta.mail.Message;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Multipart;
+import jakarta.mail.internet.MimeMessage;
+import jakarta.mail.internet.SharedInputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * <p>PassthroughMimeMessage class.</p>
+ * {@link MimeMessage} that keeps its original body bytes as long as the body is not changed. On
+ * {@link #saveChanges()}, which {@code Transport.send} always calls, a plain MimeMessage parses the whole body
+ * again to update the headers of every part and writes it re-encoded. This message only updates the message
+ * headers (MIME-Version, Date, Message-ID) then and {@link #writeTo} writes the header block followed by the
+ * original body bytes, header only modifications cost about a copy of the body, even a malformed body is relayed.
+ * <p>
+ * The body counts as modified after {@link #setDataHandler} (and so every {@code setContent} or {@code setText})
+ * and after {@link #getContent()} returned a Multipart or Message, whose parts could be changed in place. Atomics
+ * that only read the parts via {@code getContent()}, like {@link MailGetMimeBodyParts}, therefore switch the message
+ * to the regular re-encoding.
+ */
+public class PassthroughMimeMessage extends MimeMessage implements HeaderPatch.Target {
+
+    private volatile boolean bodyModified;
+
+    /**
+     * <p>Constructor for PassthroughMimeMessage.</p>
+     * Copies the raw header lines of source and shares its raw body, the body is not decoded or copied if source
+     * was parsed from a {@link SharedInputStream}.
+     *
+     * @param source a parsed {@link MimeMessage}
+     * @throws MessagingException if the raw body can not be read
+     */
+    public PassthroughMimeMessage(MimeMessage source) throws MessagingException {
+        super(source.getSession());
+        // the raw lines instead of headers added to empty ones, whose placeholders would reorder the headers on set
+        headers = HeaderPatch.internetHeaders(Collections.list(source.getAllHeaderLines()));
+        InputStream raw = source.getRawInputStream();
+        if (raw instanceof SharedInputStream) {
+            contentStream = raw;
+        } else {
+            try (raw) {
+                content = raw.readAllBytes();
+            } catch (IOException e) {
+                throw new MessagingException("Error reading raw body", e);
+            }
+        }
+        modified = false;
+        saved = true;
+    }
+
+    /**
+     * <p>isBodyModified.</p>
+     *
+     * @return true if the body will be re-encoded on {@link #saveChanges()}
+     */
+    public boolean isBodyModified() {
+        return bodyModified;
+    }
+
+    @Override
+    public void saveChanges() throws MessagingException {
+        if (bodyModified) {
+            super.saveChanges();
+            return;
+        }
+        saved = true;
+        setHeader("MIME-Version", "1.0");
+        if (getHeader("Date") == null)
+            setSentDate(new Date());
+        updateMessageID();
+    }
+
+    @Override
+    public synchronized void setDataHandler(DataHandler dh) throws MessagingException {
+        bodyModified = true;
+        super.setDataHandler(dh);
+    }
+
+    @Override
+    public Object getContent() throws IOException, MessagingException {
+        Object value = super.getContent();
+        if (value instanceof Multipart || value instanceof Message)
+            bodyModified = true;
+        return value;
+    }
+
+    @Override
+    public void replaceHeaderLines(List<String> lines) {
+        headers = HeaderPatch.internetHeaders(lines);
+    }
+}
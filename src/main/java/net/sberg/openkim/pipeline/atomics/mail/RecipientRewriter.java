@@ -0,0 +1,228 @@
+package net.sberg.openkim.pipeline.atomics.mail;
+
+import jakarta.mail.Address;
+import jakarta.mail.Message;
+import jakarta.mail.MessagingException;
+import jakarta.mail.internet.AddressException;
+import jakarta.mail.internet.InternetAddress;
+import jakarta.mail.internet.MimeMessage;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>RecipientRewriter class.</p>
+ * Replacement table of {@link MailReplaceRecipients} compiled once: an address is replaced if it contains the
+ * search String of a rule, case insensitive. All search Strings are matched together with one scan of the address
+ * (Aho-Corasick). If several rules match, the first rule of the table wins, as with the rules applied one by one in
+ * table order. A replaced address is not matched again.
+ * <p>
+ * The rewriter is immutable except for its hit counters and can be shared between pipelines and threads.
+ */
+public final class RecipientRewriter {
+
+    private final Rule[] rules;
+
+    // automaton: children of a node as sorted labels with their targets, fail links and first matching rule per node
+    private final char[][] labels;
+    private final int[][] targets;
+    private final int[] fail;
+    private final int[] match;
+
+    private RecipientRewriter(List<Rule> rules) {
+        this.rules = rules.toArray(new Rule[0]);
+        List<TreeMap<Character, Integer>> trie = new ArrayList<>();
+        List<Integer> output = new ArrayList<>();
+        trie.add(new TreeMap<>());
+        output.add(-1);
+        for (Rule rule : this.rules) {
+            String find = rule.find;
+            int node = 0;
+            for (int i = 0; i < find.length(); i++) {
+                Integer next = trie.get(node).get(find.charAt(i));
+                if (next == null) {
+                    next = trie.size();
+                    trie.get(node).put(find.charAt(i), next);
+                    trie.add(new TreeMap<>());
+                    output.add(-1);
+                }
+                node = next;
+            }
+            output.set(node, better(output.get(node), rule.index));
+        }
+
+        int size = trie.size();
+        labels = new char[size][];
+        targets = new int[size][];
+        for (int node = 0; node < size; node++) {
+            TreeMap<Character, Integer> children = trie.get(node);
+            labels[node] = new char[children.size()];
+            targets[node] = new int[children.size()];
+            int i = 0;
+            for (Map.Entry<Character, Integer> child : children.entrySet()) {
+                labels[node][i] = child.getKey();
+                targets[node][i++] = child.getValue();
+            }
+        }
+
+        // breadth first, the fail node of a node is shallower and complete before it
+        fail = new int[size];
+        match = new int[size];
+        match[0] = output.get(0);
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for (int child : targets[0]) {
+            match[child] = better(output.get(child), match[0]);
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            int node = queue.poll();
+            for (int i = 0; i < labels[node].length; i++) {
+                int child = targets[node][i];
+                int state = fail[node];
+                while (state != 0 && child(state, labels[node][i]) < 0)
+                    state = fail[state];
+                int target = child(state, labels[node][i]);
+                fail[child] = target >= 0 && target != child ? target : 0;
+                match[child] = better(output.get(child), match[fail[child]]);
+                queue.add(child);
+            }
+        }
+    }
+
+    /**
+     * <p>compile.</p>
+     *
+     * @param replacements search String to replacement address, iteration order is the rule order
+     * @return a new {@link RecipientRewriter} object
+     * @throws AddressException if a replacement is not a valid address
+     */
+    public static RecipientRewriter compile(Map<String, String> replacements) throws AddressException {
+        List<Rule> rules = new ArrayList<>(replacements.size());
+        for (Map.Entry<String, String> entry : replacements.entrySet()) {
+            rules.add(new Rule(rules.size(), entry.getKey(), new InternetAddress(entry.getValue())));
+        }
+        return new RecipientRewriter(rules);
+    }
+
+    /**
+     * <p>rewrite.</p>
+     * Reads and sets every recipient header of the given types once, headers without replacement are not touched.
+     *
+     * @param message the {@link MimeMessage} to modify
+     * @param types the recipient types to rewrite
+     * @param hits search String to number of replacements of this call, is added to, may be null
+     * @return number of replaced addresses
+     * @throws MessagingException if a recipient header can not be read or set
+     */
+    public int rewrite(MimeMessage message, List<Message.RecipientType> types, Map<String, Integer> hits)
+            throws MessagingException {
+        int count = 0;
+        for (Message.RecipientType type : types) {
+            Address[] recipients = message.getRecipients(type);
+            if (recipients == null)
+                continue;
+            boolean changed = false;
+            for (int i = 0; i < recipients.length; i++) {
+                Rule rule = find(recipients[i]);
+                if (rule == null)
+                    continue;
+                recipients[i] = rule.replace;
+                rule.hits.increment();
+                if (hits != null)
+                    hits.merge(rule.key, 1, Integer::sum);
+                changed = true;
+                count++;
+            }
+            if (changed)
+                message.setRecipients(type, recipients);
+        }
+        return count;
+    }
+
+    /**
+     * <p>replacement.</p>
+     *
+     * @param address a recipient
+     * @return the replacement or null
+     */
+    public InternetAddress replacement(Address address) {
+        Rule rule = find(address);
+        return rule != null ? rule.replace : null;
+    }
+
+    /**
+     * <p>hitCounts.</p>
+     *
+     * @return search String to number of replacements since compile, in rule order
+     */
+    public Map<String, Long> hitCounts() {
+        Map<String, Long> counts = new LinkedHashMap<>();
+        for (Rule rule : rules) {
+            counts.put(rule.key, rule.hits.sum());
+        }
+        return counts;
+    }
+
+    /**
+     * <p>size.</p>
+     *
+     * @return number of rules
+     */
+    public int size() {
+        return rules.length;
+    }
+
+    private Rule find(Address address) {
+        String text = address.toString().toLowerCase(Locale.ROOT);
+        int best = match[0];
+        int node = 0;
+        for (int i = 0; i < text.length() && best != 0; i++) {
+            char c = text.charAt(i);
+            int next;
+            while ((next = child(node, c)) < 0 && node != 0)
+                node = fail[node];
+            node = Math.max(next, 0);
+            best = better(best, match[node]);
+        }
+        return best >= 0 ? rules[best] : null;
+    }
+
+    private int child(int node, char c) {
+        int i = Arrays.binarySearch(labels[node], c);
+        return i >= 0 ? targets[node][i] : -1;
+    }
+
+    /**
+     * @return the rule index that wins, the earlier rule, -1 for none
+     */
+    private static int better(int a, int b) {
+        if (a < 0)
+            return b;
+        if (b < 0)
+            return a;
+        return Math.min(a, b);
+    }
+
+    private static final class Rule {
+
+        private final int index;
+        private final String key;
+        private final String find;
+        private final InternetAddress replace;
+        private final LongAdder hits = new LongAdder();
+
+        Rule(int index, String find, InternetAddress replace) {
+            this.index = index;
+            this.key = find;
+            this.find = find.toLowerCase(Locale.ROOT);
+            this.replace = replace;
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package net.sberg.openkim.pipeline.atomics.mail;
+
+/**
+ * <p>SavedAttachmentFile record.</p>
+ * One attachment written by {@link MailSaveAttachmentFile}.
+ *
+ * @param file the path of the written file
+ * @param bytes number of decoded bytes written
+ * @param nanos time to decode and write the file in nanoseconds
+ */
+public record SavedAttachmentFile(String file, long bytes, long nanos) {
+}
@@ -0,0 +1,11 @@
+package net.sberg.openkim.pipeline.atomics.mail;
+
+/**
+ * <p>StoredAttachmentFile record.</p>
+ * One attachment stored by {@link MailSaveAttachmentFile} in content addressed mode.
+ *
+ * @param fileName the file name of the attachment in the message
+ * @param file the path of the stored file, shared by all attachments with the same content
+ */
+public record StoredAttachmentFile(String fileName, String file) {
+}
@@ -0,0 +1,134 @@
+package net.sberg.openkim.pipeline.atomics.mail.stream;
+
+import jakarta.mail.MessagingException;
+import jakarta.mail.internet.MimeBodyPart;
+import jakarta.mail.internet.MimeUtility;
+import jakarta.mail.internet.SharedInputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>MimePartIndex class.</p>
+ * Offsets and headers of all parts of a mail, built with one scan of the raw bytes by the {@link MimeStreamParser}.
+ * No body is decoded and no multipart is parsed while the index is built. The content of a single part is read from
+ * the {@link SharedInputStream} of the mail when it is requested, so listing and filtering parts costs one scan and
+ * only the selected parts are decoded.
+ * The index references the source, it is only usable as long as the source is open.
+ */
+public final class MimePartIndex {
+
+    private static final MimeStreamParser PARSER = new MimeStreamParser();
+
+    private final SharedInputStream source;
+    private final MimeStreamPart root;
+    private final List<MimeStreamPart> parts;
+    private final Map<String, MimeStreamPart> partsById;
+
+    private MimePartIndex(SharedInputStream source, MimeStreamPart root, List<MimeStreamPart> parts) {
+        this.source = source;
+        this.root = root;
+        this.parts = Collections.unmodifiableList(parts);
+        this.partsById = new HashMap<>();
+        for (MimeStreamPart part : parts) {
+            partsById.put(part.id(), part);
+        }
+    }
+
+    /**
+     * <p>build.</p>
+     *
+     * @param source the raw mail, e.g. a {@link jakarta.mail.util.SharedByteArrayInputStream}
+     * @return a {@link MimePartIndex} object
+     * @throws IOException if the mail can not be read
+     */
+    public static MimePartIndex build(SharedInputStream source) throws IOException {
+        List<MimeStreamPart> parts = new ArrayList<>();
+        MimeStreamPart root;
+        try (InputStream in = source.newStream(0, -1)) {
+            root = PARSER.parse(in, new MimeVisitor() {
+                @Override
+                public boolean startBody(MimeStreamPart part) {
+                    return false;
+                }
+
+                @Override
+                public void endPart(MimeStreamPart part) {
+                    parts.add(part);
+                }
+            });
+        }
+        return new MimePartIndex(source, root, parts);
+    }
+
+    /**
+     * <p>root.</p>
+     *
+     * @return the part of the message itself
+     */
+    public MimeStreamPart root() {
+        return root;
+    }
+
+    /**
+     * <p>parts.</p>
+     *
+     * @return all parts with the root, children before their multipart or message part like
+     * {@link net.sberg.openkim.pipeline.atomics.mail.MailGetMimeBodyParts} lists them
+     */
+    public List<MimeStreamPart> parts() {
+        return parts;
+    }
+
+    /**
+     * <p>part.</p>
+     *
+     * @param id dotted part id, see {@link MimeStreamPart#id()}
+     * @return the part or null
+     */
+    public MimeStreamPart part(String id) {
+        return partsById.get(id);
+    }
+
+    /**
+     * <p>rawContent.</p>
+     *
+     * @param part a part of this index
+     * @return the transfer encoded body
+     */
+    public InputStream rawContent(MimeStreamPart part) {
+        return source.newStream(part.bodyOffset(), part.endOffset());
+    }
+
+    /**
+     * <p>content.</p>
+     *
+     * @param part a part of this index
+     * @return the decoded body, decoded while it is read
+     * @throws IOException if the Content-Transfer-Encoding is not supported
+     */
+    public InputStream content(MimeStreamPart part) throws IOException {
+        try {
+            return MimeUtility.decode(rawContent(part), part.transferEncoding());
+        } catch (MessagingException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * <p>bodyPart.</p>
+     * The headers of the part are parsed, the content is a view of the source and read when it is accessed.
+     *
+     * @param part a part of this index
+     * @return a new {@link MimeBodyPart} on the bytes of the part
+     * @throws MessagingException if the headers can not be parsed
+     */
+    public MimeBodyPart bodyPart(MimeStreamPart part) throws MessagingException {
+        return new MimeBodyPart(source.newStream(part.startOffset(), part.endOffset()));
+    }
+}
@@ -0,0 +1,373 @@
+package net.sberg.openkim.pipeline.atomics.mail.stream;
+
+import jakarta.mail.internet.MimeUtility;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>MimeStreamParser class.</p>
+ * Event based MIME parser. The message is read once from front to back and reported to a {@link MimeVisitor},
+ * no {@link jakarta.mail.internet.MimeMessage} tree is built and no body is kept. Memory is bounded by the read
+ * buffer and the header block of the current part, independent of the message size.
+ * Multiparts at any depth and encapsulated {@code message/rfc822} parts are descended into.
+ * Header values are decoded as UTF-8 if they are valid UTF-8 and as ISO-8859-1 otherwise.
+ * The parser is stateless and can be shared between threads.
+ * <pre>{@code
+ * MimeStreamPart root = new MimeStreamParser().parse(in, new MimeVisitor() {
+ *     public boolean startBody(MimeStreamPart part) {
+ *         return MimeBodyPart.ATTACHMENT.equals(part.disposition());
+ *     }
+ *     public void body(MimeStreamPart part, byte[] buffer, int offset, int length) {
+ *         ...
+ *     }
+ * });
+ * }</pre>
+ */
+public class MimeStreamParser {
+
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+    public static final int DEFAULT_MAX_HEADER_SIZE = 256 * 1024;
+
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] LF = {'\n'};
+
+    private final int bufferSize;
+    private final int maxHeaderSize;
+
+    /**
+     * <p>Constructor for MimeStreamParser with default buffer and header limits.</p>
+     */
+    public MimeStreamParser() {
+        this(DEFAULT_BUFFER_SIZE, DEFAULT_MAX_HEADER_SIZE);
+    }
+
+    /**
+     * <p>Constructor for MimeStreamParser.</p>
+     *
+     * @param bufferSize size of the read buffer, lines above this size are reported in several body calls
+     * @param maxHeaderSize maximum size of the header block of one part
+     */
+    public MimeStreamParser(int bufferSize, int maxHeaderSize) {
+        if (bufferSize < 256)
+            throw new IllegalArgumentException("bufferSize must be at least 256 bytes!");
+        this.bufferSize = bufferSize;
+        this.maxHeaderSize = maxHeaderSize;
+    }
+
+    /**
+     * <p>parse.</p>
+     * The stream is read to its end but not closed.
+     *
+     * @param in a {@link InputStream} positioned at the start of the message
+     * @param visitor a {@link MimeVisitor} object
+     * @return the root part, the message itself
+     * @throws IOException if reading fails, a header block is too large or the visitor aborts
+     */
+    public MimeStreamPart parse(InputStream in, MimeVisitor visitor) throws IOException {
+        return new Run(in, visitor).parse();
+    }
+
+    int bufferSize() {
+        return bufferSize;
+    }
+
+    private enum Mode {
+        HEADERS, BODY, SKIP, PREAMBLE, EPILOGUE
+    }
+
+    /**
+     * A multipart with its boundary or an encapsulated message (boundary null) whose children are being parsed.
+     */
+    private record Frame(MimeStreamPart part, byte[] dashBoundary) {
+    }
+
+    private final class Run {
+
+        private final InputStream in;
+        private final MimeVisitor visitor;
+        private final byte[] buffer = new byte[bufferSize];
+        private final List<Frame> frames = new ArrayList<>();
+        private final StringBuilder header = new StringBuilder();
+
+        private long bufferOffset;
+        private int position;
+        private int limit;
+        private boolean eof;
+
+        private int chunkStart;
+        private int chunkLength;
+        private int chunkEol;
+        private long chunkOffset;
+        private boolean atLineStart;
+        private boolean previousEndedLine = true;
+        private long previousEolOffset = -1;
+
+        private Mode mode = Mode.HEADERS;
+        private MimeStreamPart current;
+        private int pendingEol;
+        private int headerSize;
+
+        Run(InputStream in, MimeVisitor visitor) {
+            this.in = in;
+            this.visitor = visitor;
+        }
+
+        MimeStreamPart parse() throws IOException {
+            MimeStreamPart root = new MimeStreamPart(null, 0);
+            startPart(root);
+            while (nextChunk()) {
+                if (!atLineStart || !boundary())
+                    content();
+                previousEolOffset = chunkEol > 0 ? chunkOffset + chunkLength - chunkEol : -1;
+            }
+            long end = bufferOffset + limit;
+            if (mode == Mode.BODY && pendingEol > 0)
+                visitor.body(current, pendingEol == 2 ? CRLF : LF, 0, pendingEol);
+            endCurrent(end);
+            while (!frames.isEmpty()) {
+                endPart(frames.remove(frames.size() - 1).part(), end);
+            }
+            return root;
+        }
+
+        private void content() throws IOException {
+            switch (mode) {
+                case HEADERS -> headerLine();
+                case BODY -> {
+                    if (pendingEol > 0)
+                        visitor.body(current, pendingEol == 2 ? CRLF : LF, 0, pendingEol);
+                    int length = chunkLength - chunkEol;
+                    if (length > 0)
+                        visitor.body(current, buffer, chunkStart, length);
+                    pendingEol = chunkEol;
+                }
+                default -> {
+                    // preamble, epilogue and skipped bodies are not reported
+                }
+            }
+        }
+
+        private void headerLine() throws IOException {
+            headerSize += chunkLength;
+            if (headerSize > maxHeaderSize)
+                throw new IOException("Header block of part " + current.id() + " exceeds " + maxHeaderSize + " bytes");
+            int length = chunkLength - chunkEol;
+            if (atLineStart && length == 0) {
+                endHeaders(chunkOffset + chunkLength);
+                return;
+            }
+            String line = decode(buffer, chunkStart, length);
+            if (atLineStart && !line.isEmpty() && line.charAt(0) != ' ' && line.charAt(0) != '\t')
+                flushHeader();
+            else if (atLineStart && !header.isEmpty())
+                header.append("\r\n");
+            header.append(line);
+        }
+
+        private void flushHeader() throws IOException {
+            if (header.isEmpty())
+                return;
+            String line = header.toString();
+            header.setLength(0);
+            current.addHeaderLine(line);
+            int colon = line.indexOf(':');
+            String name = colon > 0 ? line.substring(0, colon).trim() : line.trim();
+            String value = colon > 0 ? MimeUtility.unfold(line.substring(colon + 1)).trim() : "";
+            visitor.header(current, name, value);
+        }
+
+        private void endHeaders(long bodyOffset) throws IOException {
+            flushHeader();
+            headerSize = 0;
+            pendingEol = 0;
+            MimeStreamPart part = current;
+            part.setBodyOffset(bodyOffset);
+            boolean deliver = visitor.startBody(part);
+            if (part.isMultipart()) {
+                frames.add(new Frame(part, ("--" + part.boundary()).getBytes(StandardCharsets.ISO_8859_1)));
+                current = null;
+                mode = Mode.PREAMBLE;
+            } else if (part.isMessage()) {
+                frames.add(new Frame(part, null));
+                startPart(new MimeStreamPart(part, bodyOffset));
+            } else {
+                mode = deliver ? Mode.BODY : Mode.SKIP;
+            }
+        }
+
+        private void startPart(MimeStreamPart part) throws IOException {
+            current = part;
+            mode = Mode.HEADERS;
+            pendingEol = 0;
+            headerSize = 0;
+            visitor.startPart(part);
+        }
+
+        private void endCurrent(long end) throws IOException {
+            if (current == null)
+                return;
+            if (mode == Mode.HEADERS) {
+                flushHeader();
+                current.setBodyOffset(end);
+                visitor.startBody(current);
+            }
+            MimeStreamPart part = current;
+            current = null;
+            endPart(part, end);
+        }
+
+        private void endPart(MimeStreamPart part, long end) throws IOException {
+            part.setEndOffset(end);
+            visitor.endPart(part);
+        }
+
+        /**
+         * Checks the chunk against the boundaries of all open multiparts, innermost first.
+         * A boundary of an outer multipart implicitly closes all inner parts.
+         */
+        private boolean boundary() throws IOException {
+            for (int i = frames.size() - 1; i >= 0; i--) {
+                byte[] dashBoundary = frames.get(i).dashBoundary();
+                if (dashBoundary == null)
+                    continue;
+                int match = match(dashBoundary);
+                if (match == 0)
+                    continue;
+
+                long end = previousEolOffset >= 0 ? previousEolOffset : chunkOffset;
+                endCurrent(end);
+                while (frames.size() > i + 1) {
+                    endPart(frames.remove(frames.size() - 1).part(), end);
+                }
+                if (match == 2) {
+                    mode = Mode.EPILOGUE;
+                } else {
+                    MimeStreamPart multipart = frames.get(i).part();
+                    MimeStreamPart part = new MimeStreamPart(multipart, chunkOffset + chunkLength);
+                    part.setDelimiterOffset(Math.max(end, multipart.bodyOffset()));
+                    startPart(part);
+                }
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * @return 0 no boundary, 1 boundary, 2 close delimiter
+         */
+        private int match(byte[] dashBoundary) {
+            int length = chunkLength - chunkEol;
+            if (length < dashBoundary.length)
+                return 0;
+            for (int i = 0; i < dashBoundary.length; i++) {
+                if (buffer[chunkStart + i] != dashBoundary[i])
+                    return 0;
+            }
+            int i = chunkStart + dashBoundary.length;
+            int end = chunkStart + length;
+            int result = 1;
+            if (i + 1 < end && buffer[i] == '-' && buffer[i + 1] == '-') {
+                result = 2;
+                i += 2;
+            }
+            for (; i < end; i++) {
+                if (buffer[i] != ' ' && buffer[i] != '\t')
+                    return 0;
+            }
+            return result;
+        }
+
+        /**
+         * Next line of the stream, or the next buffer sized piece of a longer line.
+         */
+        private boolean nextChunk() throws IOException {
+            atLineStart = previousEndedLine;
+            if (position >= limit && !fill())
+                return false;
+            int newline = indexOfNewline(position);
+            while (newline < 0 && !eof && limit - position < buffer.length) {
+                int searched = limit - position;
+                compact();
+                if (!readMore())
+                    break;
+                newline = indexOfNewline(searched);
+            }
+            int end;
+            if (newline >= 0) {
+                end = newline + 1;
+                chunkEol = newline > position && buffer[newline - 1] == '\r' ? 2 : 1;
+            } else {
+                end = limit;
+                // do not split a CRLF between two chunks
+                if (!eof && end - position > 1 && buffer[end - 1] == '\r')
+                    end--;
+                chunkEol = 0;
+            }
+            chunkStart = position;
+            chunkLength = end - position;
+            chunkOffset = bufferOffset + position;
+            position = end;
+            previousEndedLine = chunkEol > 0;
+            return true;
+        }
+
+        private int indexOfNewline(int from) {
+            for (int i = from; i < limit; i++) {
+                if (buffer[i] == '\n')
+                    return i;
+            }
+            return -1;
+        }
+
+        private boolean fill() throws IOException {
+            bufferOffset += limit;
+            position = 0;
+            limit = 0;
+            return readMore();
+        }
+
+        private void compact() {
+            System.arraycopy(buffer, position, buffer, 0, limit - position);
+            bufferOffset += position;
+            limit -= position;
+            position = 0;
+        }
+
+        private boolean readMore() throws IOException {
+            int read = in.read(buffer, limit, buffer.length - limit);
+            if (read < 0) {
+                eof = true;
+                return false;
+            }
+            limit += read;
+            return true;
+        }
+    }
+
+    private static String decode(byte[] bytes, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            if (bytes[i] < 0)
+                return decodeNonAscii(bytes, offset, length);
+        }
+        return new String(bytes, offset, length, StandardCharsets.ISO_8859_1);
+    }
+
+    private static String decodeNonAscii(byte[] bytes, int offset, int length) {
+        try {
+            return StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPORT)
+                    .decode(ByteBuffer.wrap(bytes, offset, length))
+                    .toString();
+        } catch (CharacterCodingException e) {
+            return new String(bytes, offset, length, StandardCharsets.ISO_8859_1);
+        }
+    }
+}
@@ -0,0 +1,327 @@
+package net.sberg.openkim.pipeline.atomics.mail.stream;
+
+import jakarta.mail.internet.ContentDisposition;
+import jakarta.mail.internet.ContentType;
+import jakarta.mail.internet.InternetHeaders;
+import jakarta.mail.internet.MimeUtility;
+import jakarta.mail.internet.ParseException;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Locale;
+
+/**
+ * <p>MimeStreamPart class.</p>
+ * A part seen by the {@link MimeStreamParser}: its position in the tree, its headers and its byte offsets
+ * in the parsed stream. The body is not kept. Offsets are absolute positions in the stream, the body ends
+ * before the line break that precedes the next boundary.
+ */
+public class MimeStreamPart {
+
+    private final MimeStreamPart parent;
+    private final int index;
+    private final int depth;
+    private final String id;
+    private final long startOffset;
+    private final InternetHeaders headers = new InternetHeaders();
+    private ContentType contentType;
+    private long delimiterOffset;
+    private long bodyOffset = -1;
+    private long endOffset = -1;
+    private int childCount;
+
+    MimeStreamPart(MimeStreamPart parent, long startOffset) {
+        this.parent = parent;
+        this.startOffset = startOffset;
+        this.delimiterOffset = startOffset;
+        if (parent == null) {
+            this.index = 0;
+            this.depth = 0;
+            this.id = "";
+        } else {
+            this.index = parent.childCount++;
+            this.depth = parent.depth + 1;
+            this.id = parent.id.isEmpty() ? String.valueOf(index + 1) : parent.id + "." + (index + 1);
+        }
+    }
+
+    /**
+     * <p>id.</p>
+     *
+     * @return dotted 1 based position like IMAP part numbers, e.g. {@code 2.1}, the empty String for the message itself
+     */
+    public String id() {
+        return id;
+    }
+
+    /**
+     * <p>parent.</p>
+     *
+     * @return the enclosing multipart or message part, null for the message itself
+     */
+    public MimeStreamPart parent() {
+        return parent;
+    }
+
+    /**
+     * <p>index.</p>
+     *
+     * @return 0 based index within the parent
+     */
+    public int index() {
+        return index;
+    }
+
+    /**
+     * <p>depth.</p>
+     *
+     * @return 0 for the message itself
+     */
+    public int depth() {
+        return depth;
+    }
+
+    /**
+     * <p>childCount.</p>
+     *
+     * @return number of child parts seen so far
+     */
+    public int childCount() {
+        return childCount;
+    }
+
+    /**
+     * <p>headers.</p>
+     *
+     * @return the headers, complete from {@link MimeVisitor#startBody(MimeStreamPart)} on
+     */
+    public InternetHeaders headers() {
+        return headers;
+    }
+
+    /**
+     * <p>header.</p>
+     *
+     * @param name the header name
+     * @return the first value of the header or null
+     */
+    public String header(String name) {
+        return headers.getHeader(name, null);
+    }
+
+    /**
+     * <p>contentType.</p>
+     * Defaults to {@code text/plain}, or {@code message/rfc822} inside a {@code multipart/digest}.
+     * An unparsable Content-Type is reported as {@code application/octet-stream}.
+     *
+     * @return a {@link ContentType} object
+     */
+    public ContentType contentType() {
+        if (contentType == null)
+            contentType = parseContentType();
+        return contentType;
+    }
+
+    /**
+     * <p>mimeType.</p>
+     *
+     * @return lower case base type, e.g. {@code text/plain}
+     */
+    public String mimeType() {
+        return contentType().getBaseType().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * <p>isMultipart.</p>
+     *
+     * @return true if the part is a multipart with boundary
+     */
+    public boolean isMultipart() {
+        return contentType().getPrimaryType().equalsIgnoreCase("multipart") && boundary() != null;
+    }
+
+    /**
+     * <p>isMessage.</p>
+     *
+     * @return true if the part is an encapsulated message that is not transfer encoded
+     */
+    public boolean isMessage() {
+        if (!mimeType().equals("message/rfc822"))
+            return false;
+        String encoding = transferEncoding();
+        return encoding.equals("7bit") || encoding.equals("8bit") || encoding.equals("binary");
+    }
+
+    /**
+     * <p>isLeaf.</p>
+     *
+     * @return true if the part has no child parts
+     */
+    public boolean isLeaf() {
+        return !isMultipart() && !isMessage();
+    }
+
+    /**
+     * <p>boundary.</p>
+     *
+     * @return the multipart boundary or null
+     */
+    public String boundary() {
+        return contentType().getParameter("boundary");
+    }
+
+    /**
+     * <p>disposition.</p>
+     *
+     * @return lower case disposition, e.g. {@code attachment}, or null
+     */
+    public String disposition() {
+        String value = header("Content-Disposition");
+        if (value == null)
+            return null;
+        try {
+            String disposition = new ContentDisposition(value).getDisposition();
+            return disposition != null ? disposition.toLowerCase(Locale.ROOT) : null;
+        } catch (ParseException e) {
+            return null;
+        }
+    }
+
+    /**
+     * <p>fileName.</p>
+     * The {@code filename} of the Content-Disposition or the {@code name} of the Content-Type,
+     * RFC 2047 encoded words are decoded.
+     *
+     * @return the file name or null
+     */
+    public String fileName() {
+        String fileName = null;
+        String value = header("Content-Disposition");
+        if (value != null) {
+            try {
+                fileName = new ContentDisposition(value).getParameter("filename");
+            } catch (ParseException e) {
+                // fall back to the content type name
+            }
+        }
+        if (fileName == null)
+            fileName = contentType().getParameter("name");
+        if (fileName != null && fileName.contains("=?")) {
+            try {
+                fileName = MimeUtility.decodeText(fileName);
+            } catch (UnsupportedEncodingException e) {
+                // keep the encoded name
+            }
+        }
+        return fileName;
+    }
+
+    /**
+     * <p>transferEncoding.</p>
+     *
+     * @return lower case Content-Transfer-Encoding, {@code 7bit} if not set
+     */
+    public String transferEncoding() {
+        String value = header("Content-Transfer-Encoding");
+        return value != null ? value.trim().toLowerCase(Locale.ROOT) : "7bit";
+    }
+
+    /**
+     * <p>startOffset.</p>
+     *
+     * @return offset of the first header line
+     */
+    public long startOffset() {
+        return startOffset;
+    }
+
+    /**
+     * <p>delimiterOffset.</p>
+     * For a part of a multipart the start of the line break before its boundary line, which belongs to the
+     * delimiter (RFC 2046), or of the boundary line if there is no line break in the multipart body before it.
+     * Removing the bytes from delimiterOffset to {@link #endOffset()} removes the part and its delimiter.
+     *
+     * @return offset of the delimiter, startOffset for parts that are not in a multipart
+     */
+    public long delimiterOffset() {
+        return delimiterOffset;
+    }
+
+    /**
+     * <p>bodyOffset.</p>
+     *
+     * @return offset of the first body byte, -1 before the end of the header block
+     */
+    public long bodyOffset() {
+        return bodyOffset;
+    }
+
+    /**
+     * <p>endOffset.</p>
+     *
+     * @return offset after the last body byte, -1 before {@link MimeVisitor#endPart(MimeStreamPart)}
+     */
+    public long endOffset() {
+        return endOffset;
+    }
+
+    /**
+     * <p>encodedSize.</p>
+     *
+     * @return size of the transfer encoded body, -1 before {@link MimeVisitor#endPart(MimeStreamPart)}
+     */
+    public long encodedSize() {
+        return endOffset < 0 || bodyOffset < 0 ? -1 : endOffset - bodyOffset;
+    }
+
+    /**
+     * <p>estimatedDecodedSize.</p>
+     * Exact for identity encodings, base64 is estimated with 76 character lines and quoted-printable with its
+     * encoded size as upper bound.
+     *
+     * @return estimated size of the decoded body, -1 before {@link MimeVisitor#endPart(MimeStreamPart)}
+     */
+    public long estimatedDecodedSize() {
+        long size = encodedSize();
+        if (size <= 0)
+            return size;
+        return transferEncoding().equals("base64") ? size * 57 / 78 : size;
+    }
+
+    void addHeaderLine(String line) {
+        headers.addHeaderLine(line);
+        contentType = null;
+    }
+
+    void setDelimiterOffset(long delimiterOffset) {
+        this.delimiterOffset = delimiterOffset;
+    }
+
+    void setBodyOffset(long bodyOffset) {
+        this.bodyOffset = bodyOffset;
+    }
+
+    void setEndOffset(long endOffset) {
+        if (bodyOffset < 0)
+            bodyOffset = endOffset;
+        this.endOffset = Math.max(endOffset, bodyOffset);
+    }
+
+    private ContentType parseContentType() {
+        String value = header("Content-Type");
+        if (value == null || value.isBlank()) {
+            boolean digest = parent != null && parent.mimeType().equals("multipart/digest");
+            return digest ? new ContentType("message", "rfc822", null) : new ContentType("text", "plain", null);
+        }
+        try {
+            return new ContentType(value);
+        } catch (ParseException e) {
+            return new ContentType("application", "octet-stream", null);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "MimeStreamPart{id=" + id + ", type=" + mimeType() + ", start=" + startOffset
+                + ", body=" + bodyOffset + ", end=" + endOffset + "}";
+    }
+}
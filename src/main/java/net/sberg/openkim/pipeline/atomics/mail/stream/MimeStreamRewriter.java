@@ -0,0 +1,249 @@
+package net.sberg.openkim.pipeline.atomics.mail.stream;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * <p>MimeStreamRewriter class.</p>
+ * Copies a message byte by byte from an InputStream to an OutputStream and leaves out the parts of multiparts at
+ * any depth that match a predicate, together with their delimiter. No {@link jakarta.mail.internet.MimeMessage}
+ * is built and nothing else is re-encoded: headers, preambles, epilogues, boundaries and the kept parts are written
+ * as read. Memory is bounded by the {@link MimeStreamParser} buffer and the header block of the current part,
+ * a removed part is dropped while it is read.
+ * <p>
+ * The predicate is tested with the headers of every part of a multipart that is not inside a removed part, its
+ * size is not known yet. The message itself and encapsulated messages are never removed. If all parts of a
+ * multipart are removed, an empty {@code text/plain} part is written before its close delimiter so the multipart
+ * stays valid.
+ * <pre>{@code
+ * new MimeStreamRewriter(part -> MimeBodyPart.ATTACHMENT.equals(part.disposition())).rewrite(in, out);
+ * }</pre>
+ * The rewriter is stateless and can be shared between threads.
+ */
+public class MimeStreamRewriter {
+
+    private final MimeStreamParser parser;
+    private final Predicate<MimeStreamPart> remove;
+
+    /**
+     * <p>Constructor for MimeStreamRewriter with a default parser.</p>
+     *
+     * @param remove true for the parts to remove
+     */
+    public MimeStreamRewriter(Predicate<MimeStreamPart> remove) {
+        this(new MimeStreamParser(), remove);
+    }
+
+    /**
+     * <p>Constructor for MimeStreamRewriter.</p>
+     *
+     * @param parser a {@link MimeStreamParser} object
+     * @param remove true for the parts to remove
+     */
+    public MimeStreamRewriter(MimeStreamParser parser, Predicate<MimeStreamPart> remove) {
+        this.parser = Objects.requireNonNull(parser);
+        this.remove = Objects.requireNonNull(remove);
+    }
+
+    /**
+     * <p>rewrite.</p>
+     * The input is read to its end, neither stream is closed.
+     *
+     * @param in a {@link InputStream} positioned at the start of the message
+     * @param out the rewritten message is written to, flushed at the end
+     * @return a {@link Result} object
+     * @throws IOException if reading or writing fails or a header block is too large
+     */
+    public Result rewrite(InputStream in, OutputStream out) throws IOException {
+        Run run = new Run(out);
+        MimeStreamPart root = parser.parse(run.new Tee(in), run);
+        run.finish();
+        return new Result(root, run.removed, run.read, run.written);
+    }
+
+    /**
+     * Result of a rewrite.
+     *
+     * @param root the root part of the input message, offsets are positions in the input
+     * @param removed the removed parts in document order, nested parts of a removed part are not listed
+     * @param bytesRead size of the input message
+     * @param bytesWritten size of the written message
+     */
+    public record Result(MimeStreamPart root, List<MimeStreamPart> removed, long bytesRead, long bytesWritten) {
+    }
+
+    private static final byte[] EMPTY_PART_HEADERS =
+            "\r\nContent-Type: text/plain; charset=us-ascii\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+
+    /**
+     * Read bytes stay in a window until it is known whether they are written or dropped. Bytes the parser has
+     * reported are decided unless they belong to a part whose headers are not complete, or follow the last removed
+     * part of a multipart without kept parts, where an empty part may be inserted.
+     */
+    private final class Run implements MimeVisitor {
+
+        private final OutputStream out;
+        private final int margin = parser.bufferSize() + 2;
+        private final List<MimeStreamPart> removed = new ArrayList<>();
+        private final Set<MimeStreamPart> withKeptPart = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        private byte[] window = new byte[2 * parser.bufferSize()];
+        private int windowLength;
+        private long windowStart;
+        private long read;
+        private long written;
+
+        private MimeStreamPart undecided;
+        private MimeStreamPart removing;
+        private MimeStreamPart holding;
+        private long holdOffset;
+
+        Run(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void startPart(MimeStreamPart part) {
+            if (removing == null && part.parent() != null && part.parent().isMultipart())
+                undecided = part;
+        }
+
+        @Override
+        public boolean startBody(MimeStreamPart part) throws IOException {
+            if (part != undecided)
+                return false;
+            undecided = null;
+            if (remove.test(part)) {
+                write(part.delimiterOffset());
+                removing = part;
+                removed.add(part);
+            } else {
+                withKeptPart.add(part.parent());
+                if (holding == part.parent())
+                    holding = null;
+            }
+            return false;
+        }
+
+        @Override
+        public void endPart(MimeStreamPart part) throws IOException {
+            if (part == removing) {
+                drop(part.endOffset());
+                removing = null;
+                if (!withKeptPart.contains(part.parent())) {
+                    holding = part.parent();
+                    holdOffset = part.endOffset();
+                }
+            }
+            if (part == holding) {
+                write(holdOffset);
+                writeDirect(("\r\n--" + part.boundary()).getBytes(StandardCharsets.ISO_8859_1));
+                writeDirect(EMPTY_PART_HEADERS);
+                holding = null;
+            }
+            withKeptPart.remove(part);
+        }
+
+        /**
+         * Called after every read of the parser, all but the last {@code margin} bytes have been reported.
+         */
+        void reported() throws IOException {
+            long offset = read - margin;
+            if (removing != null) {
+                drop(offset);
+                return;
+            }
+            if (undecided != null)
+                offset = Math.min(offset, undecided.delimiterOffset());
+            if (holding != null)
+                offset = Math.min(offset, holdOffset);
+            write(offset);
+        }
+
+        void finish() throws IOException {
+            write(read);
+            out.flush();
+        }
+
+        private void write(long offset) throws IOException {
+            int length = length(offset);
+            out.write(window, 0, length);
+            written += length;
+            consume(length);
+        }
+
+        private void writeDirect(byte[] bytes) throws IOException {
+            out.write(bytes);
+            written += bytes.length;
+        }
+
+        private void drop(long offset) {
+            consume(length(offset));
+        }
+
+        private int length(long offset) {
+            return (int) Math.max(0, Math.min(offset, read) - windowStart);
+        }
+
+        private void consume(int length) {
+            if (length == 0)
+                return;
+            System.arraycopy(window, length, window, 0, windowLength - length);
+            windowLength -= length;
+            windowStart += length;
+        }
+
+        private void append(byte[] bytes, int offset, int length) {
+            if (windowLength + length > window.length)
+                window = Arrays.copyOf(window, Math.max(2 * window.length, windowLength + length));
+            System.arraycopy(bytes, offset, window, windowLength, length);
+            windowLength += length;
+            read += length;
+        }
+
+        private final class Tee extends FilterInputStream {
+
+            private final byte[] single = new byte[1];
+
+            Tee(InputStream in) {
+                super(in);
+            }
+
+            @Override
+            public int read() throws IOException {
+                return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int count = in.read(b, off, len);
+                if (count > 0) {
+                    append(b, off, count);
+                    reported();
+                }
+                return count;
+            }
+
+            @Override
+            public long skip(long n) {
+                return 0;
+            }
+
+            @Override
+            public boolean markSupported() {
+                return false;
+            }
+        }
+    }
+}
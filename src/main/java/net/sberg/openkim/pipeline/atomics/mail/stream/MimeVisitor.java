@@ -0,0 +1,68 @@
+package net.sberg.openkim.pipeline.atomics.mail.stream;
+
+import java.io.IOException;
+
+/**
+ * <p>MimeVisitor interface.</p>
+ * Callbacks of the {@link MimeStreamParser}, invoked in document order during one forward pass:
+ * <pre>
+ * startPart  header*  startBody  (body* | child parts)  endPart
+ * </pre>
+ * Body bytes are the raw, still transfer encoded content of leaf parts, see {@link TransferDecoder} to decode them.
+ * The byte arrays are reused by the parser and only valid during the callback.
+ */
+public interface MimeVisitor {
+
+    /**
+     * <p>startPart.</p>
+     *
+     * @param part the new part, its headers are not parsed yet
+     * @throws IOException to abort parsing
+     */
+    default void startPart(MimeStreamPart part) throws IOException {
+    }
+
+    /**
+     * <p>header.</p>
+     *
+     * @param part the current part
+     * @param name the header name
+     * @param value the unfolded raw header value
+     * @throws IOException to abort parsing
+     */
+    default void header(MimeStreamPart part, String name, String value) throws IOException {
+    }
+
+    /**
+     * <p>startBody.</p>
+     * Called after the header block of a part.
+     *
+     * @param part the current part with all headers
+     * @return false to skip the body bytes of this leaf part, child parts of a multipart are always visited
+     * @throws IOException to abort parsing
+     */
+    default boolean startBody(MimeStreamPart part) throws IOException {
+        return true;
+    }
+
+    /**
+     * <p>body.</p>
+     *
+     * @param part the current leaf part
+     * @param buffer raw body bytes, only valid during the call
+     * @param offset start in buffer
+     * @param length number of bytes
+     * @throws IOException to abort parsing
+     */
+    default void body(MimeStreamPart part, byte[] buffer, int offset, int length) throws IOException {
+    }
+
+    /**
+     * <p>endPart.</p>
+     *
+     * @param part the finished part, all offsets are known
+     * @throws IOException to abort parsing
+     */
+    default void endPart(MimeStreamPart part) throws IOException {
+    }
+}
@@ -0,0 +1,339 @@
+package net.sberg.openkim.pipeline.atomics.mail.stream;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * <p>TransferDecoder class.</p>
+ * Push based Content-Transfer-Encoding decoders for the body bytes of a {@link MimeVisitor}.
+ * {@link jakarta.mail.internet.MimeUtility#decode(java.io.InputStream, String)} needs an InputStream,
+ * these decoders are OutputStreams the raw bytes are written to.
+ */
+public final class TransferDecoder {
+
+    private TransferDecoder() {
+    }
+
+    /**
+     * <p>isSupported.</p>
+     *
+     * @param encoding Content-Transfer-Encoding, e.g. {@link MimeStreamPart#transferEncoding()}
+     * @return true if {@link #decoding(String, OutputStream)} can decode it
+     */
+    public static boolean isSupported(String encoding) {
+        return switch (normalize(encoding)) {
+            case "base64", "quoted-printable", "uuencode", "x-uuencode", "x-uue", "7bit", "8bit", "binary" -> true;
+            default -> false;
+        };
+    }
+
+    /**
+     * <p>decoding.</p>
+     * Supports base64, quoted-printable, uuencode (also x-uuencode and x-uue), 7bit, 8bit and binary.
+     *
+     * @param encoding Content-Transfer-Encoding, e.g. {@link MimeStreamPart#transferEncoding()}
+     * @param out receives the decoded bytes, closed together with the returned stream
+     * @return a {@link OutputStream} the encoded bytes are written to
+     * @throws IOException if the encoding is not supported
+     */
+    public static OutputStream decoding(String encoding, OutputStream out) throws IOException {
+        return switch (normalize(encoding)) {
+            case "base64" -> new Base64DecodingOutputStream(out);
+            case "quoted-printable" -> new QuotedPrintableDecodingOutputStream(out);
+            case "uuencode", "x-uuencode", "x-uue" -> new UUDecodingOutputStream(out);
+            case "7bit", "8bit", "binary" -> out;
+            default -> throw new IOException("Unsupported Content-Transfer-Encoding: " + encoding);
+        };
+    }
+
+    private static String normalize(String encoding) {
+        return encoding == null ? "7bit" : encoding.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static final class Base64DecodingOutputStream extends FilterOutputStream {
+
+        private static final byte[] VALUES = new byte[256];
+
+        static {
+            Arrays.fill(VALUES, (byte) -1);
+            String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+            for (int i = 0; i < alphabet.length(); i++) {
+                VALUES[alphabet.charAt(i)] = (byte) i;
+            }
+        }
+
+        private final byte[] decoded = new byte[3 * 1024];
+        private int decodedLength;
+        private int quantum;
+        private int quantumLength;
+        private boolean padded;
+
+        Base64DecodingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            for (int i = off; i < off + len; i++) {
+                int c = b[i] & 0xff;
+                if (c == '=') {
+                    finishQuantum();
+                    continue;
+                }
+                int value = VALUES[c];
+                if (value < 0 || padded)
+                    continue;
+                quantum = quantum << 6 | value;
+                if (++quantumLength == 4) {
+                    if (decodedLength + 3 > decoded.length)
+                        flushDecoded();
+                    decoded[decodedLength++] = (byte) (quantum >> 16);
+                    decoded[decodedLength++] = (byte) (quantum >> 8);
+                    decoded[decodedLength++] = (byte) quantum;
+                    quantum = 0;
+                    quantumLength = 0;
+                }
+            }
+            flushDecoded();
+        }
+
+        private void finishQuantum() throws IOException {
+            if (padded)
+                return;
+            padded = true;
+            if (decodedLength + 2 > decoded.length)
+                flushDecoded();
+            if (quantumLength == 2) {
+                decoded[decodedLength++] = (byte) (quantum >> 4);
+            } else if (quantumLength == 3) {
+                decoded[decodedLength++] = (byte) (quantum >> 10);
+                decoded[decodedLength++] = (byte) (quantum >> 2);
+            }
+            quantum = 0;
+            quantumLength = 0;
+        }
+
+        private void flushDecoded() throws IOException {
+            if (decodedLength > 0) {
+                out.write(decoded, 0, decodedLength);
+                decodedLength = 0;
+            }
+        }
+    }
+
+    private static final class QuotedPrintableDecodingOutputStream extends FilterOutputStream {
+
+        private final byte[] decoded = new byte[4096];
+        private final byte[] whitespace = new byte[256];
+        private int decodedLength;
+        private int whitespaceLength;
+        private int state;
+        private int high;
+
+        QuotedPrintableDecodingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            for (int i = off; i < off + len; i++) {
+                decode(b[i]);
+            }
+            flushDecoded();
+        }
+
+        /**
+         * state 0: text, 1: after '=' and whitespace, 2: after '=' and one hex digit, 3: after "=\r"
+         */
+        private void decode(byte b) throws IOException {
+            switch (state) {
+                case 0 -> {
+                    if (b == '=') {
+                        // whitespace before an escape or a soft line break is content
+                        flushWhitespace();
+                        state = 1;
+                    } else if (b == ' ' || b == '\t') {
+                        if (whitespaceLength == whitespace.length)
+                            flushWhitespace();
+                        whitespace[whitespaceLength++] = b;
+                    } else if (b == '\r' || b == '\n') {
+                        // trailing whitespace of a line is removed
+                        whitespaceLength = 0;
+                        emit(b);
+                    } else {
+                        flushWhitespace();
+                        emit(b);
+                    }
+                }
+                case 1 -> {
+                    if (b == '\r') {
+                        // whitespace between '=' and the soft line break is removed
+                        whitespaceLength = 0;
+                        state = 3;
+                    } else if (b == '\n') {
+                        whitespaceLength = 0;
+                        state = 0;
+                    } else if ((b == ' ' || b == '\t') && whitespaceLength < whitespace.length) {
+                        whitespace[whitespaceLength++] = b;
+                    } else if (whitespaceLength == 0 && Character.digit(b, 16) >= 0) {
+                        high = b;
+                        state = 2;
+                    } else {
+                        // no escape and no soft line break, '=' and the whitespace after it are literal
+                        emit((byte) '=');
+                        flushWhitespace();
+                        state = 0;
+                        decode(b);
+                    }
+                }
+                case 2 -> {
+                    int low = Character.digit(b, 16);
+                    if (low >= 0) {
+                        emit((byte) (Character.digit(high, 16) << 4 | low));
+                    } else {
+                        emit((byte) '=');
+                        emit((byte) high);
+                    }
+                    state = 0;
+                    if (low < 0)
+                        decode(b);
+                }
+                default -> {
+                    state = 0;
+                    if (b != '\n')
+                        decode(b);
+                }
+            }
+        }
+
+        private void flushWhitespace() throws IOException {
+            for (int i = 0; i < whitespaceLength; i++) {
+                emit(whitespace[i]);
+            }
+            whitespaceLength = 0;
+        }
+
+        private void emit(byte b) throws IOException {
+            if (decodedLength == decoded.length)
+                flushDecoded();
+            decoded[decodedLength++] = b;
+        }
+
+        private void flushDecoded() throws IOException {
+            if (decodedLength > 0) {
+                out.write(decoded, 0, decodedLength);
+                decodedLength = 0;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            // like a line end, the end of the content removes trailing whitespace, an escape cut off is literal
+            whitespaceLength = 0;
+            if (state == 2) {
+                emit((byte) '=');
+                emit((byte) high);
+            }
+            state = 0;
+            flushDecoded();
+            super.close();
+        }
+    }
+
+    /**
+     * Decodes uuencoded lines, an optional {@code begin} line is skipped and the data ends with the empty line or
+     * the {@code end} line.
+     */
+    private static final class UUDecodingOutputStream extends FilterOutputStream {
+
+        private byte[] line = new byte[128];
+        private int lineLength;
+        private boolean started;
+        private boolean ended;
+
+        UUDecodingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (b == '\n') {
+                decodeLine();
+                return;
+            }
+            if (lineLength == line.length)
+                line = Arrays.copyOf(line, line.length * 2);
+            line[lineLength++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            for (int i = off; i < off + len; i++) {
+                write(b[i]);
+            }
+        }
+
+        private void decodeLine() throws IOException {
+            int length = lineLength;
+            lineLength = 0;
+            if (length > 0 && line[length - 1] == '\r')
+                length--;
+            if (ended || length == 0)
+                return;
+            String text = new String(line, 0, Math.min(length, 6), StandardCharsets.ISO_8859_1);
+            if (!started) {
+                started = true;
+                if (text.startsWith("begin ") || text.equals("begin"))
+                    return;
+            }
+            if (text.equals("end")) {
+                ended = true;
+                return;
+            }
+            int count = (line[0] - ' ') & 0x3f;
+            if (count == 0) {
+                ended = true;
+                return;
+            }
+            byte[] decoded = new byte[count];
+            int produced = 0;
+            for (int i = 1; produced < count; i += 4) {
+                int c0 = value(i, length);
+                int c1 = value(i + 1, length);
+                int c2 = value(i + 2, length);
+                int c3 = value(i + 3, length);
+                decoded[produced++] = (byte) (c0 << 2 | c1 >> 4);
+                if (produced < count)
+                    decoded[produced++] = (byte) (c1 << 4 | c2 >> 2);
+                if (produced < count)
+                    decoded[produced++] = (byte) (c2 << 6 | c3);
+            }
+            out.write(decoded, 0, count);
+        }
+
+        private int value(int index, int length) {
+            return index < length ? (line[index] - ' ') & 0x3f : 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (lineLength > 0)
+                decodeLine();
+            super.close();
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package net.sberg.openkim.pipeline.metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>LatencyHistogram class.</p>
+ * Lock free histogram with fixed bucket bounds. Every bucket is a striped {@link LongAdder}, so concurrent
+ * recordings do not contend on one cache line. Recording costs a binary search over the bounds and two increments.
+ */
+public final class LatencyHistogram {
+
+    /**
+     * Default upper bucket bounds in nanoseconds, from 100µs to 10s.
+     */
+    public static final long[] DEFAULT_BOUNDS = {
+            TimeUnit.MICROSECONDS.toNanos(100), TimeUnit.MICROSECONDS.toNanos(500),
+            TimeUnit.MILLISECONDS.toNanos(1), TimeUnit.MILLISECONDS.toNanos(5),
+            TimeUnit.MILLISECONDS.toNanos(10), TimeUnit.MILLISECONDS.toNanos(25),
+            TimeUnit.MILLISECONDS.toNanos(50), TimeUnit.MILLISECONDS.toNanos(100),
+            TimeUnit.MILLISECONDS.toNanos(250), TimeUnit.MILLISECONDS.toNanos(500),
+            TimeUnit.SECONDS.toNanos(1), TimeUnit.MILLISECONDS.toNanos(2500),
+            TimeUnit.SECONDS.toNanos(5), TimeUnit.SECONDS.toNanos(10)
+    };
+
+    private final long[] bounds;
+    private final LongAdder[] buckets;
+    private final LongAdder sumNanos = new LongAdder();
+
+    /**
+     * <p>Constructor for LatencyHistogram with {@link #DEFAULT_BOUNDS}.</p>
+     */
+    public LatencyHistogram() {
+        this(DEFAULT_BOUNDS);
+    }
+
+    /**
+     * <p>Constructor for LatencyHistogram.</p>
+     *
+     * @param bounds ascending upper bucket bounds in nanoseconds, an overflow bucket is added
+     */
+    public LatencyHistogram(long[] bounds) {
+        this.bounds = checkBounds(bounds);
+        this.buckets = new LongAdder[bounds.length + 1];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    static long[] checkBounds(long[] bounds) {
+        for (int i = 1; i < bounds.length; i++) {
+            if (bounds[i] <= bounds[i - 1])
+                throw new IllegalArgumentException("bounds must be strictly ascending!");
+        }
+        return bounds.clone();
+    }
+
+    /**
+     * <p>record.</p>
+     *
+     * @param nanos duration in nanoseconds
+     */
+    public void record(long nanos) {
+        int index = Arrays.binarySearch(bounds, nanos);
+        buckets[index >= 0 ? index : -index - 1].increment();
+        sumNanos.add(nanos);
+    }
+
+    /**
+     * <p>bounds.</p>
+     *
+     * @return copy of the upper bucket bounds in nanoseconds
+     */
+    public long[] bounds() {
+        return bounds.clone();
+    }
+
+    /**
+     * <p>counts.</p>
+     * Not cumulative, the last element counts durations above the highest bound.
+     *
+     * @return snapshot of the bucket counts
+     */
+    public long[] counts() {
+        long[] counts = new long[buckets.length];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = buckets[i].sum();
+        }
+        return counts;
+    }
+
+    /**
+     * <p>count.</p>
+     *
+     * @return number of recorded durations
+     */
+    public long count() {
+        long count = 0;
+        for (LongAdder bucket : buckets) {
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    /**
+     * <p>sumNanos.</p>
+     *
+     * @return sum of all recorded durations in nanoseconds
+     */
+    public long sumNanos() {
+        return sumNanos.sum();
+    }
+
+    /**
+     * <p>quantile.</p>
+     * Upper bound of the bucket that contains the quantile, {@link Long#MAX_VALUE} for the overflow bucket.
+     *
+     * @param quantile value between 0 and 1
+     * @return estimated duration in nanoseconds or 0 if nothing was recorded
+     */
+    public long quantile(double quantile) {
+        long[] counts = counts();
+        long total = 0;
+        for (long count : counts) {
+            total += count;
+        }
+        if (total == 0)
+            return 0;
+        long rank = (long) Math.ceil(quantile * total);
+        long seen = 0;
+        for (int i = 0; i < bounds.length; i++) {
+            seen += counts[i];
+            if (seen >= rank)
+                return bounds[i];
+        }
+        return Long.MAX_VALUE;
+    }
+}
@@ -0,0 +1,93 @@
+package net.sberg.openkim.pipeline.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>OpMetrics class.</p>
+ * Call count, error counts by exception type and latency histogram of one pipeline op.
+ * All counters are striped {@link LongAdder}s and can be read while they are updated.
+ */
+public final class OpMetrics {
+
+    private final String name;
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final Map<Class<?>, LongAdder> errorsByType = new ConcurrentHashMap<>();
+    private final LatencyHistogram latency;
+
+    OpMetrics(String name, long[] bounds) {
+        this.name = name;
+        this.latency = new LatencyHistogram(bounds);
+    }
+
+    /**
+     * <p>record.</p>
+     *
+     * @param durationNanos duration of the call in nanoseconds
+     * @param error the thrown exception or null on success
+     */
+    public void record(long durationNanos, Throwable error) {
+        calls.increment();
+        latency.record(durationNanos);
+        if (error != null) {
+            errors.increment();
+            errorsByType.computeIfAbsent(error.getClass(), type -> new LongAdder()).increment();
+        }
+    }
+
+    /**
+     * <p>name.</p>
+     *
+     * @return name of the op
+     */
+    public String name() {
+        return name;
+    }
+
+    /**
+     * <p>calls.</p>
+     *
+     * @return number of calls, failed calls included
+     */
+    public long calls() {
+        return calls.sum();
+    }
+
+    /**
+     * <p>errors.</p>
+     *
+     * @return number of failed calls
+     */
+    public long errors() {
+        return errors.sum();
+    }
+
+    /**
+     * <p>errorsByType.</p>
+     *
+     * @return snapshot of the failed calls by exception class name, sorted by name
+     */
+    public Map<String, Long> errorsByType() {
+        Map<String, Long> result = new TreeMap<>();
+        errorsByType.forEach((type, count) -> result.put(type.getName(), count.sum()));
+        return result;
+    }
+
+    /**
+     * <p>latency.</p>
+     *
+     * @return a {@link LatencyHistogram} object
+     */
+    public LatencyHistogram latency() {
+        return latency;
+    }
+
+    @Override
+    public String toString() {
+        return "OpMetrics{name=" + name + ", calls=" + calls() + ", errors=" + errors()
+                + ", p50=" + latency.quantile(0.5) + "ns, p99=" + latency.quantile(0.99) + "ns}";
+    }
+}
@@ -0,0 +1,222 @@
+package net.sberg.openkim.pipeline.metrics;
+
+import net.sberg.openkim.pipeline.Contract;
+import net.sberg.openkim.pipeline.PipelineBuilder;
+import net.sberg.openkim.pipeline.PipelineOp;
+import net.sberg.openkim.pipeline.StageListener;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>PipelineMetrics class.</p>
+ * Registry of {@link OpMetrics} by op name. Ops are measured either by wrapping them with {@link #wrap(PipelineOp)}
+ * or by registering {@link #listener()} at a {@link PipelineBuilder}. The registry is thread safe, the values are
+ * pulled with {@link #metrics()} or written in the Prometheus text format with {@link #writePrometheus(Appendable)}.
+ * <pre>{@code
+ * PipelineMetrics metrics = new PipelineMetrics();
+ * PipelineOp pipeline = new PipelineBuilder()
+ *     .add(new MailGetMimeMessage())
+ *     .add(metrics.wrap("send", new MailSendMessage()))
+ *     .listener(metrics.listener())
+ *     .build();
+ * }</pre>
+ */
+public class PipelineMetrics {
+
+    private final Map<String, OpMetrics> metrics = new ConcurrentHashMap<>();
+    private final long[] bounds;
+
+    /**
+     * <p>Constructor for PipelineMetrics with {@link LatencyHistogram#DEFAULT_BOUNDS}.</p>
+     */
+    public PipelineMetrics() {
+        this(LatencyHistogram.DEFAULT_BOUNDS);
+    }
+
+    /**
+     * <p>Constructor for PipelineMetrics.</p>
+     *
+     * @param bounds ascending upper bucket bounds of the latency histograms in nanoseconds
+     */
+    public PipelineMetrics(long[] bounds) {
+        this.bounds = LatencyHistogram.checkBounds(bounds);
+    }
+
+    /**
+     * <p>wrap.</p>
+     * The metrics are registered under the simple class name of the op. Lambdas and anonymous classes have no stable
+     * name and need {@link #wrap(String, PipelineOp)}.
+     *
+     * @param op a {@link PipelineOp} object
+     * @return a measured {@link PipelineOp} with the same {@link Contract}
+     * @throws IllegalArgumentException if op is a lambda or an anonymous class
+     */
+    public PipelineOp wrap(PipelineOp op) {
+        String name = className(op);
+        if (name == null)
+            throw new IllegalArgumentException("PipelineOp " + op.getClass().getName()
+                    + " is a lambda or anonymous class, wrap it with an explicit name!");
+        return wrap(name, op);
+    }
+
+    /**
+     * <p>wrap.</p>
+     *
+     * @param name the name of the op in the metrics
+     * @param op a {@link PipelineOp} object
+     * @return a measured {@link PipelineOp} with the same {@link Contract}
+     */
+    public PipelineOp wrap(String name, PipelineOp op) {
+        return new MeteredOp(Objects.requireNonNull(name), Objects.requireNonNull(op));
+    }
+
+    /**
+     * <p>listener.</p>
+     * Records every stage of a compiled pipeline under the simple class name of the stage. Stages wrapped by this
+     * registry are not recorded again, stages wrapped by another registry are recorded under their name, lambdas and
+     * anonymous classes under {@code stage-<index>}.
+     *
+     * @return a {@link StageListener} object
+     */
+    public StageListener listener() {
+        return (stage, op, durationNanos, error) -> {
+            if (op instanceof MeteredOp metered && metered.registry() == this)
+                return;
+            String name = op instanceof MeteredOp metered ? metered.name : className(op);
+            metrics(name != null ? name : "stage-" + stage).record(durationNanos, error);
+        };
+    }
+
+    /**
+     * <p>metrics.</p>
+     *
+     * @param name the name of the op
+     * @return the {@link OpMetrics} of the op, created on first use
+     */
+    public OpMetrics metrics(String name) {
+        OpMetrics result = metrics.get(name);
+        return result != null ? result : metrics.computeIfAbsent(name, n -> new OpMetrics(n, bounds));
+    }
+
+    /**
+     * <p>metrics.</p>
+     *
+     * @return unmodifiable view of all {@link OpMetrics} sorted by name
+     */
+    public Map<String, OpMetrics> metrics() {
+        return Collections.unmodifiableMap(new TreeMap<>(metrics));
+    }
+
+    /**
+     * <p>reset.</p>
+     * Removes all recorded metrics, wrapped ops record into new {@link OpMetrics} of their name afterwards.
+     */
+    public void reset() {
+        metrics.clear();
+    }
+
+    /**
+     * <p>writePrometheus.</p>
+     * Writes a snapshot in the Prometheus text exposition format (version 0.0.4).
+     *
+     * @param out a {@link Appendable} object, e.g. a {@link java.io.Writer} or {@link StringBuilder}
+     * @throws IOException if out fails
+     */
+    public void writePrometheus(Appendable out) throws IOException {
+        Map<String, OpMetrics> snapshot = metrics();
+
+        out.append("# HELP pipeline_op_calls_total Executions of a pipeline op.\n");
+        out.append("# TYPE pipeline_op_calls_total counter\n");
+        for (OpMetrics op : snapshot.values()) {
+            out.append("pipeline_op_calls_total{op=\"").append(escape(op.name())).append("\"} ")
+                    .append(Long.toString(op.calls())).append('\n');
+        }
+
+        out.append("# HELP pipeline_op_errors_total Failed executions of a pipeline op by exception type.\n");
+        out.append("# TYPE pipeline_op_errors_total counter\n");
+        for (OpMetrics op : snapshot.values()) {
+            for (Map.Entry<String, Long> error : op.errorsByType().entrySet()) {
+                out.append("pipeline_op_errors_total{op=\"").append(escape(op.name()))
+                        .append("\",exception=\"").append(escape(error.getKey())).append("\"} ")
+                        .append(Long.toString(error.getValue())).append('\n');
+            }
+        }
+
+        out.append("# HELP pipeline_op_duration_seconds Duration of a pipeline op.\n");
+        out.append("# TYPE pipeline_op_duration_seconds histogram\n");
+        for (OpMetrics op : snapshot.values()) {
+            String label = escape(op.name());
+            long[] counts = op.latency().counts();
+            long cumulative = 0;
+            for (int i = 0; i < counts.length; i++) {
+                cumulative += counts[i];
+                String le = i < bounds.length ? Double.toString(bounds[i] / 1e9) : "+Inf";
+                out.append("pipeline_op_duration_seconds_bucket{op=\"").append(label).append("\",le=\"")
+                        .append(le).append("\"} ").append(Long.toString(cumulative)).append('\n');
+            }
+            out.append("pipeline_op_duration_seconds_sum{op=\"").append(label).append("\"} ")
+                    .append(Double.toString(op.latency().sumNanos() / 1e9)).append('\n');
+            out.append("pipeline_op_duration_seconds_count{op=\"").append(label).append("\"} ")
+                    .append(Long.toString(cumulative)).append('\n');
+        }
+    }
+
+    /**
+     * @return the simple class name or null for lambdas and anonymous classes
+     */
+    private static String className(PipelineOp op) {
+        Class<?> type = op.getClass();
+        if (type.isHidden() || type.isSynthetic() || type.isAnonymousClass() || type.getSimpleName().isEmpty())
+            return null;
+        return type.getSimpleName();
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private final class MeteredOp implements PipelineOp {
+
+        private final String name;
+        private final PipelineOp delegate;
+
+        MeteredOp(String name, PipelineOp delegate) {
+            this.name = name;
+            this.delegate = delegate;
+        }
+
+        PipelineMetrics registry() {
+            return PipelineMetrics.this;
+        }
+
+        // looked up per call, so a reset registry gets new entries
+        @Override
+        public Map<String,Object> execute(Map input) throws Exception {
+            long start = System.nanoTime();
+            try {
+                Map<String,Object> result = delegate.execute(input);
+                metrics(name).record(System.nanoTime() - start, null);
+                return result;
+            }
+            catch (Exception e) {
+                metrics(name).record(System.nanoTime() - start, e);
+                throw e;
+            }
+        }
+
+        @Override
+        public Contract contract() {
+            return delegate.contract();
+        }
+
+        @Override
+        public String toString() {
+            return "Metered(" + name + ")";
+        }
+    }
+}
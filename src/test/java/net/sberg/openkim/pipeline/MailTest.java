@@ -6,13 +6,36 @@ import jakarta.mail.internet.MimeBodyPart;
 import jakarta.mail.internet.MimeMessage;
 import jakarta.mail.internet.ParseException;
 import net.sberg.openkim.pipeline.atomics.mail.*;
+import net.sberg.openkim.pipeline.atomics.mail.stream.MimePartIndex;
+import net.sberg.openkim.pipeline.atomics.mail.stream.MimeStreamParser;
+import net.sberg.openkim.pipeline.atomics.mail.stream.MimeStreamPart;
+import net.sberg.openkim.pipeline.atomics.mail.stream.MimeStreamRewriter;
+import net.sberg.openkim.pipeline.atomics.mail.stream.MimeVisitor;
+import net.sberg.openkim.pipeline.atomics.mail.stream.TransferDecoder;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -61,6 +84,414 @@ public class MailTest extends MailKeys {
 
     }
 
+    @Test void testMailGetMimeMessageFileMode() throws Exception {
+
+        File file = new File("src/test/resources/testMailWithAttachments.eml");
+        for (String name : List.of("testMailWithAttachments.eml", "ContentTypeNull_Problem.eml")) {
+            Map<MailGetMimeMessage.Mode, byte[]> written = new EnumMap<>(MailGetMimeMessage.Mode.class);
+            for (MailGetMimeMessage.Mode mode : MailGetMimeMessage.Mode.values()) {
+                try (PipelineContext context = new PipelineContext()) {
+                    context.put(MAIL_FILE_KEY, new File("src/test/resources/" + name));
+                    context.put(MAIL_FILE_MODE_KEY, mode);
+                    new MailGetMimeMessage().andThen(new MailGetMimeBodyParts()).execute(context);
+
+                    assertEquals(mode == MailGetMimeMessage.Mode.SHARED, context.contains(PipelineContext.PIPELINE_RESOURCES_KEY));
+                    assertFalse(context.get(MAIL_MIMEBODYPARTS_KEY).isEmpty());
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    context.get(MAIL_MIMEMESSAGE_KEY).writeTo(out);
+                    written.put(mode, out.toByteArray());
+                }
+            }
+            assertArrayEquals(written.get(MailGetMimeMessage.Mode.HEAP), written.get(MailGetMimeMessage.Mode.SHARED));
+            assertArrayEquals(written.get(MailGetMimeMessage.Mode.HEAP), written.get(MailGetMimeMessage.Mode.MAPPED));
+        }
+
+        // a shared file is closed with the resources of the pipeline map
+        Map<String, Object> shared = new HashMap<>();
+        shared.put(MAIL_FILE, file);
+        shared.put(MAIL_FILE_MODE, MailGetMimeMessage.Mode.SHARED);
+        new MailGetMimeMessage().execute(shared);
+        PipelineContext.closeResources(shared);
+        assertFalse(shared.containsKey(PipelineContext.PIPELINE_RESOURCES));
+        MimeMessage closed = (MimeMessage) shared.get(MAIL_MIMEMESSAGE);
+        assertThrows(Exception.class, () -> closed.writeTo(OutputStream.nullOutputStream()));
+    }
+
+    @Test void testMailStreamSpill(@TempDir Path spillDir) throws Exception {
+
+        File file = new File("src/test/resources/testMailWithAttachments.eml");
+        byte[] expected = null;
+        for (int threshold : List.of((int) file.length(), 1024)) {
+            try (PipelineContext context = new PipelineContext();
+                 FileInputStream in = new FileInputStream(file)) {
+                context.put(MAIL_STREAM_KEY, in);
+                context.put(MAIL_STREAM_SPILL_THRESHOLD_KEY, threshold);
+                context.put(MAIL_STREAM_SPILL_DIR_KEY, spillDir.toString());
+                new MailGetMimeMessage().andThen(new MailGetMimeBodyParts()).execute(context);
+
+                boolean spilled = threshold < file.length();
+                assertEquals(spilled, context.contains(PipelineContext.PIPELINE_RESOURCES_KEY));
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                context.get(MAIL_MIMEMESSAGE_KEY).writeTo(out);
+                if (expected == null)
+                    expected = out.toByteArray();
+                assertArrayEquals(expected, out.toByteArray());
+            }
+            // the spill file is gone at the latest with the context
+            try (var files = Files.list(spillDir)) {
+                assertEquals(0L, files.count());
+            }
+        }
+    }
+
+    @Test void testMimeMessageCache(@TempDir Path dir) throws Exception {
+
+        File file = new File("src/test/resources/testMailWithAttachments.eml");
+        MimeMessageCache cache = new MimeMessageCache(file.length() + 1024);
+
+        Map<String, Object> expected = new HashMap<>();
+        expected.put(MAIL_FILE, file);
+        new MailGetMimeMessage().execute(expected);
+        ByteArrayOutputStream raw = new ByteArrayOutputStream();
+        ((MimeMessage) expected.get(MAIL_MIMEMESSAGE)).writeTo(raw);
+
+        List<MimeMessage> messages = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            Map<String, Object> input = new HashMap<>();
+            input.put(MAIL_FILE, file);
+            input.put(MAIL_MIMEMESSAGE_CACHE, cache);
+            new MailGetMimeMessage().execute(input);
+            messages.add((MimeMessage) input.get(MAIL_MIMEMESSAGE));
+        }
+        assertEquals(1L, cache.misses());
+        assertEquals(1L, cache.hits());
+        assertEquals(file.length(), cache.retainedBytes());
+
+        // changes of one message are not seen by the next one
+        String subject = messages.get(1).getSubject();
+        messages.get(0).setSubject("changed");
+        ((Multipart) messages.get(0).getContent()).removeBodyPart(0);
+        messages.get(0).saveChanges();
+        assertEquals(subject, messages.get(1).getSubject());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        messages.get(1).writeTo(out);
+        assertArrayEquals(raw.toByteArray(), out.toByteArray());
+
+        // streams are cached by Message-ID and not read on a hit
+        for (int i = 0; i < 2; i++) {
+            try (FileInputStream in = new FileInputStream("src/test/resources/testMail.eml")) {
+                Map<String, Object> input = new HashMap<>();
+                input.put(MAIL_STREAM, in);
+                input.put(MAIL_MIMEMESSAGE_CACHE, cache);
+                new MailGetMimeMessage().execute(input);
+                assertNotNull(((MimeMessage) input.get(MAIL_MIMEMESSAGE)).getMessageID());
+            }
+        }
+        assertEquals(2L, cache.hits());
+        assertEquals(2, cache.size());
+        assertTrue(cache.retainedBytes() <= cache.maxBytes());
+
+        // a changed modification time is a miss, the least recently used mail is evicted
+        Path copy = Files.copy(file.toPath(), dir.resolve("cached.eml"));
+        cache.load(null, copy);
+        Files.setLastModifiedTime(copy, FileTime.fromMillis(0));
+        long misses = cache.misses();
+        cache.load(null, copy);
+        assertEquals(misses + 1, cache.misses());
+        assertEquals(1, cache.size());
+        assertTrue(cache.evictions() >= 2);
+    }
+
+    @Test void testMailHeadersOnly() throws Exception {
+
+        PipelineOp triage = new MailGetMimeMessage()
+                .andThen(new MailGetSubject())
+                .andThen(new MailGetMsgID())
+                .andThen(new MailGetFrom())
+                .andThen(new MailGetRecipients())
+                .andThen(new MailGetHeader());
+
+        Map<String, Object> full = new HashMap<>();
+        full.put(MAIL_FILE, new File("src/test/resources/testMailWithAttachments.eml"));
+        full.put(MAIL_HEADER_NAMES, List.of("^Content-.*", "X-.*"));
+        triage.execute(full);
+
+        Map<String, Object> headersOnly = new HashMap<>(full);
+        headersOnly.put(MAIL_HEADERS_ONLY, true);
+        triage.execute(headersOnly);
+
+        MimeMessage message = (MimeMessage) headersOnly.get(MAIL_MIMEMESSAGE);
+        assertTrue(message instanceof HeaderOnlyMimeMessage);
+        for (String key : List.of(MAIL_SUBJECT, MAIL_MESSAGEID, MAIL_FROM, MAIL_RECIPIENTS)) {
+            assertEquals(full.get(key), headersOnly.get(key), key);
+        }
+        assertEquals(((List<Header>) full.get(MAIL_HEADER)).size(), ((List<Header>) headersOnly.get(MAIL_HEADER)).size());
+        assertThrows(MessagingException.class, message::getContent);
+
+        // the stream is consumed only up to the end of the header block
+        byte[] mail = Files.readAllBytes(Path.of("src/test/resources/testMailWithAttachments.eml"));
+        ByteArrayInputStream stream = new ByteArrayInputStream(mail);
+        Map<String, Object> fromStream = new HashMap<>();
+        fromStream.put(MAIL_STREAM, stream);
+        fromStream.put(MAIL_HEADERS_ONLY, true);
+        new MailGetMimeMessage().andThen(new MailGetSubject()).execute(fromStream);
+        assertEquals(full.get(MAIL_SUBJECT), fromStream.get(MAIL_SUBJECT));
+        assertTrue(stream.available() > mail.length / 2);
+    }
+
+    @Test void testMimeStreamParser() throws Exception {
+
+        for (String name : List.of("testMail.eml", "testMailWithAttachments.eml", "ContentTypeNull_Problem.eml")) {
+            byte[] mail = Files.readAllBytes(Path.of("src/test/resources", name));
+
+            // leaf parts of the MimeMessage tree: raw and decoded content
+            List<byte[]> raw = new ArrayList<>();
+            List<byte[]> decoded = new ArrayList<>();
+            Deque<Part> parts = new ArrayDeque<>(List.of(new MimeMessage(null, new ByteArrayInputStream(mail))));
+            while (!parts.isEmpty()) {
+                Part part = parts.pop();
+                if (part.isMimeType("multipart/*")) {
+                    Multipart multipart = (Multipart) part.getContent();
+                    for (int i = multipart.getCount() - 1; i >= 0; i--) {
+                        parts.push(multipart.getBodyPart(i));
+                    }
+                    continue;
+                }
+                raw.add(part instanceof MimeBodyPart bodyPart
+                        ? bodyPart.getRawInputStream().readAllBytes()
+                        : ((MimeMessage) part).getRawInputStream().readAllBytes());
+                decoded.add(part.getInputStream().readAllBytes());
+            }
+
+            List<byte[]> streamed = new ArrayList<>();
+            List<MimeStreamPart> leafs = new ArrayList<>();
+            MimeStreamPart root = new MimeStreamParser().parse(new ByteArrayInputStream(mail), new MimeVisitor() {
+                ByteArrayOutputStream body;
+                OutputStream decoder;
+
+                @Override
+                public boolean startBody(MimeStreamPart part) throws IOException {
+                    body = new ByteArrayOutputStream();
+                    decoder = TransferDecoder.decoding(part.transferEncoding(), body);
+                    return true;
+                }
+
+                @Override
+                public void body(MimeStreamPart part, byte[] buffer, int offset, int length) throws IOException {
+                    decoder.write(buffer, offset, length);
+                }
+
+                @Override
+                public void endPart(MimeStreamPart part) throws IOException {
+                    if (part.isLeaf()) {
+                        decoder.close();
+                        streamed.add(body.toByteArray());
+                        leafs.add(part);
+                    }
+                }
+            });
+
+            assertEquals((long) mail.length, root.endOffset(), name);
+            assertEquals(decoded.size(), streamed.size(), name);
+            for (int i = 0; i < decoded.size(); i++) {
+                MimeStreamPart leaf = leafs.get(i);
+                assertArrayEquals(raw.get(i), Arrays.copyOfRange(mail, (int) leaf.bodyOffset(), (int) leaf.endOffset()));
+                assertArrayEquals(decoded.get(i), streamed.get(i));
+            }
+        }
+    }
+
+    @Test void testMailStreamSaveAttachmentFile(@TempDir Path dir) throws Exception {
+
+        Path streamed = Files.createDirectory(dir.resolve("streamed"));
+        Path parsed = Files.createDirectory(dir.resolve("parsed"));
+
+        Map<String, Object> stream = new HashMap<>();
+        stream.put(MAIL_FILE, new File("src/test/resources/testMailWithAttachments.eml"));
+        stream.put(MAIL_SAVEATTACHMENTFILE_BASEDIR, streamed.toString());
+        new MailStreamSaveAttachmentFile().execute(stream);
+
+        Map<String, Object> tree = new HashMap<>();
+        tree.put(MAIL_FILE, new File("src/test/resources/testMailWithAttachments.eml"));
+        tree.put(MAIL_GETMIMEBODYPARTS_FILTER_DISPO, MimeBodyPart.ATTACHMENT);
+        tree.put(MAIL_SAVEATTACHMENTFILE_BASEDIR, parsed.toString());
+        new MailGetMimeMessage().andThen(new MailGetMimeBodyParts()).andThen(new MailSaveAttachmentFile()).execute(tree);
+
+        List<String> streamedFiles = (List<String>) stream.get(MAIL_SAVEATTACHMENTFILE_SAVEDFILES);
+        List<String> parsedFiles = (List<String>) tree.get(MAIL_SAVEATTACHMENTFILE_SAVEDFILES);
+        assertEquals(3, streamedFiles.size());
+        for (String file : parsedFiles) {
+            Path name = Path.of(file).getFileName();
+            assertArrayEquals(Files.readAllBytes(Path.of(file)),
+                    Files.readAllBytes(streamed.resolve(name)));
+        }
+    }
+
+    @Test void testMailStreamSaveAttachmentFileEncodings(@TempDir Path dir) throws Exception {
+
+        byte[] content = new byte[1000];
+        new Random(7).nextBytes(content);
+        ByteArrayOutputStream uuencoded = new ByteArrayOutputStream();
+        try (OutputStream out = jakarta.mail.internet.MimeUtility.encode(uuencoded, "x-uuencode", "data.bin")) {
+            out.write(content);
+        }
+        String mail = "Content-Type: multipart/mixed; boundary=b\r\n\r\n"
+                + "--b\r\nContent-Type: application/octet-stream\r\nContent-Transfer-Encoding: x-uuencode\r\n"
+                + "Content-Disposition: attachment; filename=data.bin\r\n\r\n"
+                + uuencoded.toString(StandardCharsets.ISO_8859_1) + "\r\n"
+                + "--b\r\nContent-Type: application/octet-stream\r\nContent-Transfer-Encoding: x-unknown\r\n"
+                + "Content-Disposition: attachment; filename=unknown.bin\r\n\r\nxyz\r\n--b--\r\n";
+
+        Map<String, Object> input = new HashMap<>();
+        input.put(MAIL_STREAM, new ByteArrayInputStream(mail.getBytes(StandardCharsets.ISO_8859_1)));
+        input.put(MAIL_SAVEATTACHMENTFILE_BASEDIR, dir.toString());
+        IOException e = assertThrows(IOException.class, () -> new MailStreamSaveAttachmentFile().execute(input));
+        assertTrue(e.getMessage().contains("x-unknown"));
+        // uuencode is decoded like MimeUtility does, no file is created for the unsupported encoding
+        assertArrayEquals(content, Files.readAllBytes(dir.resolve("data.bin")));
+        assertFalse(Files.exists(dir.resolve("unknown.bin")));
+        assertTrue(TransferDecoder.isSupported("UUENCODE"));
+        assertFalse(TransferDecoder.isSupported("x-unknown"));
+    }
+
+    @Test void testMailStreamSaveAttachmentFileQuotedPrintable(@TempDir Path dir) throws Exception {
+
+        // spaces before escapes and soft line breaks are content, trailing spaces of a line are not
+        String encoded = "a =3D b\r\nHello =C3=A4 world\r\nsoft  =\r\nnext\r\nliteral = sign\r\n"
+                + "trailing  \r\nx=3d\tb=\r\n =20\r\nend";
+        String mail = "Content-Type: multipart/mixed; boundary=b\r\n\r\n"
+                + "--b\r\nContent-Type: text/csv; charset=utf-8\r\nContent-Transfer-Encoding: quoted-printable\r\n"
+                + "Content-Disposition: attachment; filename=data.csv\r\n\r\n" + encoded + "\r\n--b--\r\n";
+
+        Map<String, Object> input = new HashMap<>();
+        input.put(MAIL_STREAM, new ByteArrayInputStream(mail.getBytes(StandardCharsets.US_ASCII)));
+        input.put(MAIL_SAVEATTACHMENTFILE_BASEDIR, dir.toString());
+        new MailStreamSaveAttachmentFile().execute(input);
+
+        byte[] expected = jakarta.mail.internet.MimeUtility.decode(
+                new ByteArrayInputStream(encoded.getBytes(StandardCharsets.US_ASCII)), "quoted-printable").readAllBytes();
+        assertEquals("a = b\r\nHello ä world\r\nsoft  next\r\nliteral = sign\r\ntrailing\r\nx=\tb  \r\nend",
+                new String(expected, StandardCharsets.UTF_8));
+        assertArrayEquals(expected, Files.readAllBytes(dir.resolve("data.csv")));
+    }
+
+    @Test void testMailPipelineContext() throws Exception {
+
+        PipelineContext context = new PipelineContext();
+        context.put(MAIL_FILE, new File("src/test/resources/testMail.eml"));
+
+        new MailGetMimeMessage()
+            .andThen(new MailGetSubject())
+            .andThen(new MailGetRecipients())
+            .execute(context);
+
+        assertEquals("Test", context.get(MAIL_SUBJECT_KEY));
+        assertEquals("Chirurgie_am_Goethepark_Cottbus.800704300@i-motion.kim.telematik",
+                context.get(MAIL_RECIPIENTS_KEY).get(0));
+        assertEquals("Test", context.get(MAIL_SUBJECT));
+
+        Throwable exception = assertThrows(AtomicInputException.class, () ->
+                context.put(MAIL_MIMEMESSAGE, new File("src/test/resources/testMail.eml")));
+        assertEquals("MAIL_MIMEMESSAGE is not instance of MimeMessage!", exception.getMessage());
+    }
+
+    @Test void testMailPipelineContract() throws Exception {
+
+        Throwable exception = assertThrows(AtomicInputException.class, () -> new PipelineBuilder()
+                .add(new MailGetMimeMessage())
+                .add(new MailSetSubject())
+                .validate(MAIL_FILE_KEY)
+                .build());
+        assertEquals("Stage 1 (MailSetSubject) requires MAIL_SUBJECT, which is neither given nor produced by an earlier stage!",
+                exception.getMessage());
+
+        CompiledPipeline pipeline = new PipelineBuilder()
+                .add(new MailGetMimeMessage())
+                .add(new MailSetSubject())
+                .add(new MailGetSubject().andThen(new MailGetMsgID()))
+                .validate(MAIL_FILE_KEY, MAIL_SUBJECT_KEY)
+                .trusted()
+                .build();
+        assertEquals(Set.of(MAIL_SUBJECT_KEY), pipeline.contract().required());
+        assertTrue(pipeline.contract().produced().contains(MAIL_MESSAGEID_KEY));
+
+        PipelineContext context = new PipelineContext();
+        context.put(MAIL_FILE, new File("src/test/resources/testMail.eml"));
+        context.put(MAIL_SUBJECT, "Contract");
+        pipeline.execute(context);
+
+        assertEquals("Contract", context.get(MAIL_MIMEMESSAGE_KEY).getSubject());
+        assertEquals("<2159976e-5502-41c3-a078-d96be2add8a6@sberg.net>", context.get(MAIL_MESSAGEID_KEY));
+        assertFalse(context.isTrusted());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test void testMailForEachMessage() throws Exception {
+
+        List<MimeMessage> messages = new ArrayList<>();
+        for (String name : List.of("testMail.eml", "testMailNoMsgID.eml", "testMailWithAttachments.eml")) {
+            messages.add((MimeMessage) new MailGetMimeMessage().execute(new HashMap<>() {{
+                put(MAIL_FILE, new File("src/test/resources/" + name));
+            }}).get(MAIL_MIMEMESSAGE));
+        }
+
+        Map<String,Object> forEach = new HashMap<>();
+        forEach.put(MAIL_GETMESSAGES, messages);
+        forEach.put(MAIL_MESSAGEID_CREATE_IF_NOT_EXISTS, false);
+        forEach.put(MAIL_FOREACH_PIPELINE, new MailGetSubject().andThen(new MailGetMsgID()).andThen(input -> {
+            if (input.get(MAIL_MESSAGEID) == null)
+                throw new AtomicInputException("MAIL_MESSAGEID not exist or is null!");
+            return input;
+        }));
+        forEach.put(MAIL_FOREACH_PARALLELISM, 2);
+        new MailForEachMessage().execute(forEach);
+
+        List<Map<String,Object>> results = (List<Map<String,Object>>) forEach.get(MAIL_FOREACH_RESULTS);
+        Map<Integer,Exception> errors = (Map<Integer,Exception>) forEach.get(MAIL_FOREACH_ERRORS);
+        assertEquals(3, results.size());
+        assertEquals(Set.of(1), errors.keySet());
+        assertEquals("MAIL_MESSAGEID not exist or is null!", errors.get(1).getMessage());
+        assertEquals("<2159976e-5502-41c3-a078-d96be2add8a6@sberg.net>", results.get(0).get(MAIL_MESSAGEID));
+        assertSame(messages.get(2), results.get(2).get(MAIL_MIMEMESSAGE));
+        assertEquals(messages.get(2).getSubject(), results.get(2).get(MAIL_SUBJECT));
+        assertFalse(results.get(0).containsKey(MAIL_GETMESSAGES));
+        assertNull(forEach.get(MAIL_SUBJECT));
+
+        // resources registered by the sub pipelines are closed with the parent
+        List<Closeable> closed = Collections.synchronizedList(new ArrayList<>());
+        Map<String,Object> withResources = new HashMap<>();
+        withResources.put(MAIL_GETMESSAGES, messages);
+        withResources.put(MAIL_FOREACH_PIPELINE, (PipelineOp) input -> {
+            PipelineContext.register(input, new Closeable() {
+                @Override
+                public void close() {
+                    closed.add(this);
+                }
+            });
+            return input;
+        });
+        new MailForEachMessage().execute(withResources);
+        assertEquals(3, PipelineContext.PIPELINE_RESOURCES_KEY.get(withResources).size());
+        assertTrue(((List<Map<String,Object>>) withResources.get(MAIL_FOREACH_RESULTS)).stream()
+                .noneMatch(result -> result.containsKey(PipelineContext.PIPELINE_RESOURCES)));
+        PipelineContext.closeResources(withResources);
+        assertEquals(3, closed.size());
+
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            PipelineContext context = new PipelineContext();
+            context.put(MAIL_GETMESSAGES_KEY, messages);
+            context.put(MAIL_FOREACH_PIPELINE_KEY, new MailGetSubject());
+            context.put(MAIL_FOREACH_EXECUTOR_KEY, pool);
+            new MailForEachMessage().execute(context);
+            assertTrue(context.get(MAIL_FOREACH_ERRORS_KEY).isEmpty());
+            assertTrue(context.get(MAIL_FOREACH_RESULTS_KEY).get(1) instanceof PipelineContext);
+            assertFalse(pool.isShutdown());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
     @Test void testMailGetSubject() throws Exception {
 
         Map<String, Object> mSub = new HashMap<>();
@@ -434,6 +865,206 @@ public class MailTest extends MailKeys {
     }
 
     @SuppressWarnings("unchecked")
+    @Test void testMailGetMimeBodyPartsFilter() throws Exception {
+
+        PipelineOp getParts = new MailGetMimeMessage().andThen(new MailGetMimeBodyParts());
+        Map<PartFilter, List<String>> expected = new LinkedHashMap<>();
+        expected.put(PartFilter.all(), List.of("text/html", "application/zip", "application/java-archive", "application/pdf"));
+        expected.put(PartFilter.contentType("application/*").and(PartFilter.fileName("*.JAR").negate()),
+                List.of("application/zip", "application/pdf"));
+        expected.put(PartFilter.fileName("helm-chart-?.*.zip").or(PartFilter.contentType("TEXT/html")),
+                List.of("text/html", "application/zip"));
+        expected.put(PartFilter.disposition(MimeBodyPart.ATTACHMENT).and(PartFilter.size(0, 20 * 1024)),
+                List.of("application/java-archive"));
+        expected.put(PartFilter.depth(2, Integer.MAX_VALUE), List.of());
+
+        for (Map.Entry<PartFilter, List<String>> entry : expected.entrySet()) {
+            Map<String, Object> input = new HashMap<>();
+            input.put(MAIL_FILE, new File("src/test/resources/testMailWithAttachments.eml"));
+            input.put(MAIL_GETMIMEBODYPARTS_FILTER, entry.getKey());
+            getParts.execute(input);
+            List<String> types = new ArrayList<>();
+            for (MimeBodyPart part : (List<MimeBodyPart>) input.get(MAIL_MIMEBODYPARTS)) {
+                types.add(part.getContentType().split(";")[0].trim());
+            }
+            assertEquals(entry.getValue(), types);
+        }
+
+        // the walk stops at the limit
+        Map<String, Object> first = new HashMap<>();
+        first.put(MAIL_FILE, new File("src/test/resources/testMailWithAttachments.eml"));
+        first.put(MAIL_GETMIMEBODYPARTS_FILTER_DISPO, MimeBodyPart.ATTACHMENT);
+        first.put(MAIL_GETMIMEBODYPARTS_LIMIT, 1);
+        getParts.execute(first);
+        List<MimeBodyPart> parts = (List<MimeBodyPart>) first.get(MAIL_MIMEBODYPARTS);
+        assertEquals(1, parts.size());
+        assertEquals("helm-chart-0.37.0.zip", parts.get(0).getFileName());
+
+        first.put(MAIL_GETMIMEBODYPARTS_LIMIT, 0);
+        assertThrows(AtomicInputException.class, () -> new MailGetMimeBodyParts().execute(first));
+    }
+
+    @Test void testMailSaveAttachmentFileParallel(@TempDir Path tempDir) throws Exception {
+
+        Path expected = Files.createDirectory(tempDir.resolve("expected"));
+        Map<String, Object> stream = new HashMap<>();
+        stream.put(MAIL_FILE, new File("src/test/resources/testMailWithAttachments.eml"));
+        stream.put(MAIL_SAVEATTACHMENTFILE_BASEDIR, expected.toString());
+        new MailStreamSaveAttachmentFile().execute(stream);
+
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            // 1 in the calling thread, 4 on the given pool, 8 on virtual threads
+            for (int parallelism : List.of(1, 4, 8)) {
+                Path dir = Files.createDirectory(tempDir.resolve("parallel" + parallelism));
+                Map<String, Object> input = new HashMap<>();
+                input.put(MAIL_FILE, new File("src/test/resources/testMailWithAttachments.eml"));
+                input.put(MAIL_GETMIMEBODYPARTS_FILTER_DISPO, MimeBodyPart.ATTACHMENT);
+                input.put(MAIL_SAVEATTACHMENTFILE_BASEDIR, dir.toString());
+                input.put(MAIL_SAVEATTACHMENTFILE_PARALLELISM, parallelism);
+                if (parallelism < 8)
+                    input.put(MAIL_SAVEATTACHMENTFILE_EXECUTOR, pool);
+                new MailGetMimeMessage().andThen(new MailGetMimeBodyParts()).andThen(new MailSaveAttachmentFile()).execute(input);
+
+                List<SavedAttachmentFile> written = (List<SavedAttachmentFile>) input.get(MAIL_SAVEATTACHMENTFILE_WRITTEN);
+                assertEquals(input.get(MAIL_SAVEATTACHMENTFILE_SAVEDFILES), written.stream().map(SavedAttachmentFile::file).toList());
+                for (SavedAttachmentFile file : written) {
+                    Path path = Path.of(file.file());
+                    assertEquals(Files.size(path), file.bytes());
+                    assertTrue(file.nanos() > 0);
+                    assertArrayEquals(Files.readAllBytes(expected.resolve(path.getFileName())),
+                            Files.readAllBytes(path));
+                }
+                // no temp files are left
+                try (var files = Files.list(dir)) {
+                    assertEquals(3L, files.count());
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test void testMailSaveAttachmentFileName(@TempDir Path dir) throws Exception {
+
+        Path baseDir = Files.createDirectories(dir.resolve("a").resolve("b"));
+        List<MimeBodyPart> parts = new ArrayList<>();
+        for (String name : List.of("../../escaped.txt", "..\\..\\windows.txt", "..", " ")) {
+            MimeBodyPart part = new MimeBodyPart();
+            part.setText(name);
+            part.setDisposition(MimeBodyPart.ATTACHMENT);
+            part.setFileName(name);
+            parts.add(part);
+        }
+        Map<String, Object> input = new HashMap<>();
+        input.put(MAIL_MIMEBODYPARTS, parts);
+        input.put(MAIL_SAVEATTACHMENTFILE_BASEDIR, baseDir.toString());
+        new MailSaveAttachmentFile().execute(input);
+
+        // directory components are removed, names without a file name left are skipped
+        assertEquals(List.of(baseDir + File.separator + "escaped.txt", baseDir + File.separator + "windows.txt"),
+                input.get(MAIL_SAVEATTACHMENTFILE_SAVEDFILES));
+        assertEquals("../../escaped.txt", Files.readString(baseDir.resolve("escaped.txt")));
+        assertFalse(Files.exists(dir.resolve("escaped.txt")));
+        try (var files = Files.list(dir)) {
+            assertEquals(List.of(dir.resolve("a")), files.toList());
+        }
+    }
+
+    @Test void testMailSaveAttachmentFileContentAddressed(@TempDir Path store) throws Exception {
+
+        List<List<StoredAttachmentFile>> runs = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            Map<String, Object> input = new HashMap<>();
+            input.put(MAIL_FILE, new File("src/test/resources/testMailWithAttachments.eml"));
+            input.put(MAIL_GETMIMEBODYPARTS_FILTER_DISPO, MimeBodyPart.ATTACHMENT);
+            input.put(MAIL_SAVEATTACHMENTFILE_BASEDIR, store.toString());
+            input.put(MAIL_SAVEATTACHMENTFILE_CONTENTADDRESSED, true);
+            new MailGetMimeMessage().andThen(new MailGetMimeBodyParts()).andThen(new MailSaveAttachmentFile()).execute(input);
+            List<StoredAttachmentFile> stored = (List<StoredAttachmentFile>) input.get(MAIL_SAVEATTACHMENTFILE_STOREDFILES);
+            assertEquals(stored.stream().map(StoredAttachmentFile::file).toList(), input.get(MAIL_SAVEATTACHMENTFILE_SAVEDFILES));
+            runs.add(stored);
+        }
+        assertEquals(runs.get(0), runs.get(1));
+        assertEquals(Set.of("helm-chart-0.37.0.zip", "pipe-1.0-20250327.150551-2.jar", "HOTDum.pdf"),
+                runs.get(0).stream().map(StoredAttachmentFile::fileName).collect(Collectors.toSet()));
+
+        // one file per content, named and sharded by its SHA-256
+        try (var files = Files.walk(store)) {
+            assertEquals(3L, files.filter(Files::isRegularFile).count());
+        }
+        for (StoredAttachmentFile file : runs.get(0)) {
+            Path path = Path.of(file.file());
+            String hash = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256")
+                    .digest(Files.readAllBytes(path)));
+            assertEquals(store.resolve(hash.substring(0, 2)).resolve(hash.substring(2, 4)).resolve(hash), path);
+        }
+
+        // attachments with the same file name are all listed
+        List<MimeBodyPart> parts = new ArrayList<>();
+        for (String content : List.of("first", "second", "first")) {
+            MimeBodyPart part = new MimeBodyPart();
+            part.setText(content);
+            part.setDisposition(MimeBodyPart.ATTACHMENT);
+            part.setFileName("same.txt");
+            parts.add(part);
+        }
+        Map<String, Object> input = new HashMap<>();
+        input.put(MAIL_MIMEBODYPARTS, parts);
+        input.put(MAIL_SAVEATTACHMENTFILE_BASEDIR, store.toString());
+        input.put(MAIL_SAVEATTACHMENTFILE_CONTENTADDRESSED, true);
+        new MailSaveAttachmentFile().execute(input);
+        List<StoredAttachmentFile> stored = (List<StoredAttachmentFile>) input.get(MAIL_SAVEATTACHMENTFILE_STOREDFILES);
+        assertEquals(List.of("same.txt", "same.txt", "same.txt"), stored.stream().map(StoredAttachmentFile::fileName).toList());
+        assertNotEquals(stored.get(0).file(), stored.get(1).file());
+        assertEquals(stored.get(0).file(), stored.get(2).file());
+        assertEquals("second", Files.readString(Path.of(stored.get(1).file())));
+    }
+
+    @Test void testMailGetMimePartIndex(@TempDir Path dir) throws Exception {
+
+        for (String name : List.of("testMailWithAttachments.eml", "ContentTypeNull_Problem.eml", "testMail.eml")) {
+            File file = new File("src/test/resources/" + name);
+            Map<String, Object> tree = new HashMap<>();
+            tree.put(MAIL_FILE, file);
+            new MailGetMimeMessage().andThen(new MailGetMimeBodyParts()).execute(tree);
+            List<MimeBodyPart> expected = (List<MimeBodyPart>) tree.get(MAIL_MIMEBODYPARTS);
+
+            try (PipelineContext context = new PipelineContext()) {
+                context.put(MAIL_FILE_KEY, file);
+                new MailGetMimePartIndex().andThen(new MailGetMimeBodyParts()).execute(context);
+                List<MimeBodyPart> parts = context.get(MAIL_MIMEBODYPARTS_KEY);
+                MimePartIndex index = context.get(MAIL_MIMEPARTINDEX_KEY);
+
+                assertEquals(expected.size(), parts.size(), name);
+                for (int i = 0; i < parts.size(); i++) {
+                    assertEquals(expected.get(i).getContentType(), parts.get(i).getContentType(), name);
+                    assertEquals(expected.get(i).getSize(), parts.get(i).getSize(), name);
+                    if (!expected.get(i).isMimeType("multipart/*")) {
+                        assertArrayEquals(expected.get(i).getInputStream().readAllBytes(), parts.get(i).getInputStream().readAllBytes());
+                    }
+                }
+                for (MimeStreamPart part : index.parts()) {
+                    if (part.isLeaf()) {
+                        long decoded = index.content(part).readAllBytes().length;
+                        assertTrue(Math.abs(decoded - part.estimatedDecodedSize()) <= Math.max(8, decoded / 20), part.toString());
+                    }
+                }
+                assertSame(index.root(), index.part(""));
+            }
+        }
+
+        // attachments are decoded from the indexed file region only when they are saved
+        try (PipelineContext context = new PipelineContext();
+             FileInputStream in = new FileInputStream("src/test/resources/testMailWithAttachments.eml")) {
+            context.put(MAIL_STREAM_KEY, in);
+            context.put(MAIL_GETMIMEBODYPARTS_FILTER_KEY, PartFilter.fileName("*.pdf"));
+            context.put(MAIL_SAVEATTACHMENTFILE_BASEDIR_KEY, dir.toString());
+            new MailGetMimePartIndex().andThen(new MailGetMimeBodyParts()).andThen(new MailSaveAttachmentFile()).execute(context);
+            assertEquals(List.of(dir.resolve("HOTDum.pdf").toString()), context.get(MAIL_SAVEATTACHMENTFILE_SAVEDFILES_KEY));
+        }
+    }
+
     @Test void MailGetMimeBodyParts() throws Exception {
         Map<String, Object> getMimeBodyParts = new HashMap<>(){{
             put(MAIL_FILE, new File("src/test/resources/testMailWithAttachments.eml"));
@@ -531,6 +1162,437 @@ public class MailTest extends MailKeys {
         assert htmlBodyText.contains("Appended test!");
     }
 
+    @Test void testMailModTextBodyHtml() throws Exception {
+
+        String html = "<html><head><title>body</title></head>\r\n<BODY class=\"a>b\">\r\n<p>old</p>\r\n</BODY >\r\n</html>\r\n";
+        Map<MailModTextBody.Type, String> expected = Map.of(
+                MailModTextBody.Type.APPEND, "<html><head><title>body</title></head>\r\n<BODY class=\"a>b\">\r\n<p>old</p>\r\n<p>new</p></BODY >\r\n</html>\r\n",
+                MailModTextBody.Type.REPLACE, "<html><head><title>body</title></head>\r\n<BODY class=\"a>b\"><p>new</p></BODY >\r\n</html>\r\n");
+        for (Map.Entry<MailModTextBody.Type, String> entry : expected.entrySet()) {
+            MimeMessage message = new MimeMessage((Session) null);
+            message.setContent(html, "text/html; charset=utf-8");
+            message.saveChanges();
+            Map<String, Object> input = new HashMap<>();
+            input.put(MAIL_MIMEMESSAGE, message);
+            input.put(MAIL_MODTEXTBODY_HTML, "<p>new</p>");
+            input.put(MAIL_MODTEXTBODY_TYPE, entry.getKey());
+            new MailModTextBody().execute(input);
+            assertEquals(entry.getValue(), message.getContent());
+        }
+
+        // without body tags the fragment is appended before </html> or at the end, REPLACE replaces all or up to </html>
+        for (String[] test : new String[][] {
+                {"<html><p>old</p></html>", "APPEND", "<html><p>old</p><p>new</p></html>"},
+                {"<p>old</p>", "APPEND", "<p>old</p><p>new</p>"},
+                {"<p>old</p>", "REPLACE", "<p>new</p>"},
+                {"<body><p>old</p>", "REPLACE", "<body><p>new</p>"},
+                {"<html><body><p>old</p></html>", "REPLACE", "<html><body><p>new</p></html>"},
+                {"<bodyx><p>old</p></bodyx>", "REPLACE", "<p>new</p>"}}) {
+            MimeMessage message = new MimeMessage((Session) null);
+            message.setContent(test[0], "text/html");
+            message.saveChanges();
+            Map<String, Object> input = new HashMap<>();
+            input.put(MAIL_MIMEMESSAGE, message);
+            input.put(MAIL_MODTEXTBODY_HTML, "<p>new</p>");
+            input.put(MAIL_MODTEXTBODY_TYPE, MailModTextBody.Type.valueOf(test[1]));
+            new MailModTextBody().execute(input);
+            assertEquals(test[2], message.getContent());
+        }
+    }
+
+    @Test void testMailRenderTemplate() throws Exception {
+
+        MimeMessage message = new MimeMessage((Session) null);
+        message.setHeader("Date", "Mon, 5 Oct 2026 10:00:00 +0200");
+        message.setSubject("Grüße", "UTF-8");
+        message.setText("body");
+        message.saveChanges();
+
+        Map<String, Object> input = new HashMap<>();
+        input.put(MAIL_MIMEMESSAGE, message);
+        input.put(MAIL_FROM, List.of("a@b.de", "<c@d.de>"));
+        input.put(MAIL_MESSAGEID, "<1@b.de>");
+        input.put(MAIL_TEMPLATE_PLAIN, "From ${mail.from} at ${header:Date}, ${header:Subject}, id ${mail.messageid}, ${unknown:none} $$5");
+        input.put(MAIL_TEMPLATE_HTML, "<p>${mail.from}${header:X-Missing: no header}</p>");
+        new MailRenderTemplate().execute(input);
+        assertEquals("From a@b.de, <c@d.de> at Mon, 5 Oct 2026 10:00:00 +0200, Grüße, id <1@b.de>, none $5",
+                input.get(MAIL_MODTEXTBODY_PLAIN));
+        assertEquals("<p>a@b.de, &lt;c@d.de&gt; no header</p>", input.get(MAIL_MODTEXTBODY_HTML));
+
+        // equal template Strings share one compiled template, rendering into a reused builder appends
+        assertSame(MailTemplate.cached("${mail.messageid}", false), MailTemplate.cached("${mail.messageid}", false));
+        StringBuilder out = new StringBuilder();
+        MailTemplate template = MailTemplate.compile("[${mail.messageid}]", false);
+        template.render(input, out);
+        template.render(input, out);
+        assertEquals("[<1@b.de>][<1@b.de>]", out.toString());
+
+        input.put(MAIL_TEMPLATE_PLAIN, "${mail.from");
+        assertThrows(AtomicInputException.class, () -> new MailRenderTemplate().execute(input));
+
+        // a plain template would insert the values unescaped into the html body
+        input.put(MAIL_TEMPLATE_PLAIN, MailTemplate.compile("${mail.from}", false));
+        input.put(MAIL_TEMPLATE_HTML, MailTemplate.compile("<p>${mail.from}</p>", false));
+        assertThrows(AtomicInputException.class, () -> new MailRenderTemplate().execute(input));
+        input.put(MAIL_TEMPLATE_HTML, MailTemplate.compile("<p>${mail.from}</p>", true));
+        new MailRenderTemplate().execute(input);
+        assertEquals("<p>a@b.de, &lt;c@d.de&gt;</p>", input.get(MAIL_MODTEXTBODY_HTML));
+        input.put(MAIL_TEMPLATE_PLAIN, MailTemplate.compile("${mail.from}", true));
+        assertThrows(AtomicInputException.class, () -> new MailRenderTemplate().execute(input));
+    }
+
+    @Test void testMailBodyPassthrough() throws Exception {
+
+        String body = "preamble\r\n"
+                + "--b1\r\nContent-Type: text/plain\r\n\r\nText\r\n"
+                + "--b1\r\nContent-Type: application/octet-stream\r\nContent-Transfer-Encoding: base64\r\n\r\n"
+                + "AAECAwQFBgcICQoLDA0ODxAREhMUFRYXGBkaGxwdHh8gISIjJCUmJygpKiss\r\nLS4vMDEy\r\n"
+                + "--b1--\r\nepilogue\r\n";
+        String mail = "From: a@b.de\r\nSubject: old\r\nMessage-ID: <1@b.de>\r\nMIME-Version: 1.0\r\n"
+                + "Content-Type: multipart/mixed;\r\n\tboundary=\"b1\"\r\n\r\n" + body;
+
+        for (boolean passthrough : new boolean[] {true, false}) {
+            Map<String, Object> input = new HashMap<>();
+            input.put(MAIL_STREAM, new ByteArrayInputStream(mail.getBytes(StandardCharsets.US_ASCII)));
+            input.put(MAIL_BODY_PASSTHROUGH, passthrough);
+            new MailGetMimeMessage().execute(input);
+            MimeMessage message = (MimeMessage) input.get(MAIL_MIMEMESSAGE);
+            assertEquals(passthrough, message instanceof PassthroughMimeMessage);
+            message.setSubject("new");
+            message.saveChanges();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            message.writeTo(out);
+            String written = out.toString(StandardCharsets.US_ASCII);
+            assertTrue(written.contains("Subject: new\r\n"));
+            assertTrue(written.contains("\tboundary=\"b1\"\r\n"));
+            assertTrue(written.startsWith("From: a@b.de\r\nSubject: new\r\n"));
+            if (passthrough)
+                assertTrue(written.endsWith("\r\n\r\n" + body));
+        }
+
+        // the body is not parsed on saveChanges, a broken multipart is relayed as is
+        String broken = "From: a@b.de\r\nContent-Type: multipart/mixed; boundary=\"b1\"\r\n\r\nno parts\r\n";
+        for (boolean passthrough : new boolean[] {true, false}) {
+            Map<String, Object> input = new HashMap<>();
+            input.put(MAIL_STREAM, new ByteArrayInputStream(broken.getBytes(StandardCharsets.US_ASCII)));
+            input.put(MAIL_BODY_PASSTHROUGH, passthrough);
+            new MailGetMimeMessage().execute(input);
+            MimeMessage message = (MimeMessage) input.get(MAIL_MIMEMESSAGE);
+            if (passthrough) {
+                message.saveChanges();
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                message.writeTo(out);
+                assertTrue(out.toString(StandardCharsets.US_ASCII).endsWith("\r\n\r\nno parts\r\n"));
+            } else {
+                assertThrows(MessagingException.class, message::saveChanges);
+            }
+        }
+
+        // reading the multipart may change it in place, the body is re-encoded then
+        Map<String, Object> input = new HashMap<>();
+        input.put(MAIL_STREAM, new ByteArrayInputStream(mail.getBytes(StandardCharsets.US_ASCII)));
+        input.put(MAIL_BODY_PASSTHROUGH, true);
+        new MailGetMimeMessage().execute(input);
+        PassthroughMimeMessage message = (PassthroughMimeMessage) input.get(MAIL_MIMEMESSAGE);
+        assertFalse(message.isBodyModified());
+        ((Multipart) message.getContent()).removeBodyPart(1);
+        assertTrue(message.isBodyModified());
+        message.saveChanges();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        message.writeTo(out);
+        assertFalse(out.toString(StandardCharsets.US_ASCII).contains("base64"));
+    }
+
+    @Test void testMailStreamRemoveMimeBodyParts() throws Exception {
+
+        Random random = new Random(7);
+        byte[] pdf = new byte[200_000];
+        byte[] png = new byte[50_000];
+        random.nextBytes(pdf);
+        random.nextBytes(png);
+        String head = "From: a@b.de\r\nMIME-Version: 1.0\r\nContent-Type: multipart/mixed; boundary=\"o\"\r\n\r\npreamble\r\n";
+        String alternative = "--o\r\nContent-Type: multipart/alternative; boundary=\"a\"\r\n\r\n"
+                + "--a\r\nContent-Type: text/plain\r\n\r\nplain\r\n"
+                + "--a\r\nContent-Type: text/html\r\n\r\n<p>html</p>\r\n--a--";
+        String mail = head + alternative
+                + "\r\n--o\r\nContent-Type: application/pdf\r\nContent-Disposition: attachment; filename=\"a.pdf\"\r\n"
+                + "Content-Transfer-Encoding: base64\r\n\r\n" + Base64.getMimeEncoder().encodeToString(pdf)
+                + "\r\n--o\r\nContent-Type: multipart/mixed; boundary=\"n\"\r\n\r\n"
+                + "--n\r\nContent-Type: image/png\r\nContent-Disposition: attachment; filename=\"b.png\"\r\n"
+                + "Content-Transfer-Encoding: base64\r\n\r\n" + Base64.getMimeEncoder().encodeToString(png)
+                + "\r\n--n--\r\n--o--\r\nepilogue\r\n";
+        // the only part of the inner multipart is replaced by an empty part
+        String expected = head + alternative
+                + "\r\n--o\r\nContent-Type: multipart/mixed; boundary=\"n\"\r\n\r\n"
+                + "\r\n--n\r\nContent-Type: text/plain; charset=us-ascii\r\n\r\n"
+                + "\r\n--n--\r\n--o--\r\nepilogue\r\n";
+        byte[] bytes = mail.getBytes(StandardCharsets.US_ASCII);
+        Predicate<MimeStreamPart> attachments = part -> "attachment".equals(part.disposition());
+
+        for (MimeStreamParser parser : List.of(new MimeStreamParser(), new MimeStreamParser(256, 1024))) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            MimeStreamRewriter.Result result = new MimeStreamRewriter(parser, attachments)
+                    .rewrite(new ByteArrayInputStream(bytes), out);
+            assertEquals(expected, out.toString(StandardCharsets.US_ASCII));
+            assertEquals(List.of("2", "3.1"), result.removed().stream().map(MimeStreamPart::id).toList());
+            assertEquals((long) bytes.length, result.bytesRead());
+            assertEquals((long) out.size(), result.bytesWritten());
+
+            // nothing removed, the copy is exact
+            out.reset();
+            new MimeStreamRewriter(parser, part -> false).rewrite(new ByteArrayInputStream(bytes), out);
+            assertArrayEquals(bytes, out.toByteArray());
+        }
+
+        Map<String, Object> input = new HashMap<>();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        input.put(MAIL_STREAM, new ByteArrayInputStream(bytes));
+        input.put(MAIL_STREAMREMOVEMIMEBODYPARTS_FILTER, attachments);
+        input.put(MAIL_STREAMREMOVEMIMEBODYPARTS_OUTPUT, out);
+        new MailStreamRemoveMimeBodyParts().execute(input);
+        assertEquals(2, ((List<?>) input.get(MAIL_STREAMREMOVEMIMEBODYPARTS_REMOVED)).size());
+
+        MimeMessage message = new MimeMessage(null, new ByteArrayInputStream(out.toByteArray()));
+        Multipart multipart = (Multipart) message.getContent();
+        assertEquals(2, multipart.getCount());
+        assertEquals(2, ((Multipart) multipart.getBodyPart(0).getContent()).getCount());
+        Multipart inner = (Multipart) multipart.getBodyPart(1).getContent();
+        assertEquals(1, inner.getCount());
+        assertEquals("", inner.getBodyPart(0).getContent());
+    }
+
+    @Test void testMailAddMimeBodyPartsSources(@TempDir Path dir) throws Exception {
+
+        byte[] content = new byte[100_000];
+        new Random(3).nextBytes(content);
+        Path file = dir.resolve("openkim-add.txt");
+        Files.writeString(file, "text from a file");
+        AtomicInteger opened = new AtomicInteger();
+        MimeMessage message = new MimeMessage((Session) null);
+        Map<String, Object> input = new HashMap<>();
+        input.put(MAIL_MIMEMESSAGE, message);
+        input.put(MAIL_ADDMIMEBODYPARTS, List.of(
+                file,
+                ByteBuffer.wrap(content),
+                BodyPartSource.of(() -> {
+                    opened.incrementAndGet();
+                    return new ByteArrayInputStream(content);
+                }, "application/pdf", "base64").fileName("report.pdf")));
+        new MailAddMimeBodyParts().execute(input);
+
+        // headers are set without reading the content, it is read once when written
+        message.saveChanges();
+        assertEquals(0, opened.get());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        message.writeTo(out);
+        assertEquals(1, opened.get());
+
+        Multipart multipart = (Multipart) new MimeMessage(null, new ByteArrayInputStream(out.toByteArray())).getContent();
+        assertEquals(3, multipart.getCount());
+        MimeBodyPart text = (MimeBodyPart) multipart.getBodyPart(0);
+        assertTrue(text.isMimeType("text/plain"));
+        assertEquals("quoted-printable", text.getEncoding());
+        assertEquals(file.getFileName().toString(), text.getFileName());
+        assertEquals("text from a file", new String(text.getInputStream().readAllBytes()));
+        MimeBodyPart buffer = (MimeBodyPart) multipart.getBodyPart(1);
+        assertTrue(buffer.isMimeType("application/octet-stream"));
+        assertEquals("base64", buffer.getEncoding());
+        assertArrayEquals(content, buffer.getInputStream().readAllBytes());
+        MimeBodyPart pdf = (MimeBodyPart) multipart.getBodyPart(2);
+        assertTrue(pdf.isMimeType("application/pdf"));
+        assertEquals("report.pdf", pdf.getFileName());
+        assertEquals(MimeBodyPart.ATTACHMENT, pdf.getDisposition());
+        assertArrayEquals(content, pdf.getInputStream().readAllBytes());
+
+        Map<String, Object> missing = new HashMap<>();
+        missing.put(MAIL_MIMEMESSAGE, new MimeMessage((Session) null));
+        missing.put(MAIL_ADDMIMEBODYPARTS, List.of(Path.of("not-existing.pdf")));
+        assertThrows(AtomicInputException.class, () -> new MailAddMimeBodyParts().execute(missing));
+    }
+
+    @Test void testRecipientRewriter() throws Exception {
+
+        Map<String, String> replacements = new LinkedHashMap<>();
+        replacements.put("sberg", "substring@example.org");
+        replacements.put("linuxer@sberg", "longer@example.org");
+        replacements.put("@Example.NET", "domain@example.org");
+        replacements.put("Info@Example.net", "exact@example.org");
+        for (int i = 0; i < 5000; i++) {
+            replacements.put("user" + i + "@bulk.example", "bulk" + i + "@example.org");
+        }
+        RecipientRewriter rewriter = RecipientRewriter.compile(replacements);
+        assertEquals(5004, rewriter.size());
+
+        // the first matching rule of the table wins, case insensitive
+        assertEquals("domain@example.org", rewriter.replacement(new InternetAddress("INFO@example.net")).getAddress());
+        assertEquals("domain@example.org", rewriter.replacement(new InternetAddress("other@example.NET")).getAddress());
+        assertEquals("substring@example.org", rewriter.replacement(new InternetAddress("DerLinuxer@sberg.net")).getAddress());
+        assertEquals("substring@example.org", rewriter.replacement(new InternetAddress("Sberg <x@y.de>")).getAddress());
+        assertEquals("exact@example.org", RecipientRewriter.compile(Map.of("Info@Example.net", "exact@example.org"))
+                .replacement(new InternetAddress("INFO@example.net")).getAddress());
+        Map<String, String> reversed = new LinkedHashMap<>();
+        reversed.put("linuxer@sberg", "longer@example.org");
+        reversed.put("sberg", "substring@example.org");
+        assertEquals("longer@example.org", RecipientRewriter.compile(reversed)
+                .replacement(new InternetAddress("DerLinuxer@sberg.net")).getAddress());
+        assertEquals("bulk4711@example.org", rewriter.replacement(new InternetAddress("user4711@bulk.example")).getAddress());
+        assertNull(rewriter.replacement(new InternetAddress("nobody@example.com")));
+
+        MimeMessage message = new MimeMessage((Session) null);
+        message.setRecipients(Message.RecipientType.TO, "derlinuxer@sberg.net, nobody@example.com, info@example.net");
+        message.setRecipients(Message.RecipientType.CC, "user1@bulk.example, user2@bulk.example, user1@bulk.example");
+        Map<String, Object> input = new HashMap<>();
+        input.put(MAIL_MIMEMESSAGE, message);
+        input.put(MAIL_RECIPIENTS_TYPES, List.of(Message.RecipientType.TO, Message.RecipientType.CC, Message.RecipientType.BCC));
+        input.put(MAIL_REPLACERECIPIENTS_RULES, rewriter);
+        new MailReplaceRecipients().execute(input);
+
+        assertEquals(5, input.get(MAIL_REPLACERECIPIENTS_COUNT));
+        assertEquals(Map.of("sberg", 1, "@Example.NET", 1, "user1@bulk.example", 2, "user2@bulk.example", 1),
+                input.get(MAIL_REPLACERECIPIENTS_HITS));
+        assertEquals("substring@example.org, nobody@example.com, domain@example.org", message.getHeader("To", ", "));
+        assertEquals("bulk1@example.org, bulk2@example.org, bulk1@example.org", message.getHeader("Cc", ", "));
+        assertNull(message.getHeader("Bcc"));
+        assertEquals(Long.valueOf(2), rewriter.hitCounts().get("user1@bulk.example"));
+        assertEquals(Long.valueOf(1), rewriter.hitCounts().get("sberg"));
+        assertEquals(Long.valueOf(0), rewriter.hitCounts().get("linuxer@sberg"));
+
+        // a replaced address is not matched again by a later rule
+        message.setRecipients(Message.RecipientType.TO, "a@sberg.net");
+        input.put(MAIL_REPLACERECIPIENTS_RULES, RecipientRewriter.compile(Map.of("a@sberg.net", "b@sberg.net", "b@sberg.net", "c@sberg.net")));
+        new MailReplaceRecipients().execute(input);
+        assertEquals("b@sberg.net", message.getHeader("To", ", "));
+
+        input.remove(MAIL_REPLACERECIPIENTS_RULES);
+        input.put(MAIL_REPLACERECIPIENTS, Map.of("sberg", "not an address@@"));
+        assertThrows(AtomicInputException.class, () -> new MailReplaceRecipients().execute(input));
+        input.remove(MAIL_REPLACERECIPIENTS);
+        assertThrows(AtomicInputException.class, () -> new MailReplaceRecipients().execute(input));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test void testHeaderMatcher() throws Exception {
+
+        HeaderMatcher matcher = HeaderMatcher.compile(List.of("mime-version", "X-.*", "x-multi-test", "Subj(ect)?"));
+        assertTrue(matcher.matches("MIME-Version"));
+        assertTrue(matcher.matches("X-MULTI-TEST"));
+        assertTrue(matcher.matches("subject"));
+        assertFalse(matcher.matches("MIME-Version2"));
+        assertFalse(matcher.matches("Content-Type"));
+        assertFalse(matcher.matches(null));
+
+        MimeMessage message = new MimeMessage(null, new ByteArrayInputStream(("Subject: Test\r\n"
+                + "X-MULTI-TEST: 1\r\nX-Other: 2\r\nx-multi-test: 3\r\nMIME-Version: 1.0\r\n\r\nbody\r\n").getBytes()));
+
+        // a header matching several names is found once, in header order
+        Map<String, Object> input = new HashMap<>();
+        input.put(MAIL_MIMEMESSAGE, message);
+        input.put(MAIL_HEADER_MATCHER, matcher);
+        new MailGetHeader().execute(input);
+        List<Header> headers = (List<Header>) input.get(MAIL_HEADER);
+        assertEquals(List.of("Subject", "X-MULTI-TEST", "X-Other", "x-multi-test", "MIME-Version"),
+                headers.stream().map(Header::getName).toList());
+
+        MailGetHeader getHeader = new MailGetHeader();
+        input.remove(MAIL_HEADER_MATCHER);
+        List<String> names = new ArrayList<>(List.of("MIME-VERSION"));
+        input.put(MAIL_HEADER_NAMES, names);
+        getHeader.execute(input);
+        assertEquals(1, ((List<Header>) input.get(MAIL_HEADER)).size());
+        // a List changed in place is used as it is now
+        names.set(0, "Subject");
+        getHeader.execute(input);
+        assertEquals("Subject", ((List<Header>) input.get(MAIL_HEADER)).get(0).getName());
+
+        input.put(MAIL_HEADER_NAMES, List.of("X-(.*"));
+        assertThrows(AtomicInputException.class, () -> getHeader.execute(input));
+        input.remove(MAIL_HEADER_NAMES);
+        assertThrows(AtomicInputException.class, () -> getHeader.execute(input));
+    }
+
+    @Test void testMailPatchHeaders() throws Exception {
+
+        byte[] mail = ("Received: from a\r\n\tby b; Mon, 1 Jan 2024 10:00:00 +0000\r\n"
+                + "Subject: Old\r\nX-Multi: 1\r\nX-Spam-Flag: YES\r\nX-Multi: 2\r\nX-Folded: one\r\n  two\r\n"
+                + "x-keep: a\r\nX-Gone: 1\r\n\r\nbody\r\n").getBytes();
+        HeaderPatch patch = new HeaderPatch()
+                .add("X-New", "1")
+                .set("Subject", "New")
+                .remove("X-Spam-Flag")
+                .add("Received", "from c by d")
+                .add("X-Keep", "b")
+                .set("X-MULTI", "3")
+                .add("X-Multi", "4")
+                .remove("X-Gone")
+                .add("X-Gone", "2")
+                .add("X-New", "2")
+                .add("Return-Path", "<a@sberg.net>")
+                .set("X-Removed", null);
+        assertEquals(12, patch.size());
+
+        // the same calls one by one on the message
+        MimeMessage expected = new MimeMessage(null, new ByteArrayInputStream(mail));
+        expected.addHeader("X-New", "1");
+        expected.setHeader("Subject", "New");
+        expected.removeHeader("X-Spam-Flag");
+        expected.addHeader("Received", "from c by d");
+        expected.addHeader("X-Keep", "b");
+        expected.setHeader("X-MULTI", "3");
+        expected.addHeader("X-Multi", "4");
+        expected.removeHeader("X-Gone");
+        expected.addHeader("X-Gone", "2");
+        expected.addHeader("X-New", "2");
+        expected.addHeader("Return-Path", "<a@sberg.net>");
+        expected.removeHeader("X-Removed");
+        List<String> expectedLines = Collections.list(expected.getAllHeaderLines());
+
+        MimeMessage message = new MimeMessage(null, new ByteArrayInputStream(mail));
+        PassthroughMimeMessage passthrough = new PassthroughMimeMessage(new MimeMessage(null, new ByteArrayInputStream(mail)));
+        for (MimeMessage patched : List.of(message, passthrough)) {
+            Map<String, Object> input = new HashMap<>();
+            input.put(MAIL_MIMEMESSAGE, patched);
+            input.put(MAIL_PATCHHEADERS, patch);
+            new MailPatchHeaders().execute(input);
+            assertEquals(expectedLines, Collections.list(patched.getAllHeaderLines()));
+        }
+        assertEquals(List.of("Return-Path: <a@sberg.net>", "Received: from c by d",
+                "Received: from a\r\n\tby b; Mon, 1 Jan 2024 10:00:00 +0000", "Subject: New", "X-Multi: 3",
+                "X-Multi: 4", "X-Folded: one\r\n  two", "x-keep: a", "X-Keep: b", "X-Gone: 2", "X-New: 1", "X-New: 2"),
+                Collections.list(passthrough.getAllHeaderLines()));
+
+        // the body is still passed through
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        passthrough.writeTo(out);
+        assertTrue(out.toString().endsWith("\r\n\r\nbody\r\n"));
+        assertFalse(passthrough.isBodyModified());
+
+        // set keeps the spelling of the first header of the name, also one added or set by the patch
+        HeaderPatch spelling = new HeaderPatch().set("x-a", "1").set("X-A", "2").remove("x-b").set("X-B", "3")
+                .add("received", "r1").set("RECEIVED", "r2");
+        for (String raw : List.of("X-C: 1\r\n", "X-a: 0\r\nx-B: 0\r\nReceived: r0\r\n")) {
+            byte[] headers = (raw + "\r\nbody\r\n").getBytes();
+            MimeMessage sequential = new MimeMessage(null, new ByteArrayInputStream(headers));
+            sequential.setHeader("x-a", "1");
+            sequential.setHeader("X-A", "2");
+            sequential.removeHeader("x-b");
+            sequential.setHeader("X-B", "3");
+            sequential.addHeader("received", "r1");
+            sequential.setHeader("RECEIVED", "r2");
+            for (MimeMessage patched : List.of(new MimeMessage(null, new ByteArrayInputStream(headers)),
+                    new PassthroughMimeMessage(new MimeMessage(null, new ByteArrayInputStream(headers))))) {
+                spelling.apply(patched);
+                assertEquals(Collections.list(sequential.getAllHeaderLines()), Collections.list(patched.getAllHeaderLines()));
+            }
+        }
+        assertEquals(List.of("received: r2", "X-C: 1", "x-a: 2", "X-B: 3"), spelling.apply(List.of("X-C: 1")));
+        assertEquals(List.of("X-a: 2", "X-B: 3", "received: r2"), spelling.apply(List.of("X-a: 0", "x-B: 0", "Received: r0")));
+
+        assertEquals("=?UTF-8?Q?Gr=C3=BC=C3=9Fe?=", new HeaderPatch().setText("Subject", "Grüße")
+                .apply(List.of("Subject: Old")).get(0).substring("Subject: ".length()));
+        assertThrows(IllegalArgumentException.class, () -> new HeaderPatch().add("X-Bad:", "1"));
+        assertThrows(AtomicInputException.class, () -> new MailPatchHeaders().execute(new HashMap<>(Map.of(MAIL_MIMEMESSAGE, message))));
+    }
+
     @SuppressWarnings("unchecked")
     @Test void testPop3FetchMessageHeader() throws Exception {
         String protocol = "pop3";
@@ -562,6 +1624,30 @@ public class MailTest extends MailKeys {
         }
     }
 
+    @Test void testContentTypeValidation() throws Exception {
+
+        List<String> contentTypes = List.of("null", "", " ", "text/plain", "TEXT/PLAIN", "text/plain; charset=utf-8",
+                "text/plain;charset=\"utf-8\"", "multipart/mixed;\r\n\tboundary=\"----=_Part_0\"", "text/", "/plain",
+                "text plain", "text/plain/html", "text/plain; charset", "text/plain; =utf-8", "text/plain;", "text/plain; a=b;",
+                "text/plain (comment)", "(comment) text/plain", "text/plain; name=\"unterminated", "text/plain; name=\"a\\\"b\"",
+                "application/x-foo+xml", "text\u0001/plain", "t\u00e9xt/plain", "text/plain; name*=utf-8''a%20b",
+                "text/plain; charset=utf-8 x", "text/plain, text/html", "text /\tplain");
+        for (String contentType : contentTypes) {
+            boolean parses;
+            try {
+                new jakarta.mail.internet.ContentType(contentType);
+                parses = true;
+            } catch (ParseException e) {
+                parses = false;
+            }
+            assertEquals(parses, GenericContentTypeCleaner.isValidContentType(contentType), contentType);
+            String cleaned = parses ? contentType : GenericContentTypeCleaner.DEFAULT_CONTENT_TYPE;
+            assertEquals(cleaned, GenericContentTypeCleaner.cleanContentType(null, contentType), contentType);
+            assertEquals(cleaned, GenericContentTypeCleaner.cleanContentType(null, contentType), contentType);
+        }
+        assertEquals(GenericContentTypeCleaner.DEFAULT_CONTENT_TYPE, GenericContentTypeCleaner.cleanContentType(null, null));
+    }
+
     @Test
     void testContentTypeCleaner() throws Exception {
 
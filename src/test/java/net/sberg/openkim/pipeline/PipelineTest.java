@@ -0,0 +1,201 @@
+package net.sberg.openkim.pipeline;
+
+import net.sberg.openkim.pipeline.metrics.LatencyHistogram;
+import net.sberg.openkim.pipeline.metrics.OpMetrics;
+import net.sberg.openkim.pipeline.metrics.PipelineMetrics;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PipelineTest {
+
+    @SuppressWarnings("unchecked")
+    private static PipelineOp count(String key) {
+        return (Map input) -> {
+            input.merge(key, 1, (a, b) -> (Integer) a + (Integer) b);
+            return input;
+        };
+    }
+
+    @Test void testCompiledPipelineFlattensAndThen() throws Exception {
+
+        PipelineOp pipeline = count("a").andThen(count("a")).andThen(count("b")).andThen(count("a"));
+
+        assertTrue(pipeline instanceof CompiledPipeline);
+        assertEquals(4, ((CompiledPipeline) pipeline).size());
+
+        Map<String, Object> result = pipeline.execute(new HashMap<>());
+        assertEquals(3, result.get("a"));
+        assertEquals(1, result.get("b"));
+    }
+
+    @Test void testCompiledPipelineHooks() throws Exception {
+
+        List<Integer> stages = new ArrayList<>();
+        CompiledPipeline pipeline = new PipelineBuilder()
+                .addAll(count("a"), count("a"), count("a"))
+                .listener((stage, op, nanos, error) -> stages.add(stage))
+                .stopWhen(map -> (Integer) map.get("a") == 2)
+                .build();
+
+        Map<String, Object> result = pipeline.execute(new HashMap<>());
+        assertEquals(2, result.get("a"));
+        assertEquals(List.of(0, 1), stages);
+
+        CompiledPipeline failing = new PipelineBuilder()
+                .add(count("a"))
+                .add(input -> { throw new AtomicInputException("broken"); })
+                .add(count("a"))
+                .captureErrors()
+                .build();
+
+        result = failing.execute(new HashMap<>());
+        assertEquals(1, result.get("a"));
+        assertEquals(1, result.get(CompiledPipeline.PIPELINE_ERROR_STAGE));
+        assertEquals("broken", ((Exception) result.get(CompiledPipeline.PIPELINE_ERROR)).getMessage());
+
+        // pipelines with hooks stay a single stage when chained
+        assertEquals(2, ((CompiledPipeline) failing.andThen(count("b"))).size());
+    }
+
+    @Test void testPipelineContext() {
+
+        Key<String> name = Key.of("test.context.name", String.class);
+        Key<Integer> count = Key.of("test.context.count", Integer.class);
+        assertSame(name, Key.of("test.context.name", String.class));
+        assertThrows(IllegalArgumentException.class, () -> Key.of("test.context.name", Integer.class));
+
+        PipelineContext context = new PipelineContext();
+        context.put(name, "pipeline");
+        context.put("test.context.count", 3);
+        context.put("test.context.unkeyed", "plain");
+        context.put("test.context.null", null);
+
+        assertEquals("pipeline", context.get("test.context.name"));
+        assertEquals(3, (int) context.get(count));
+        assertEquals("plain", context.get("test.context.unkeyed"));
+        assertTrue(context.containsKey("test.context.null"));
+        assertEquals(4, context.size());
+        assertEquals(Map.of("test.context.name", "pipeline", "test.context.count", 3,
+                "test.context.unkeyed", "plain"), new HashMap<>(context) {{ remove("test.context.null"); }});
+
+        Throwable exception = assertThrows(AtomicInputException.class, () -> context.put("test.context.count", "3"));
+        assertEquals("TEST_CONTEXT_COUNT is not instance of Integer!", exception.getMessage());
+
+        context.entrySet().removeIf(entry -> entry.getKey().equals("test.context.name"));
+        assertNull(context.get(name));
+        assertFalse(context.contains(name));
+        assertEquals(3, context.size());
+    }
+
+    @Test void testAsyncPipelineOp() throws Exception {
+
+        // every pipeline blocks until all 1000 are blocked, which only completes if they wait at the same time
+        int pipelines = 1000;
+        CountDownLatch allBlocked = new CountDownLatch(pipelines);
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+        PipelineOp block = input -> {
+            peak.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            allBlocked.countDown();
+            try {
+                if (!allBlocked.await(1, TimeUnit.MINUTES))
+                    throw new IllegalStateException("pipelines are not blocked at the same time");
+            } finally {
+                inFlight.decrementAndGet();
+            }
+            return input;
+        };
+        AsyncPipelineOp blocking = AsyncPipelineOp.of(count("a"))
+                .thenApplyAsync(block)
+                .thenCompose(count("a").async());
+
+        // each pipeline waits on its own virtual thread
+        List<CompletableFuture<Map<String, Object>>> futures = new ArrayList<>();
+        for (int i = 0; i < pipelines; i++) {
+            futures.add(blocking.executeAsync(new HashMap<>()));
+        }
+        for (CompletableFuture<Map<String, Object>> future : futures) {
+            assertEquals(2, future.get().get("a"));
+        }
+        assertEquals(pipelines, peak.get());
+
+        AsyncPipelineOp pipeline = AsyncPipelineOp.of(count("a")).thenCompose(count("a").async());
+
+        AsyncPipelineOp failing = pipeline.thenApplyAsync(input -> { throw new java.io.IOException("broken"); });
+        ExecutionException exception = assertThrows(ExecutionException.class,
+                () -> failing.executeAsync(new HashMap<>()).get());
+        assertTrue(exception.getCause() instanceof java.io.IOException);
+
+        Throwable toBlocking = assertThrows(java.io.IOException.class,
+                () -> failing.toBlocking().execute(new HashMap<>()));
+        assertEquals("broken", toBlocking.getMessage());
+    }
+
+    @Test void testPipelineMetrics() throws Exception {
+
+        PipelineMetrics metrics = new PipelineMetrics();
+        CompiledPipeline pipeline = new PipelineBuilder()
+                .add(metrics.wrap("count", count("a")))
+                .add(metrics.wrap("check", input -> {
+                    if ((Integer) input.get("a") > 1)
+                        throw new AtomicInputException("too many");
+                    return input;
+                }))
+                .build();
+
+        Map<String, Object> input = new HashMap<>();
+        pipeline.execute(input);
+        assertThrows(AtomicInputException.class, () -> pipeline.execute(input));
+
+        OpMetrics count = metrics.metrics("count");
+        assertEquals(2L, count.calls());
+        assertEquals(0L, count.errors());
+        assertEquals(2L, count.latency().count());
+        OpMetrics check = metrics.metrics("check");
+        assertEquals(2L, check.calls());
+        assertEquals(Map.of(AtomicInputException.class.getName(), 1L), check.errorsByType());
+
+        LatencyHistogram histogram = new LatencyHistogram(new long[] {10, 100});
+        histogram.record(5);
+        histogram.record(10);
+        histogram.record(50);
+        histogram.record(500);
+        assertArrayEquals(new long[] {2, 1, 1}, histogram.counts());
+        assertEquals(10L, histogram.quantile(0.5));
+        assertEquals(Long.MAX_VALUE, histogram.quantile(1));
+
+        StringBuilder prometheus = new StringBuilder();
+        metrics.writePrometheus(prometheus);
+        String text = prometheus.toString();
+        assertTrue(text.contains("pipeline_op_calls_total{op=\"check\"} 2\n"));
+        assertTrue(text.contains("pipeline_op_errors_total{op=\"check\",exception=\"net.sberg.openkim.pipeline.AtomicInputException\"} 1\n"));
+        assertTrue(text.contains("pipeline_op_duration_seconds_bucket{op=\"count\",le=\"+Inf\"} 2\n"));
+        assertTrue(text.contains("pipeline_op_duration_seconds_count{op=\"count\"} 2\n"));
+
+        // wrapped ops record into the new entries after a reset
+        metrics.reset();
+        assertTrue(metrics.metrics().isEmpty());
+        pipeline.execute(new HashMap<>());
+        assertEquals(1L, metrics.metrics().get("count").calls());
+
+        // lambdas need a name, the listener does not record wrapped stages twice
+        assertThrows(IllegalArgumentException.class, () -> metrics.wrap(count("a")));
+        metrics.reset();
+        CompiledPipeline listened = new PipelineBuilder()
+                .add(metrics.wrap("count", count("a")))
+                .add(count("b"))
+                .listener(metrics.listener())
+                .build();
+        listened.execute(new HashMap<>());
+        assertEquals(Set.of("count", "stage-1"), metrics.metrics().keySet());
+        assertEquals(1L, metrics.metrics().get("count").calls());
+    }
+}